@@ -0,0 +1,55 @@
+package me.ninepin.twstock;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 玩家持股的儲存後端。PlayerStockManager 先把交易寫進日誌，壓縮時才把有變更的玩家整批交給 save，
+ * 所以實作只需要處理「讀取單一玩家」與「批次寫入」。
+ * 由 storage.backend 選擇：yaml (預設，每位玩家一個檔案) 或 sqlite (單一資料庫檔)。
+ */
+interface HoldingsStore {
+
+    /**
+     * 單一玩家的持股快照：各股票持股數、合併後的買進 lot，以及已包含到的日誌序號。
+     */
+    final class PlayerSnapshot {
+        final UUID player;
+        final long journalSeq;
+        final Map<Symbol, Integer> holdings;
+        final Map<Symbol, List<Position.Lot>> lots;
+        // 載入時轉換過舊資料 (例如舊鍵名)，需要重新寫入
+        final boolean needsSave;
+
+        PlayerSnapshot(UUID player, long journalSeq, Map<Symbol, Integer> holdings,
+                       Map<Symbol, List<Position.Lot>> lots, boolean needsSave) {
+            this.player = player;
+            this.journalSeq = journalSeq;
+            this.holdings = holdings;
+            this.lots = lots;
+            this.needsSave = needsSave;
+        }
+    }
+
+    String getName();
+
+    // 讀取玩家資料，沒有資料時回傳空的快照 (可能在非主執行緒呼叫)
+    PlayerSnapshot load(UUID player) throws IOException;
+
+    /**
+     * 寫入一批玩家快照，以及這段期間的交易紀錄 (只有 {@link #keepsHistory()} 的實作會保存)。
+     * 失敗時丟出 IOException，呼叫端會在下一次壓縮時重試整批 (寫入必須是冪等的)。
+     */
+    void save(Collection<PlayerSnapshot> players, List<TransactionJournal.Entry> trades) throws IOException;
+
+    // 是否保存完整的交易歷史
+    boolean keepsHistory();
+
+    // 玩家最近的交易紀錄 (新到舊)，不保存歷史的實作回傳空清單
+    List<TransactionJournal.Entry> loadHistory(UUID player, int limit) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,225 @@
+package me.ninepin.twstock;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 共用的非同步 HTTP 傳輸層 (java.net.http.HttpClient)。
+ * 連線會被保持並重複使用，支援 HTTP/2 與 gzip 壓縮，結果以 CompletableFuture 回傳，
+ * 呼叫端可以直接串接解析而不需要為每個請求佔用一條執行緒。
+ */
+public class HttpTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(8);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+
+    private final Twstock plugin;
+    private final IoExecutor ioExecutor;
+    private final HttpClient client;
+
+    public HttpTransport(Twstock plugin, IoExecutor ioExecutor) {
+        this.plugin = plugin;
+        this.ioExecutor = ioExecutor;
+        this.client = HttpClient.newBuilder()
+                .executor(ioExecutor.executor()) // 回呼在虛擬執行緒上執行
+                .version(HttpClient.Version.HTTP_2) // 伺服器不支援時會自動降回 HTTP/1.1
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * 非同步 GET，成功 (200) 時回傳解壓後的內容；其他狀態碼記錄後回傳 null。
+     * 429 會以 IOException 結束，讓呼叫端可以辨識速率限制。
+     */
+    public CompletableFuture<byte[]> getAsync(String url, String userAgent, String context) {
+        HttpRequest request;
+        try {
+            request = newRequest(url, userAgent);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid URL " + url + ": " + e.getMessage(), e));
+        }
+
+        // 每個上游主機的同時請求數受 IoExecutor 限制
+        return ioExecutor.limitHost(request.uri().getHost(),
+                        () -> client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()))
+                .thenApply(response -> {
+                    byte[] body;
+                    try {
+                        body = decodeBody(response);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+
+                    int statusCode = response.statusCode();
+                    if (statusCode == 200) {
+                        plugin.getLogger().fine("Successfully fetched HTTP content from " + url + " for " + context +
+                                " (" + body.length + " bytes, " + response.version() + ")");
+                        return body;
+                    }
+
+                    String errorDetails = new String(body, StandardCharsets.UTF_8);
+                    if (statusCode == 429) {
+                        plugin.getLogger().severe("HTTP request to " + url + " for " + context + " failed with 429 (Too Many Requests). API limit reached. Details: " + errorDetails);
+                        throw new CompletionException(new IOException("API Rate Limit Exceeded (429) for " + url));
+                    }
+                    plugin.getLogger().warning("HTTP request to " + url + " for " + context + " failed with code: " + statusCode + ". Details: " + errorDetails);
+                    return null;
+                });
+    }
+
+    /**
+     * 非同步 GET，成功 (200) 時回傳 (已處理 gzip 的) 回應串流，讓呼叫端邊下載邊解析；
+     * 呼叫端負責關閉串流，關閉前一直佔用該主機的一個並發許可。其他狀態碼的處理方式與 getAsync 相同。
+     */
+    public CompletableFuture<InputStream> getStreamAsync(String url, String userAgent, String context) {
+        return getStreamAsync(url, userAgent, context, null, null)
+                .thenApply(response -> response != null ? response.body : null);
+    }
+
+    /**
+     * 條件式串流 GET：帶上前一次回應的 ETag / Last-Modified，伺服器回覆 304 時
+     * 回傳 notModified 的結果 (沒有內容)。200 時一併回傳新的驗證資訊；其他狀態碼回傳 null。
+     */
+    public CompletableFuture<StreamResponse> getStreamAsync(String url, String userAgent, String context,
+                                                            String etag, String lastModified) {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = newRequestBuilder(url, userAgent);
+            if (etag != null) builder.header("If-None-Match", etag);
+            if (lastModified != null) builder.header("If-Modified-Since", lastModified);
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid URL " + url + ": " + e.getMessage(), e));
+        }
+
+        // 許可一直保留到呼叫端關閉串流 (內容還在下載)，其他結果在這裡就釋放
+        return ioExecutor.limitHostUntilReleased(request.uri().getHost(), release ->
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response -> {
+                    int statusCode = response.statusCode();
+                    boolean handedOff = false;
+                    try {
+                        InputStream body = response.body();
+                        String newEtag = response.headers().firstValue("ETag").orElse(null);
+                        String newLastModified = response.headers().firstValue("Last-Modified").orElse(null);
+                        if (statusCode == 304) {
+                            body.close();
+                            plugin.getLogger().fine("HTTP content from " + url + " for " + context + " not modified");
+                            return new StreamResponse(statusCode, null, newEtag != null ? newEtag : etag,
+                                    newLastModified != null ? newLastModified : lastModified);
+                        }
+
+                        boolean gzip = response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip");
+                        if (gzip) {
+                            body = new GZIPInputStream(body);
+                        }
+                        if (statusCode == 200) {
+                            plugin.getLogger().fine("Streaming HTTP content from " + url + " for " + context + " (" + response.version() + ")");
+                            handedOff = true;
+                            return new StreamResponse(statusCode, new PermitReleasingInputStream(body, release), newEtag, newLastModified);
+                        }
+
+                        String errorDetails;
+                        try (InputStream errorStream = body) {
+                            errorDetails = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
+                        }
+                        if (statusCode == 429) {
+                            plugin.getLogger().severe("HTTP request to " + url + " for " + context + " failed with 429 (Too Many Requests). API limit reached. Details: " + errorDetails);
+                            throw new CompletionException(new IOException("API Rate Limit Exceeded (429) for " + url));
+                        }
+                        plugin.getLogger().warning("HTTP request to " + url + " for " + context + " failed with code: " + statusCode + ". Details: " + errorDetails);
+                        return null;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        if (!handedOff) {
+                            release.run();
+                        }
+                    }
+                }));
+    }
+
+    // 關閉時釋放主機的並發許可 (只釋放一次)
+    private static final class PermitReleasingInputStream extends FilterInputStream {
+        private final Runnable release;
+
+        PermitReleasingInputStream(InputStream in, Runnable release) {
+            super(in);
+            this.release = release;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release.run();
+            }
+        }
+    }
+
+    // 串流回應與其驗證資訊 (ETag / Last-Modified)
+    public static final class StreamResponse {
+        public final int statusCode;
+        public final InputStream body; // 304 時為 null
+        public final String etag;
+        public final String lastModified;
+
+        StreamResponse(int statusCode, InputStream body, String etag, String lastModified) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public boolean isNotModified() {
+            return statusCode == 304;
+        }
+    }
+
+    private HttpRequest newRequest(String url, String userAgent) {
+        return newRequestBuilder(url, userAgent).build();
+    }
+
+    private HttpRequest.Builder newRequestBuilder(String url, String userAgent) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("User-Agent", userAgent)
+                .header("Accept-Encoding", "gzip")
+                .GET();
+    }
+
+    // 非同步 GET 並以指定編碼轉為字串
+    public CompletableFuture<String> getStringAsync(String url, String charsetName, String userAgent, String context) {
+        Charset charset = Charset.forName(charsetName);
+        return getAsync(url, userAgent, context)
+                .thenApply(body -> body != null ? new String(body, charset) : null);
+    }
+
+    private static byte[] decodeBody(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.body();
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if (body == null || body.length == 0 || !encoding.equalsIgnoreCase("gzip")) {
+            return body != null ? body : new byte[0];
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+
+    // 中止進行中的請求並釋放連線 (由 onDisable 呼叫)
+    public void close() {
+        client.shutdownNow();
+    }
+}
@@ -0,0 +1,103 @@
+package me.ninepin.twstock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 玩家在聊天中輸入股票代碼與股數的對話狀態 (新增 -> 確認 -> 股數)。
+ * 點擊介面時在主執行緒開始，聊天執行緒以無鎖查詢讀取，狀態轉換與結束都以 CAS 進行，
+ * 同一個狀態只會被處理一次。逾時的對話由主執行緒定期整批清除。
+ */
+final class InputSessions {
+
+    enum Stage {
+        // 等待輸入股票代碼或名稱
+        ADD,
+        // 已輸入代碼，正在確認市場資料
+        CONFIRM,
+        // 等待輸入購買股數
+        BUY,
+        // 等待輸入賣出股數
+        SELL
+    }
+
+    // 不可變的對話狀態，轉換時替換整個物件
+    static final class Session {
+        final Stage stage;
+        // ADD 階段為 null
+        final Symbol symbol;
+        final long expiresAt;
+
+        private Session(Stage stage, Symbol symbol, long expiresAt) {
+            this.stage = stage;
+            this.symbol = symbol;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<>();
+    private volatile long timeoutMillis;
+
+    InputSessions(long timeoutSeconds) {
+        setTimeoutSeconds(timeoutSeconds);
+    }
+
+    void setTimeoutSeconds(long timeoutSeconds) {
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds));
+    }
+
+    // 開始新的對話，取代玩家原本的對話
+    Session begin(UUID player, Stage stage, Symbol symbol) {
+        Session session = create(stage, symbol);
+        sessions.put(player, session);
+        return session;
+    }
+
+    // 進行中的對話 (不含已逾時但尚未清除的)，沒有時回傳 null
+    Session get(UUID player) {
+        Session session = sessions.get(player);
+        return session != null && !session.isExpired(System.currentTimeMillis()) ? session : null;
+    }
+
+    /**
+     * 從 current 轉換到下一個狀態 (並重新計算逾時)。對話已被取消、逾時清除或由其他訊息處理時回傳 null。
+     */
+    Session advance(UUID player, Session current, Stage stage, Symbol symbol) {
+        Session next = create(stage, symbol);
+        return sessions.replace(player, current, next) ? next : null;
+    }
+
+    // 結束 current，只有一個呼叫者會得到 true
+    boolean end(UUID player, Session current) {
+        return sessions.remove(player, current);
+    }
+
+    // 玩家離線時結束對話
+    void end(UUID player) {
+        sessions.remove(player);
+    }
+
+    // 整批移除已逾時的對話，回傳這些玩家
+    List<UUID> sweep() {
+        long now = System.currentTimeMillis();
+        List<UUID> expired = new ArrayList<>();
+        for (Map.Entry<UUID, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().isExpired(now) && sessions.remove(entry.getKey(), entry.getValue())) {
+                expired.add(entry.getKey());
+            }
+        }
+        return expired;
+    }
+
+    private Session create(Stage stage, Symbol symbol) {
+        return new Session(stage, symbol, System.currentTimeMillis() + timeoutMillis);
+    }
+}
@@ -0,0 +1,157 @@
+package me.ninepin.twstock;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 插件專用的 I/O 執行器，所有會阻塞的網路與檔案工作都在 Java 21 虛擬執行緒上執行，
+ * 不再佔用 ForkJoin 共用池、Bukkit 主執行緒或聊天執行緒。
+ * 每個上游主機有各自的並發上限，結果可透過 Bukkit 排程器交回主執行緒。
+ */
+public class IoExecutor {
+    private final Twstock plugin;
+    private final ExecutorService executor;
+    // 只負責計時，到期後把工作交給虛擬執行緒
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final int maxRequestsPerHost;
+
+    public IoExecutor(Twstock plugin, int maxRequestsPerHost) {
+        this.plugin = plugin;
+        this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("TwStock-IO-", 0).factory());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwStock-IO-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @FunctionalInterface
+    public interface IoTask<T> {
+        T call() throws Exception;
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    // 將結果交回伺服器主執行緒的 Executor
+    public Executor mainThread() {
+        return plugin.getServer().getScheduler().getMainThreadExecutor(plugin);
+    }
+
+    public <T> CompletableFuture<T> supply(IoTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<Void> run(Runnable task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 在取得該主機的並發許可後才送出非同步請求，請求完成時釋放許可。
+     * 等待許可的是虛擬執行緒，因此不會阻塞平台執行緒。
+     */
+    public <T> CompletableFuture<T> limitHost(String host, Supplier<CompletableFuture<T>> request) {
+        Semaphore permits = permitsFor(host);
+        return supply(() -> {
+            permits.acquire();
+            return permits;
+        }).thenCompose(acquired -> {
+            CompletableFuture<T> started;
+            try {
+                started = request.get();
+            } catch (Throwable e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            return started.whenComplete((result, error) -> acquired.release());
+        });
+    }
+
+    /**
+     * 與 limitHost 相同，但請求完成時不釋放許可，而是把釋放的動作交給請求 (例如在回應串流關閉時呼叫)。
+     * 釋放的動作只有第一次呼叫有效；請求失敗時自動釋放。
+     */
+    public <T> CompletableFuture<T> limitHostUntilReleased(String host, Function<Runnable, CompletableFuture<T>> request) {
+        Semaphore permits = permitsFor(host);
+        return supply(() -> {
+            permits.acquire();
+            return permits;
+        }).thenCompose(acquired -> {
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    acquired.release();
+                }
+            };
+            CompletableFuture<T> started;
+            try {
+                started = request.apply(release);
+            } catch (Throwable e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            return started.whenComplete((result, error) -> {
+                if (error != null) {
+                    release.run();
+                }
+            });
+        });
+    }
+
+    private Semaphore permitsFor(String host) {
+        return hostPermits.computeIfAbsent(host == null ? "" : host.toLowerCase(),
+                key -> new Semaphore(maxRequestsPerHost, true));
+    }
+
+    // 在 I/O 執行緒上完成工作後，把結果交給主執行緒處理
+    public <T> CompletableFuture<Void> supplyThenOnMain(IoTask<T> task, Consumer<T> onMain) {
+        return supply(task).thenAcceptAsync(onMain, mainThread());
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(() -> run(task), delay, unit);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(() -> run(task), initialDelay, period, unit);
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    // 停止接受新工作並等待進行中的工作結束 (由 onDisable 呼叫)
+    public void shutdown(long timeout, TimeUnit unit) {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                plugin.getLogger().warning("I/O tasks did not finish within " + timeout + " " + unit.name().toLowerCase() + ", interrupting them");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
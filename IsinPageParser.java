@@ -0,0 +1,279 @@
+package me.ninepin.twstock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * ISIN 頁面的串流解析器。
+ * 邊讀取 BIG5 回應邊掃描 HTML 標籤，只保留每個 &lt;tr&gt; 第一個 &lt;td&gt; 的文字，
+ * 解析出 "代碼　名稱" 後立即交給 RowHandler，不建立整份 DOM。
+ * 文字的處理方式與 Jsoup 的 text() 相同：解碼常見實體、合併空白並去除頭尾空白。
+ */
+public final class IsinPageParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final char FULL_WIDTH_SPACE = '\u3000'; // 全形空格
+
+    @FunctionalInterface
+    public interface RowHandler {
+        // 回傳 false 代表不需要再繼續解析 (例如已找到目標代碼)
+        boolean accept(String stockCode, String stockName);
+    }
+
+    public static final class Stats {
+        public int rows;     // 掃描過的 <tr> 數量
+        public int entries;  // 交給 RowHandler 的有效代碼數量
+        public long chars;   // 讀取的字元數
+        public boolean stoppedEarly;
+    }
+
+    private IsinPageParser() {
+    }
+
+    public static Stats parse(InputStream in, Charset charset, RowHandler handler) throws IOException {
+        try (Reader reader = new InputStreamReader(in, charset)) {
+            return parse(reader, handler);
+        }
+    }
+
+    public static Stats parse(Reader reader, RowHandler handler) throws IOException {
+        Stats stats = new Stats();
+        char[] buffer = new char[BUFFER_SIZE];
+
+        StringBuilder cell = new StringBuilder(64);   // 第一個 td 的文字
+        StringBuilder tag = new StringBuilder(32);    // 目前標籤內容
+        StringBuilder entity = new StringBuilder(8);  // 目前 &...; 實體
+
+        boolean inTag = false;
+        boolean inComment = false;
+        boolean inEntity = false;
+        char quote = 0;          // 標籤屬性中的引號
+        int tdIndex = 0;         // 目前列中的 td 序號
+        boolean capturing = false;
+        boolean pendingSpace = false;
+
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            stats.chars += read;
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+
+                if (inComment) {
+                    tag.append(c);
+                    int length = tag.length();
+                    if (length >= 3 && tag.charAt(length - 1) == '>' && tag.charAt(length - 2) == '-' && tag.charAt(length - 3) == '-') {
+                        inComment = false;
+                        tag.setLength(0);
+                    }
+                    continue;
+                }
+
+                if (inTag) {
+                    if (quote != 0) {
+                        if (c == quote) quote = 0;
+                        continue; // 屬性值內容不需要
+                    }
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                        continue;
+                    }
+                    if (c != '>') {
+                        tag.append(c);
+                        if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                            inTag = false;
+                            inComment = true;
+                            tag.setLength(0);
+                        }
+                        continue;
+                    }
+
+                    // 標籤結束，判斷是 tr / td 的開始或結束
+                    inTag = false;
+                    boolean closing = tag.length() > 0 && tag.charAt(0) == '/';
+                    String name = tagName(tag, closing ? 1 : 0);
+                    tag.setLength(0);
+
+                    if (name.equals("tr") || name.equals("td") || name.equals("table")) {
+                        // 任何 tr/td 邊界都會結束目前擷取中的第一格
+                        if (capturing) {
+                            capturing = false;
+                            if (!emitCell(cell, handler, stats)) {
+                                stats.stoppedEarly = true;
+                                return stats;
+                            }
+                        }
+                        if (!closing && name.equals("tr")) {
+                            stats.rows++;
+                            tdIndex = 0;
+                        } else if (!closing && name.equals("td")) {
+                            tdIndex++;
+                            if (tdIndex == 1) {
+                                capturing = true;
+                                cell.setLength(0);
+                                pendingSpace = false;
+                            }
+                        }
+                    } else if (capturing && name.equals("br")) {
+                        pendingSpace = cell.length() > 0;
+                    }
+                    continue;
+                }
+
+                if (c == '<') {
+                    if (inEntity) {
+                        // 不完整的實體，原樣輸出
+                        pendingSpace = appendText(cell, capturing, "&" + entity, pendingSpace);
+                        inEntity = false;
+                        entity.setLength(0);
+                    }
+                    inTag = true;
+                    quote = 0;
+                    tag.setLength(0);
+                    continue;
+                }
+
+                if (!capturing) {
+                    continue; // 第一格以外的文字直接略過
+                }
+
+                if (inEntity) {
+                    if (c == ';') {
+                        pendingSpace = appendText(cell, true, decodeEntity(entity), pendingSpace);
+                        inEntity = false;
+                        entity.setLength(0);
+                    } else if (entity.length() < 10) {
+                        entity.append(c);
+                    } else {
+                        pendingSpace = appendText(cell, true, "&" + entity + c, pendingSpace);
+                        inEntity = false;
+                        entity.setLength(0);
+                    }
+                    continue;
+                }
+
+                if (c == '&') {
+                    inEntity = true;
+                    entity.setLength(0);
+                    continue;
+                }
+
+                if (isCollapsibleWhitespace(c)) {
+                    pendingSpace = cell.length() > 0;
+                } else {
+                    if (pendingSpace) {
+                        cell.append(' ');
+                        pendingSpace = false;
+                    }
+                    cell.append(c);
+                }
+            }
+        }
+
+        if (capturing) {
+            emitCell(cell, handler, stats);
+        }
+        return stats;
+    }
+
+    // 將 "2330　台積電" 拆成代碼與名稱，只接受 4 到 6 位數字的代碼
+    private static boolean emitCell(StringBuilder cell, RowHandler handler, Stats stats) {
+        int separator = indexOf(cell, FULL_WIDTH_SPACE);
+        if (separator <= 0) {
+            return true;
+        }
+        String stockCode = cell.substring(0, separator).trim();
+        String stockName = cell.substring(separator + 1).trim();
+        if (stockName.isEmpty() || !isStockCode(stockCode)) {
+            return true;
+        }
+        stats.entries++;
+        return handler.accept(stockCode, stockName);
+    }
+
+    static boolean isStockCode(String code) {
+        int length = code.length();
+        if (length < 4 || length > 6) return false;
+        for (int i = 0; i < length; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean appendText(StringBuilder cell, boolean capturing, String text, boolean pendingSpace) {
+        if (!capturing) return pendingSpace;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCollapsibleWhitespace(c)) {
+                pendingSpace = cell.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    cell.append(' ');
+                    pendingSpace = false;
+                }
+                cell.append(c);
+            }
+        }
+        return pendingSpace;
+    }
+
+    private static String tagName(StringBuilder tag, int from) {
+        int end = from;
+        while (end < tag.length()) {
+            char c = tag.charAt(end);
+            if (Character.isWhitespace(c) || c == '/') break;
+            end++;
+        }
+        // 只需要辨識少數標籤，手動轉小寫避免建立額外字串
+        StringBuilder name = new StringBuilder(end - from);
+        for (int i = from; i < end; i++) {
+            name.append(Character.toLowerCase(tag.charAt(i)));
+        }
+        return name.toString();
+    }
+
+    private static String decodeEntity(StringBuilder entity) {
+        String name = entity.toString();
+        switch (name) {
+            case "nbsp":
+                return " ";
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            default:
+                break;
+        }
+        if (name.startsWith("#")) {
+            try {
+                int codePoint = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException e) {
+                // 無效的數字實體，原樣保留
+            }
+        }
+        return "&" + name + ";";
+    }
+
+    // 與 Jsoup 相同：只合併一般空白與 &nbsp;，全形空格保留作為代碼與名稱的分隔
+    private static boolean isCollapsibleWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u00A0';
+    }
+
+    private static int indexOf(CharSequence text, char target) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == target) return i;
+        }
+        return -1;
+    }
+}
@@ -1,12 +1,24 @@
 package me.ninepin.twstock;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
-public class MyStockCommand implements CommandExecutor {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class MyStockCommand implements CommandExecutor, TabCompleter {
+    private static final List<String> DEBUG_ACTIONS = List.of("check", "fix", "cache", "names", "storage", "history", "valuation", "orders");
+
     private final Twstock plugin;
     private final MyStockGUI myStockGUI;
 
@@ -31,13 +43,14 @@ public class MyStockCommand implements CommandExecutor {
             }
 
             // Call plugin reload method
-            boolean success = plugin.reloadPlugin();
-
-            if (success) {
-                sender.sendMessage(ChatColor.GREEN + "TwStock 插件配置已重新載入。");
-            } else {
-                sender.sendMessage(ChatColor.RED + "重新載入 TwStock 插件配置時發生錯誤。請查看伺服器日誌。");
-            }
+            // 持股在 I/O 執行緒上寫出，完成後才在主執行緒回覆
+            plugin.reloadPlugin().thenAccept(success -> {
+                if (success) {
+                    sender.sendMessage(ChatColor.GREEN + "TwStock 插件配置已重新載入。");
+                } else {
+                    sender.sendMessage(ChatColor.RED + "重新載入 TwStock 插件配置時發生錯誤。請查看伺服器日誌。");
+                }
+            });
 
             return true;
         }
@@ -51,6 +64,20 @@ public class MyStockCommand implements CommandExecutor {
             return true;
         }
 
+        // 直接以代碼或名稱新增股票: /mystock add <代碼或名稱>
+        if (args.length > 0 && args[0].equalsIgnoreCase("add")) {
+            if (!plugin.isVaultEnabled()) {
+                player.sendMessage(ChatColor.RED + "經濟系統未啟用，無法進行交易");
+                return true;
+            }
+            if (args.length < 2) {
+                player.sendMessage(ChatColor.RED + "使用方法: /mystock add <股票代碼或名稱>");
+                return true;
+            }
+            myStockGUI.addStockByInput(player, String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+            return true;
+        }
+
         // Optional: Support for admin debugging commands
         if (args.length > 0 && player.hasPermission("twstock.admin")) {
             if (args[0].equalsIgnoreCase("debug")) {
@@ -66,7 +93,7 @@ public class MyStockCommand implements CommandExecutor {
 
     private boolean handleDebugCommands(Player player, String[] args) {
         if (args.length < 2) {
-            player.sendMessage(ChatColor.RED + "使用方法: /mystock debug [check|fix]");
+            player.sendMessage(ChatColor.RED + "使用方法: /mystock debug [check|fix|cache|names|storage|history|valuation|orders]");
             return true;
         }
 
@@ -83,8 +110,117 @@ public class MyStockCommand implements CommandExecutor {
             case "fix":
                 // Force reload for this player
                 player.sendMessage(ChatColor.YELLOW + "正在嘗試修復投資組合數據...");
-                plugin.getPlayerStockManager().reloadHoldings();
-                player.sendMessage(ChatColor.GREEN + "投資組合數據已重新載入。");
+                plugin.getPlayerStockManager().reloadHoldings()
+                        .thenRun(() -> player.sendMessage(ChatColor.GREEN + "投資組合數據已重新載入。"));
+                break;
+
+            case "cache":
+                // Show quote cache statistics
+                QuoteCache quoteCache = plugin.getQuoteCache();
+                player.sendMessage(ChatColor.GOLD + "===== 股價快取統計 =====");
+                player.sendMessage(ChatColor.GRAY + "TTL: " + ChatColor.WHITE + quoteCache.getTtlSeconds() + " 秒");
+                player.sendMessage(ChatColor.GRAY + "快取股票數: " + ChatColor.WHITE + quoteCache.size() +
+                        ChatColor.GRAY + "，查詢中: " + ChatColor.WHITE + quoteCache.getInFlightCount());
+                player.sendMessage(ChatColor.GRAY + "命中: " + ChatColor.WHITE + quoteCache.getHits() +
+                        ChatColor.GRAY + "，未命中: " + ChatColor.WHITE + quoteCache.getMisses() +
+                        ChatColor.GRAY + "，合併請求: " + ChatColor.WHITE + quoteCache.getCoalesced());
+                player.sendMessage(ChatColor.GRAY + "命中率: " + ChatColor.WHITE +
+                        String.format("%.1f", quoteCache.getHitRate() * 100) + "%");
+                if (args.length > 2 && args[2].equalsIgnoreCase("reset")) {
+                    quoteCache.resetStats();
+                    player.sendMessage(ChatColor.YELLOW + "統計數據已重設。");
+                }
+                break;
+
+            case "names":
+                // Show stock name directory status
+                StockNameDirectory directory = plugin.getStockNameDirectory();
+                player.sendMessage(ChatColor.GOLD + "===== 股票名稱目錄 =====");
+                player.sendMessage(ChatColor.GRAY + "狀態: " + ChatColor.WHITE + directory.getState() +
+                        ChatColor.GRAY + "，名稱數: " + ChatColor.WHITE + directory.size());
+                player.sendMessage(ChatColor.GRAY + "進度: " + ChatColor.WHITE + directory.describeProgress());
+                player.sendMessage(ChatColor.GRAY + "查無快取: " + ChatColor.WHITE + directory.getNegativeCacheSize() + " 筆");
+                player.sendMessage(ChatColor.GRAY + "快照: " + ChatColor.WHITE + directory.getSnapshotBytes() + " bytes" +
+                        ChatColor.GRAY + "，未寫入快照: " + ChatColor.WHITE + directory.getOverlaySize() + " 筆");
+                if (args.length > 2) {
+                    handleNamesFileCommand(player, directory, args[2].toLowerCase());
+                }
+                break;
+
+            case "storage":
+                // Show write-behind persistence status
+                PlayerStockManager stockManager = plugin.getPlayerStockManager();
+                player.sendMessage(ChatColor.GOLD + "===== 持股存檔狀態 =====");
+                player.sendMessage(ChatColor.GRAY + "儲存後端: " + ChatColor.WHITE + stockManager.getStoreName());
+                player.sendMessage(ChatColor.GRAY + "已載入玩家: " + ChatColor.WHITE + stockManager.getLoadedPlayerCount() +
+                        ChatColor.GRAY + "，待寫入: " + ChatColor.WHITE + stockManager.getDirtyCount());
+                player.sendMessage(ChatColor.GRAY + "讀檔次數: " + ChatColor.WHITE + stockManager.getShardLoads() +
+                        ChatColor.GRAY + "，移出記憶體: " + ChatColor.WHITE + stockManager.getEvictions());
+                player.sendMessage(ChatColor.GRAY + "日誌序號: " + ChatColor.WHITE + stockManager.getJournalSeq() +
+                        ChatColor.GRAY + "，未壓縮: " + ChatColor.WHITE + stockManager.getJournalPendingRecords() + " 筆");
+                player.sendMessage(ChatColor.GRAY + "寫入次數: " + ChatColor.WHITE + stockManager.getFlushCount() +
+                        ChatColor.GRAY + "，失敗: " + ChatColor.WHITE + stockManager.getFailedFlushCount());
+                player.sendMessage(ChatColor.GRAY + "寫入耗時: " + ChatColor.WHITE +
+                        String.format("最近 %.1f ms，平均 %.1f ms，最長 %.1f ms",
+                                stockManager.getLastFlushMillis(), stockManager.getAverageFlushMillis(), stockManager.getMaxFlushMillis()));
+                if (args.length > 2 && args[2].equalsIgnoreCase("flush")) {
+                    player.sendMessage(ChatColor.YELLOW + "正在寫入待保存的持股...");
+                    stockManager.flushAsync().thenRunAsync(() ->
+                            player.sendMessage(ChatColor.GREEN + "寫入完成。"), plugin.getIoExecutor().mainThread());
+                }
+                break;
+
+            case "history":
+                // Show the latest trades (只有 sqlite 後端保存完整歷史)
+                plugin.getPlayerStockManager().getTradeHistoryAsync(player.getUniqueId(), 10)
+                        .thenAcceptAsync(history -> {
+                            if (history.isEmpty()) {
+                                player.sendMessage(ChatColor.YELLOW + "沒有交易歷史 (YAML 後端只保存合併後的成本記錄，或尚未寫入)。");
+                                return;
+                            }
+                            player.sendMessage(ChatColor.GOLD + "===== 最近的交易 =====");
+                            for (TransactionJournal.Entry entry : history) {
+                                player.sendMessage(ChatColor.GRAY + "#" + entry.seq + " " + ChatColor.WHITE + entry.type + " " +
+                                        entry.symbol + " " + entry.shares + " 股" +
+                                        (entry.hasPrice() ? " @ $" + String.format("%.2f", entry.price) : ""));
+                            }
+                        }, plugin.getIoExecutor().mainThread())
+                        .exceptionally(error -> {
+                            plugin.getLogger().warning("Trade history lookup failed: " + error.getMessage());
+                            return null;
+                        });
+                break;
+
+            case "valuation":
+                // Show the precomputed portfolio valuations (已載入的玩家)
+                ValuationEngine engine = plugin.getValuationEngine();
+                player.sendMessage(ChatColor.GOLD + "===== 投資組合估值 =====");
+                player.sendMessage(ChatColor.GRAY + "追蹤玩家: " + ChatColor.WHITE + engine.getTrackedPlayerCount() +
+                        ChatColor.GRAY + "，索引股票: " + ChatColor.WHITE + engine.getIndexedSymbolCount());
+                ValuationEngine.Summary own = engine.getSummary(player.getUniqueId());
+                if (own != null) {
+                    player.sendMessage(ChatColor.GRAY + "你的總市值: " + ChatColor.WHITE + String.format("$%,.2f", own.marketValue) +
+                            ChatColor.GRAY + "，損益: " + ChatColor.WHITE + String.format("$%,.2f", own.getProfit()) +
+                            ChatColor.GRAY + " (" + own.pricedHoldings + "/" + own.holdings + " 檔有報價)");
+                }
+                int rank = 1;
+                for (Map.Entry<UUID, ValuationEngine.Summary> entry : engine.top(5,
+                        Comparator.comparingDouble((ValuationEngine.Summary summary) -> summary.marketValue).reversed())) {
+                    Player holder = Bukkit.getPlayer(entry.getKey());
+                    String name = holder != null ? holder.getName() : entry.getKey().toString();
+                    player.sendMessage(ChatColor.YELLOW + "#" + rank++ + " " + ChatColor.WHITE + name +
+                            ChatColor.GRAY + " 市值 " + ChatColor.WHITE + String.format("$%,.2f", entry.getValue().marketValue));
+                }
+                break;
+
+            case "orders":
+                // Show order batching statistics
+                OrderEngine orders = plugin.getOrderEngine();
+                player.sendMessage(ChatColor.GOLD + "===== 委託撮合 =====");
+                player.sendMessage(ChatColor.GRAY + "等待中: " + ChatColor.WHITE + orders.getPendingCount() +
+                        ChatColor.GRAY + "，批次數: " + ChatColor.WHITE + orders.getBatchCount());
+                player.sendMessage(ChatColor.GRAY + "成交: " + ChatColor.WHITE + orders.getFilledCount() +
+                        ChatColor.GRAY + "，未成交: " + ChatColor.WHITE + orders.getRejectedCount());
                 break;
 
             default:
@@ -94,4 +230,66 @@ public class MyStockCommand implements CommandExecutor {
 
         return true;
     }
-}
\ No newline at end of file
+
+    // /mystock debug names import|export：與 stock_names.properties 互相轉換 (在 I/O 執行緒上執行)；refresh：立即比對 ISIN 清單
+    private void handleNamesFileCommand(Player player, StockNameDirectory directory, String action) {
+        if (action.equals("refresh")) {
+            player.sendMessage(ChatColor.YELLOW + "正在重新下載上市、上櫃 ISIN 清單...");
+            directory.refreshAllAsync().thenAcceptAsync(results -> {
+                if (results.isEmpty()) {
+                    player.sendMessage(ChatColor.RED + "刷新失敗或背景載入仍在進行中，請查看伺服器日誌。");
+                    return;
+                }
+                results.forEach((market, result) ->
+                        player.sendMessage(ChatColor.GREEN + market.name() + ": " + ChatColor.WHITE + result));
+            }, plugin.getIoExecutor().mainThread());
+            return;
+        }
+        if (!action.equals("import") && !action.equals("export")) {
+            player.sendMessage(ChatColor.RED + "使用方法: /mystock debug names [import|export|refresh]");
+            return;
+        }
+        player.sendMessage(ChatColor.YELLOW + (action.equals("import") ? "正在從 stock_names.properties 匯入..." : "正在匯出至 stock_names.properties..."));
+        plugin.getIoExecutor().supplyThenOnMain(() -> action.equals("import")
+                        ? "匯入完成: " + directory.importProperties()
+                        : "已匯出 " + directory.exportProperties() + " 筆名稱",
+                message -> player.sendMessage(ChatColor.GREEN + message))
+                .exceptionally(error -> {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    plugin.getLogger().warning("Stock name " + action + " failed: " + cause.getMessage());
+                    plugin.getServer().getScheduler().runTask(plugin, () ->
+                            player.sendMessage(ChatColor.RED + "操作失敗: " + cause.getMessage()));
+                    return null;
+                });
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 1) {
+            List<String> subcommands = new ArrayList<>();
+            subcommands.add("add");
+            if (sender.hasPermission("twstock.reload")) subcommands.add("reload");
+            if (sender.hasPermission("twstock.admin")) subcommands.add("debug");
+            return filterPrefix(subcommands, args[0]);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("add")) {
+            return plugin.suggestStocks(args[1]);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("debug") && sender.hasPermission("twstock.admin")) {
+            return filterPrefix(DEBUG_ACTIONS, args[1]);
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase("debug") && args[1].equalsIgnoreCase("names")
+                && sender.hasPermission("twstock.admin")) {
+            return filterPrefix(List.of("import", "export", "refresh"), args[2]);
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<String> filterPrefix(List<String> options, String prefix) {
+        List<String> matches = new ArrayList<>();
+        for (String option : options) {
+            if (option.startsWith(prefix.toLowerCase())) matches.add(option);
+        }
+        return matches;
+    }
+}
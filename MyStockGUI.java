@@ -9,49 +9,253 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 
+import org.bukkit.scheduler.BukkitTask;
+
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class MyStockGUI {
     private final Twstock plugin;
     private final PlayerStockManager playerStockManager;
 
-    // Map to track which players are in chat input mode
-    private final Map<UUID, String> pendingStockPurchases = new HashMap<>();
-    private final Map<UUID, String> pendingStockSales = new HashMap<>();
-    private final Map<UUID, Boolean> pendingStockAdditions = new HashMap<>(); // Track users adding new stocks
+    // 聊天輸入的對話狀態 (新增股票、購買與賣出股數)，聊天執行緒以無鎖查詢讀取
+    private final InputSessions inputSessions;
+    private static final long DEFAULT_INPUT_TIMEOUT_SECONDS = 60;
+    // 逾時對話的清除間隔 (tick)
+    private static final long INPUT_SWEEP_TICKS = 100L;
+    private BukkitTask inputSweepTask;
+
+    // 每頁顯示的股票數 (最下面一排留給控制按鈕)
+    private static final int PAGE_SIZE = 45;
+
+    // 投資組合與概覽的排序方式
+    enum SortOrder {
+        VALUE("市值"),
+        PROFIT("損益"),
+        SYMBOL("代碼");
+
+        final String label;
+
+        SortOrder(String label) {
+            this.label = label;
+        }
+
+        SortOrder next() {
+            return values()[(ordinal() + 1) % values().length];
+        }
+    }
+
+    // 玩家目前的頁碼與排序方式 (只在主執行緒存取)
+    private final Map<UUID, Integer> portfolioPages = new HashMap<>();
+    private final Map<UUID, Integer> overviewPages = new HashMap<>();
+    private final Map<UUID, SortOrder> sortOrders = new HashMap<>();
+
+    // 訂閱報價更新的介面 (只在主執行緒存取)
+    private final Map<UUID, StockMenu> openViews = new HashMap<>();
+    // 尚未套用到介面的報價變動，每個 tick 最多套用一次
+    private final Set<Symbol> changedSymbols = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+    private static final long DEFAULT_LIVE_UPDATE_SECONDS = 30;
+    private BukkitTask liveUpdateTask;
 
     public MyStockGUI(Twstock plugin, PlayerStockManager playerStockManager) {
         this.plugin = plugin;
         this.playerStockManager = playerStockManager;
+        this.inputSessions = new InputSessions(getInputTimeoutSeconds());
+        plugin.getQuoteCache().addListener(this::onQuoteChanged);
     }
 
-    public void openGUI(Player player) {
-        Inventory gui = Bukkit.createInventory(null, 54, ChatColor.DARK_PURPLE + "我的投資組合");
+    private long getInputTimeoutSeconds() {
+        return plugin.getConfig().getLong("gui.input-timeout-seconds", DEFAULT_INPUT_TIMEOUT_SECONDS);
+    }
 
-        try {
-            // First, ensure player holdings are loaded from the config
-            Map<String, Integer> holdings = playerStockManager.getPlayerHoldings(player);
+    // 開始定期清除逾時的聊天輸入 (由 onEnable 與重新載入呼叫)
+    public void startInputSweep() {
+        if (inputSweepTask != null) {
+            inputSweepTask.cancel();
+        }
+        inputSessions.setTimeoutSeconds(getInputTimeoutSeconds());
+        inputSweepTask = Bukkit.getScheduler().runTaskTimer(plugin, this::sweepInputSessions, INPUT_SWEEP_TICKS, INPUT_SWEEP_TICKS);
+    }
+
+    private void sweepInputSessions() {
+        for (UUID playerUUID : inputSessions.sweep()) {
+            Player player = Bukkit.getPlayer(playerUUID);
+            if (player != null) {
+                player.sendMessage(ChatColor.YELLOW + "輸入逾時，操作已取消");
+            }
+        }
+    }
 
-            // Populate GUI with player's holdings
+    // 開始定期重新查詢開啟中介面的報價 (由 onEnable 與重新載入呼叫)
+    public void startLiveUpdates() {
+        stopLiveUpdates();
+        long seconds = plugin.getConfig().getLong("gui.live-update-seconds", DEFAULT_LIVE_UPDATE_SECONDS);
+        if (seconds > 0) {
+            liveUpdateTask = Bukkit.getScheduler().runTaskTimer(plugin, this::refreshOpenViews, seconds * 20L, seconds * 20L);
+        }
+    }
 
-            int slot = 0;
-            for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-                String stockSymbol = entry.getKey();
-                int shares = entry.getValue();
+    public void stopLiveUpdates() {
+        if (liveUpdateTask != null) {
+            liveUpdateTask.cancel();
+            liveUpdateTask = null;
+        }
+    }
+
+    // 經過報價快取批次查詢所有開啟中介面的股票 (TTL 內不會發出請求)，價格變動由監聽器更新格子
+    private void refreshOpenViews() {
+        Set<Symbol> symbols = new HashSet<>();
+        for (StockMenu menu : openViews.values()) {
+            symbols.addAll(menu.getStockSlots().keySet());
+        }
+        if (!symbols.isEmpty()) {
+            plugin.fetchQuotesAsync(symbols).exceptionally(error -> {
+                plugin.getLogger().fine("Live quote refresh failed: " + error.getMessage());
+                return Map.of();
+            });
+        }
+    }
+
+    // 報價變動 (I/O 執行緒)：記下代碼，同一個 tick 內的變動合併成一次主執行緒更新
+    private void onQuoteChanged(Symbol symbol, Twstock.StockData data) {
+        changedSymbols.add(symbol);
+        if (updateScheduled.compareAndSet(false, true)) {
+            plugin.getIoExecutor().mainThread().execute(this::applyQuoteUpdates);
+        }
+    }
+
+    private void applyQuoteUpdates() {
+        updateScheduled.set(false);
+        Set<Symbol> changed = new HashSet<>();
+        for (Iterator<Symbol> it = changedSymbols.iterator(); it.hasNext(); ) {
+            changed.add(it.next());
+            it.remove();
+        }
 
-                if (slot >= 45) break; // Limit to first 45 slots (leaving bottom row for controls)
+        for (Iterator<Map.Entry<UUID, StockMenu>> it = openViews.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<UUID, StockMenu> entry = it.next();
+            StockMenu menu = entry.getValue();
+            Inventory inventory = menu.getInventory();
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null || player.getOpenInventory().getTopInventory() != inventory) {
+                it.remove();
+                continue;
+            }
+
+            boolean overview = menu.kind == StockMenu.Kind.OVERVIEW;
+            boolean totalsChanged = false;
+            for (Symbol stockSymbol : changed) {
+                if (overview) {
+                    totalsChanged |= containsSymbol(menu.holdings, stockSymbol);
+                }
+                Integer slot = menu.slotOf(stockSymbol);
+                if (slot == null) continue;
+
+                QuoteResult quote = QuoteResult.ok(stockSymbol, plugin.getQuoteCache().getLastKnown(stockSymbol));
+                int shares = menu.sharesOf(stockSymbol);
+                if (overview) {
+                    setIfChanged(inventory, slot, createOverviewItem(player, stockSymbol, shares, quote, false));
+                } else {
+                    setIfChanged(inventory, slot, createStockItem(player, stockSymbol, shares, quote, false));
+                }
+            }
+            if (totalsChanged) {
+                setIfChanged(inventory, 49, createOverviewSummary(player, false));
+            }
+        }
+    }
+
+    private static boolean containsSymbol(List<Map.Entry<Symbol, Integer>> holdings, Symbol stockSymbol) {
+        for (Map.Entry<Symbol, Integer> entry : holdings) {
+            if (entry.getKey().equals(stockSymbol)) return true;
+        }
+        return false;
+    }
+
+    // 只有顯示的文字不同時才替換格子，避免客戶端重繪沒有變化的物品
+    private static void setIfChanged(Inventory inventory, int slot, ItemStack item) {
+        ItemStack current = inventory.getItem(slot);
+        if (current != null && current.getType() == item.getType()) {
+            ItemMeta currentMeta = current.getItemMeta();
+            ItemMeta meta = item.getItemMeta();
+            if (currentMeta != null && meta != null
+                    && Objects.equals(currentMeta.getDisplayName(), meta.getDisplayName())
+                    && Objects.equals(currentMeta.getLore(), meta.getLore())) {
+                return;
+            }
+        }
+        inventory.setItem(slot, item);
+    }
 
-                // Fetch current stock data to show price
-                ItemStack stockItem = createStockItem(player, stockSymbol, shares);
-                gui.setItem(slot++, stockItem);
+    // 介面關閉時取消訂閱 (開啟另一個介面時也會先關閉原本的)
+    public void handleInventoryClose(UUID playerUUID, StockMenu menu) {
+        openViews.remove(playerUUID, menu);
+    }
+
+    /**
+     * 立即以持股與成本資料開啟玩家目前所在的頁面 (預設第一頁)，只建立與查詢這一頁的股票：
+     * 快取中沒有有效報價的股票先顯示上次的價格並標示更新中，再由 I/O 執行緒批次查詢，
+     * 回到主執行緒後更新對應的格子，之後在背景預先查詢相鄰頁面。主執行緒不會等待網路。
+     */
+    public void openGUI(Player player) {
+        openGUI(player, portfolioPages.getOrDefault(player.getUniqueId(), 0));
+    }
+
+    private void openGUI(Player player, int requestedPage) {
+        try {
+            // 記憶體中的持股快照 (登入時已預先載入)
+            Map<Symbol, Integer> holdings = playerStockManager.getPlayerHoldings(player);
+            SortOrder sortOrder = sortOrders.getOrDefault(player.getUniqueId(), SortOrder.VALUE);
+            List<Map.Entry<Symbol, Integer>> sorted = sortHoldings(player, holdings, sortOrder);
+            int totalPages = pageCount(sorted.size());
+            int page = Math.max(0, Math.min(requestedPage, totalPages - 1));
+            portfolioPages.put(player.getUniqueId(), page);
+
+            StockMenu menu = new StockMenu(StockMenu.Kind.PORTFOLIO, 54,
+                    ChatColor.DARK_PURPLE + "我的投資組合" + pageSuffix(page, totalPages), sorted);
+            Inventory gui = menu.getInventory();
+
+            // Populate GUI with the holdings on this page
+            Map<Integer, Map.Entry<Symbol, Integer>> shown = new LinkedHashMap<>();
+            List<Symbol> missing = new ArrayList<>();
+            int slot = 0;
+            for (Map.Entry<Symbol, Integer> entry : pageOf(sorted, page)) {
+                Symbol stockSymbol = entry.getKey();
+                Twstock.StockData cached = plugin.getQuoteCache().getIfFresh(stockSymbol);
+                QuoteResult quote = cached != null ? QuoteResult.ok(stockSymbol, cached) : null;
+                if (cached == null) {
+                    missing.add(stockSymbol);
+                }
+                menu.setStock(slot, stockSymbol, entry.getValue(),
+                        createStockItem(player, stockSymbol, entry.getValue(), quote, cached == null));
+                shown.put(slot, entry);
+                slot++;
             }
 
             // Add control buttons at the bottom
-            addControlButtons(gui);
+            addControlButtons(menu, page, totalPages, sortOrder);
 
             // Open the GUI for the player
             player.openInventory(gui);
-            plugin.getLogger().info("Opened MyStock GUI for " + player.getName());
+            openViews.put(player.getUniqueId(), menu);
+            plugin.getLogger().info("Opened MyStock GUI page " + (page + 1) + "/" + totalPages + " for " + player.getName());
+
+            if (missing.isEmpty()) {
+                prefetchAdjacentPages(sorted, page);
+                return;
+            }
+            fetchQuotesThenOnMain(player, gui, missing, quotes -> {
+                for (Map.Entry<Integer, Map.Entry<Symbol, Integer>> entry : shown.entrySet()) {
+                    Symbol stockSymbol = entry.getValue().getKey();
+                    if (!missing.contains(stockSymbol)) continue;
+                    setIfChanged(gui, entry.getKey(), createStockItem(player, stockSymbol, entry.getValue().getValue(),
+                            quotes.get(stockSymbol), false));
+                }
+                prefetchAdjacentPages(sorted, page);
+            });
         } catch (Exception e) {
             player.sendMessage(ChatColor.RED + "開啟投資組合時發生錯誤: " + e.getMessage());
             plugin.getLogger().severe("Error opening MyStock GUI for " + player.getName() + ": " + e.getMessage());
@@ -60,131 +264,255 @@ public class MyStockGUI {
     }
 
     public void openOverviewGUI(Player player) {
-        Inventory gui = Bukkit.createInventory(null, 54, ChatColor.GOLD + "投資概覽");
+        openOverviewGUI(player, overviewPages.getOrDefault(player.getUniqueId(), 0));
+    }
 
+    private void openOverviewGUI(Player player, int requestedPage) {
         try {
             // 確保玩家持股資料已載入
-            Map<String, Integer> holdings = playerStockManager.getPlayerHoldings(player);
+            Map<Symbol, Integer> holdings = playerStockManager.getPlayerHoldings(player);
+            SortOrder sortOrder = sortOrders.getOrDefault(player.getUniqueId(), SortOrder.VALUE);
+            List<Map.Entry<Symbol, Integer>> sorted = sortHoldings(player, holdings, sortOrder);
+            int totalPages = pageCount(sorted.size());
+            int page = Math.max(0, Math.min(requestedPage, totalPages - 1));
+            overviewPages.put(player.getUniqueId(), page);
+
+            StockMenu menu = new StockMenu(StockMenu.Kind.OVERVIEW, 54,
+                    ChatColor.GOLD + "投資概覽" + pageSuffix(page, totalPages), sorted);
+            Inventory gui = menu.getInventory();
+
+            // 先以快取中仍有效的報價建立這一頁
+            List<Map.Entry<Symbol, Integer>> visible = pageOf(sorted, page);
+            Map<Symbol, QuoteResult> quotes = new HashMap<>();
+            List<Symbol> missing = new ArrayList<>();
+            for (Map.Entry<Symbol, Integer> entry : visible) {
+                Twstock.StockData cached = plugin.getQuoteCache().getIfFresh(entry.getKey());
+                if (cached != null) {
+                    quotes.put(entry.getKey(), QuoteResult.ok(entry.getKey(), cached));
+                } else {
+                    missing.add(entry.getKey());
+                }
+            }
+            for (int i = 0; i < visible.size(); i++) {
+                Symbol stockSymbol = visible.get(i).getKey();
+                menu.setStock(i, stockSymbol, visible.get(i).getValue(), createOverviewItem(player, stockSymbol,
+                        visible.get(i).getValue(), quotes.get(stockSymbol), !missing.isEmpty()));
+            }
+            // 總覽物品只供顯示，沒有點擊動作
+            gui.setItem(49, createOverviewSummary(player, !missing.isEmpty()));
+
+            // 添加返回按鈕
+            ItemStack backButton = new ItemStack(Material.ARROW);
+            ItemMeta backMeta = backButton.getItemMeta();
+            backMeta.setDisplayName(ChatColor.YELLOW + "返回投資組合");
+            backButton.setItemMeta(backMeta);
+            menu.setButton(45, StockMenu.Action.BACK, backButton);
+            addPageButtons(menu, page, totalPages, sortOrder);
 
-            // 計算相關數據
-            double totalInvestment = 0.0;
-            double totalCurrentValue = 0.0;
-            double totalProfit = 0.0;
+            // 打開介面
+            player.openInventory(gui);
+            openViews.put(player.getUniqueId(), menu);
+            plugin.getLogger().info("Opened Investment Overview GUI page " + (page + 1) + "/" + totalPages + " for " + player.getName());
 
-            // 創建概覽物品
-            List<ItemStack> stockItems = new ArrayList<>();
+            // 這一頁其餘的報價在背景批次查詢，取得後重新計算概覽
+            if (missing.isEmpty()) {
+                prefetchAdjacentPages(sorted, page);
+                return;
+            }
+            fetchQuotesThenOnMain(player, gui, missing, loaded -> {
+                quotes.putAll(loaded);
+                fillOverview(player, gui, visible, quotes, false);
+                prefetchAdjacentPages(sorted, page);
+            });
 
-            for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-                String stockSymbol = entry.getKey();
-                int shares = entry.getValue();
+        } catch (Exception e) {
+            player.sendMessage(ChatColor.RED + "開啟投資概覽時發生錯誤: " + e.getMessage());
+            plugin.getLogger().severe("Error opening Investment Overview GUI for " + player.getName() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-                if (shares <= 0) continue;
+    /**
+     * 報價取得後重繪概覽這一頁的股票格子與總覽物品 (總計由估值引擎提供，不為其他頁面發出查詢)。
+     */
+    private void fillOverview(Player player, Inventory gui, List<Map.Entry<Symbol, Integer>> visible,
+                              Map<Symbol, QuoteResult> quotes, boolean loading) {
+        // 重繪這一頁的股票物品
+        for (int i = 0; i < visible.size(); i++) {
+            setIfChanged(gui, i, createOverviewItem(player, visible.get(i).getKey(),
+                    visible.get(i).getValue(), quotes.get(visible.get(i).getKey()), loading));
+        }
 
-                // 獲取股票資訊
-                Twstock.StockData stockData = plugin.fetchYahooStockDataForGUI(stockSymbol);
-                double averageCost = playerStockManager.getAverageCost(player, stockSymbol);
-                double totalCost = playerStockManager.getTotalCost(player, stockSymbol);
+        gui.setItem(49, createOverviewSummary(player, loading));
+    }
 
-                // 如果有價格資訊
-                if (stockData != null) {
-                    double currentValue = stockData.currentPrice * shares;
-                    double profit = currentValue - totalCost;
+    // 總覽物品：涵蓋所有已載入的持股，但只計入已有報價的股票
+    private ItemStack createOverviewSummary(Player player, boolean loading) {
+        // 直接讀取估值引擎算好的總計
+        ValuationEngine.Summary summary = plugin.getValuationEngine().getSummary(player.getUniqueId());
+        if (summary == null) {
+            summary = ValuationEngine.Summary.EMPTY;
+        }
+        double totalInvestment = summary.totalCost;
+        double totalCurrentValue = summary.marketValue;
+        double totalProfit = summary.getProfit();
 
-                    // 累計總資訊
-                    totalInvestment += totalCost;
-                    totalCurrentValue += currentValue;
-                    totalProfit += profit;
+        // 添加整體投資概覽物品
+        ItemStack overviewItem = new ItemStack(Material.DIAMOND);
+        ItemMeta overviewMeta = overviewItem.getItemMeta();
+        overviewMeta.setDisplayName(ChatColor.AQUA + "投資組合概覽");
 
-                    // 創建股票資訊物品
-                    ItemStack stockItem = new ItemStack(Material.PAPER);
-                    ItemMeta meta = stockItem.getItemMeta();
+        List<String> overviewLore = new ArrayList<>();
+        overviewLore.add(ChatColor.GRAY + "總投資成本: " + ChatColor.WHITE + "$" + formatPrice(totalInvestment));
+        overviewLore.add(ChatColor.GRAY + "目前總市值: " + ChatColor.WHITE + "$" + formatPrice(totalCurrentValue));
+
+        // 添加總投資損益 - 修改標題
+        ChatColor totalProfitColor = totalProfit >= 0 ? ChatColor.RED : ChatColor.GREEN;
+        String totalProfitSymbol = totalProfit >= 0 ? "▲" : "▼";
+        double totalProfitPercentage = summary.getProfitPercentage();
+
+        overviewLore.add(ChatColor.GRAY + "總投資損益: " + totalProfitColor + totalProfitSymbol + " " +
+                formatPrice(Math.abs(totalProfit)) + " (" + formatPercentage(Math.abs(totalProfitPercentage)) + "%)");
+        if (summary.pricedHoldings < summary.holdings) {
+            overviewLore.add(ChatColor.GRAY + "已計入 " + summary.pricedHoldings + "/" + summary.holdings + " 檔股票 (其餘尚未取得報價)");
+        }
+        if (loading) {
+            overviewLore.add(ChatColor.GRAY + "部分報價載入中...");
+        }
 
-                    String displayName = stockSymbol;
-                    String chineseName = plugin.getTwStockChineseNames().get(stockSymbol);
-                    if (chineseName != null && !chineseName.isEmpty()) {
-                        displayName = chineseName + " (" + stockSymbol + ")";
-                    }
+        overviewMeta.setLore(overviewLore);
+        overviewItem.setItemMeta(overviewMeta);
+        return overviewItem;
+    }
 
-                    meta.setDisplayName(ChatColor.GOLD + displayName);
+    private ItemStack createOverviewItem(Player player, Symbol stockSymbol, int shares, QuoteResult quote, boolean loading) {
+        // 創建股票資訊物品
+        ItemStack stockItem = new ItemStack(Material.PAPER);
+        ItemMeta meta = stockItem.getItemMeta();
+        meta.setDisplayName(ChatColor.GOLD + getStockDisplayName(stockSymbol));
 
-                    List<String> lore = new ArrayList<>();
-                    lore.add(ChatColor.GRAY + "持有股數: " + ChatColor.WHITE + shares);
-                    lore.add(ChatColor.GRAY + "平均成本: " + ChatColor.WHITE + "$" + formatPrice(averageCost));
-                    lore.add(ChatColor.GRAY + "總投資: " + ChatColor.WHITE + "$" + formatPrice(totalCost));
-                    lore.add(ChatColor.GRAY + "當前價格: " + ChatColor.WHITE + "$" + formatPrice(stockData.currentPrice));
-                    lore.add(ChatColor.GRAY + "總市值: " + ChatColor.WHITE + "$" + formatPrice(currentValue));
+        // 獲取股票資訊
+        Twstock.StockData stockData = priceOf(stockSymbol, quote);
+        double averageCost = playerStockManager.getAverageCost(player, stockSymbol);
+        double totalCost = playerStockManager.getTotalCost(player, stockSymbol);
 
-                    // 添加投資損益資訊 - 修改標題
-                    ChatColor profitColor = profit >= 0 ? ChatColor.RED : ChatColor.GREEN;
-                    String profitSymbol = profit >= 0 ? "▲" : "▼";
-                    double profitPercentage = totalCost > 0 ? (profit / totalCost) * 100 : 0;
+        List<String> lore = new ArrayList<>();
+        lore.add(ChatColor.GRAY + "持有股數: " + ChatColor.WHITE + shares);
+        lore.add(ChatColor.GRAY + "平均成本: " + ChatColor.WHITE + "$" + formatPrice(averageCost));
+        lore.add(ChatColor.GRAY + "總投資: " + ChatColor.WHITE + "$" + formatPrice(totalCost));
 
-                    lore.add(ChatColor.GRAY + "投資損益: " + profitColor + profitSymbol + " " +
-                            formatPrice(Math.abs(profit)) + " (" + formatPercentage(Math.abs(profitPercentage)) + "%)");
+        // 如果有價格資訊
+        if (stockData != null) {
+            double currentValue = stockData.currentPrice * shares;
+            double profit = currentValue - totalCost;
 
+            lore.add(ChatColor.GRAY + "當前價格: " + ChatColor.WHITE + "$" + formatPrice(stockData.currentPrice));
+            lore.add(ChatColor.GRAY + "總市值: " + ChatColor.WHITE + "$" + formatPrice(currentValue));
 
-                    // 添加操作提示
-                    lore.add("");
-                    lore.add(ChatColor.YELLOW + "右鍵點擊: " + ChatColor.WHITE + "查看詳細資訊");
-                    lore.add(ChatColor.YELLOW + "Shift+右鍵點擊: " + ChatColor.WHITE + "賣出所有股票");
+            // 添加投資損益資訊 - 修改標題
+            ChatColor profitColor = profit >= 0 ? ChatColor.RED : ChatColor.GREEN;
+            String profitSymbol = profit >= 0 ? "▲" : "▼";
+            double profitPercentage = totalCost > 0 ? (profit / totalCost) * 100 : 0;
 
-                    meta.setLore(lore);
-                    stockItem.setItemMeta(meta);
-                    stockItems.add(stockItem);
-                }
-            }
+            lore.add(ChatColor.GRAY + "投資損益: " + profitColor + profitSymbol + " " +
+                    formatPrice(Math.abs(profit)) + " (" + formatPercentage(Math.abs(profitPercentage)) + "%)");
+        }
+        if (loading && (quote == null || !quote.isOk())) {
+            lore.add(ChatColor.GRAY + "報價更新中...");
+        } else if (quote == null || !quote.isOk()) {
+            lore.add(ChatColor.RED + (stockData != null ? "無法獲取最新市場資料 (顯示過期報價)" : "無法獲取最新市場資料"));
+        }
 
-            // 添加股票物品到界面
-            for (int i = 0; i < stockItems.size() && i < 45; i++) {
-                gui.setItem(i, stockItems.get(i));
-            }
+        // 添加操作提示
+        lore.add("");
+        lore.add(ChatColor.YELLOW + "右鍵點擊: " + ChatColor.WHITE + "查看詳細資訊");
+        lore.add(ChatColor.YELLOW + "Shift+右鍵點擊: " + ChatColor.WHITE + "賣出所有股票");
 
-            // 添加整體投資概覽物品
-            ItemStack overviewItem = new ItemStack(Material.DIAMOND);
-            ItemMeta overviewMeta = overviewItem.getItemMeta();
-            overviewMeta.setDisplayName(ChatColor.AQUA + "投資組合概覽");
+        meta.setLore(lore);
+        stockItem.setItemMeta(meta);
+        return stockItem;
+    }
 
-            List<String> overviewLore = new ArrayList<>();
-            overviewLore.add(ChatColor.GRAY + "總投資成本: " + ChatColor.WHITE + "$" + formatPrice(totalInvestment));
-            overviewLore.add(ChatColor.GRAY + "目前總市值: " + ChatColor.WHITE + "$" + formatPrice(totalCurrentValue));
+    // 查詢結果中的價格，沒有時改用快取中上次取得的報價 (可能為 null)
+    private Twstock.StockData priceOf(Symbol stockSymbol, QuoteResult quote) {
+        Twstock.StockData stockData = quote != null ? quote.getData() : null;
+        return stockData != null ? stockData : plugin.getQuoteCache().getLastKnown(stockSymbol);
+    }
 
-            // 添加總投資損益 - 修改標題
-            ChatColor totalProfitColor = totalProfit >= 0 ? ChatColor.RED : ChatColor.GREEN;
-            String totalProfitSymbol = totalProfit >= 0 ? "▲" : "▼";
-            double totalProfitPercentage = totalInvestment > 0 ? (totalProfit / totalInvestment) * 100 : 0;
+    /**
+     * 依排序方式排列所有持股。市值與損益只使用快取中上次取得的價格 (不發出查詢)，
+     * 沒有報價的股票排在最後；同分時依代碼排序，翻頁時順序保持穩定。
+     */
+    private List<Map.Entry<Symbol, Integer>> sortHoldings(Player player, Map<Symbol, Integer> holdings, SortOrder sortOrder) {
+        List<Map.Entry<Symbol, Integer>> sorted = new ArrayList<>(holdings.entrySet());
+        Comparator<Map.Entry<Symbol, Integer>> bySymbol = Comparator.comparing(entry -> entry.getKey().key());
+        if (sortOrder == SortOrder.SYMBOL) {
+            sorted.sort(bySymbol);
+            return sorted;
+        }
 
-            overviewLore.add(ChatColor.GRAY + "總投資損益: " + totalProfitColor + totalProfitSymbol + " " +
-                    formatPrice(Math.abs(totalProfit)) + " (" + formatPercentage(Math.abs(totalProfitPercentage)) + "%)");
+        // 每檔股票只計算一次排序鍵
+        Map<Symbol, Double> sortKeys = new HashMap<>();
+        for (Map.Entry<Symbol, Integer> entry : sorted) {
+            Twstock.StockData stockData = plugin.getQuoteCache().getLastKnown(entry.getKey());
+            double key = Double.NEGATIVE_INFINITY;
+            if (stockData != null) {
+                double value = stockData.currentPrice * entry.getValue();
+                key = sortOrder == SortOrder.VALUE ? value
+                        : value - playerStockManager.getTotalCost(player, entry.getKey());
+            }
+            sortKeys.put(entry.getKey(), key);
+        }
+        sorted.sort(Comparator.<Map.Entry<Symbol, Integer>>comparingDouble(entry -> sortKeys.get(entry.getKey()))
+                .reversed().thenComparing(bySymbol));
+        return sorted;
+    }
 
-            overviewMeta.setLore(overviewLore);
-            overviewItem.setItemMeta(overviewMeta);
-            gui.setItem(49, overviewItem);
+    private static int pageCount(int holdingCount) {
+        return Math.max(1, (holdingCount + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
 
-            // 添加返回按鈕
-            ItemStack backButton = new ItemStack(Material.ARROW);
-            ItemMeta backMeta = backButton.getItemMeta();
-            backMeta.setDisplayName(ChatColor.YELLOW + "返回投資組合");
-            backButton.setItemMeta(backMeta);
-            gui.setItem(45, backButton);
+    private static List<Map.Entry<Symbol, Integer>> pageOf(List<Map.Entry<Symbol, Integer>> sorted, int page) {
+        int from = page * PAGE_SIZE;
+        if (page < 0 || from >= sorted.size()) {
+            return List.of();
+        }
+        return sorted.subList(from, Math.min(from + PAGE_SIZE, sorted.size()));
+    }
 
-            // 打開介面
-            player.openInventory(gui);
-            plugin.getLogger().info("Opened Investment Overview GUI for " + player.getName());
+    private static String pageSuffix(int page, int totalPages) {
+        return totalPages > 1 ? " (" + (page + 1) + "/" + totalPages + ")" : "";
+    }
 
-        } catch (Exception e) {
-            player.sendMessage(ChatColor.RED + "開啟投資概覽時發生錯誤: " + e.getMessage());
-            plugin.getLogger().severe("Error opening Investment Overview GUI for " + player.getName() + ": " + e.getMessage());
-            e.printStackTrace();
+    // 在背景預先查詢相鄰頁面中沒有有效報價的股票 (只更新快取)，翻頁時可以直接顯示價格
+    private void prefetchAdjacentPages(List<Map.Entry<Symbol, Integer>> sorted, int page) {
+        List<Symbol> symbols = new ArrayList<>();
+        for (int adjacent : new int[]{page + 1, page - 1}) {
+            for (Map.Entry<Symbol, Integer> entry : pageOf(sorted, adjacent)) {
+                if (plugin.getQuoteCache().getIfFresh(entry.getKey()) == null) {
+                    symbols.add(entry.getKey());
+                }
+            }
+        }
+        if (!symbols.isEmpty()) {
+            plugin.fetchQuotesAsync(symbols).exceptionally(error -> {
+                plugin.getLogger().fine("Quote prefetch failed: " + error.getMessage());
+                return Map.of();
+            });
         }
     }
 
-    private ItemStack createStockItem(Player player, String stockSymbol, int shares) {
+    /**
+     * @param quote   批次查詢的結果，尚未取得或查詢失敗時為 null
+     * @param loading 報價仍在查詢中 (先顯示上次的價格)
+     */
+    private ItemStack createStockItem(Player player, Symbol stockSymbol, int shares, QuoteResult quote, boolean loading) {
         ItemStack item = new ItemStack(Material.EMERALD);
         ItemMeta meta = item.getItemMeta();
 
         // 獲取股票資訊
-        String displayName = stockSymbol;
-        String chineseName = plugin.getTwStockChineseNames().get(stockSymbol);
+        String displayName = stockSymbol.key();
+        String chineseName = plugin.getTwStockChineseNames().get(stockSymbol.key());
         if (chineseName != null && !chineseName.isEmpty()) {
             displayName = chineseName + " (" + stockSymbol + ")";
         }
@@ -204,9 +532,13 @@ public class MyStockGUI {
             lore.add(ChatColor.GRAY + "總投資: " + ChatColor.WHITE + "$" + formatPrice(totalCost));
         }
 
-        // 嘗試獲取當前價格
+        // 使用批次查詢取得的當前價格，查詢中或失敗時改用上次取得的價格
         try {
-            Twstock.StockData stockData = plugin.fetchYahooStockDataForGUI(stockSymbol);
+            Twstock.StockData stockData = quote != null ? quote.getData() : null;
+            boolean stale = stockData == null;
+            if (stale) {
+                stockData = plugin.getQuoteCache().getLastKnown(stockSymbol);
+            }
             if (stockData != null) {
                 String currencySymbol = getCurrencySymbol(stockData.currency);
                 lore.add(ChatColor.GRAY + "當前價格: " + ChatColor.WHITE + currencySymbol + formatPrice(stockData.currentPrice));
@@ -226,9 +558,14 @@ public class MyStockGUI {
                     lore.add(ChatColor.GRAY + "投資損益: " + profitColor + profitSymbol + " " +
                             formatPrice(Math.abs(profit)) + " (" + formatPercentage(Math.abs(profitPercentage)) + "%)");
                 }
+            }
 
-            } else {
-                lore.add(ChatColor.RED + "無法獲取最新市場資料");
+            if (loading) {
+                lore.add(ChatColor.GRAY + "報價更新中...");
+            } else if (stale && quote != null && quote.getStatus() == QuoteResult.Status.RATE_LIMITED) {
+                lore.add(ChatColor.RED + "查詢過於頻繁，請稍後再刷新");
+            } else if (stale) {
+                lore.add(ChatColor.RED + (stockData != null ? "無法獲取最新市場資料 (顯示過期報價)" : "無法獲取最新市場資料"));
             }
         } catch (Exception e) {
             lore.add(ChatColor.RED + "價格資訊載入錯誤");
@@ -246,7 +583,7 @@ public class MyStockGUI {
         return item;
     }
 
-    private void addControlButtons(Inventory gui) {
+    private void addControlButtons(StockMenu menu, int page, int totalPages, SortOrder sortOrder) {
         // Add add stock button
         ItemStack addButton = new ItemStack(Material.EMERALD_BLOCK);
         ItemMeta addMeta = addButton.getItemMeta();
@@ -255,7 +592,7 @@ public class MyStockGUI {
         addLore.add(ChatColor.GRAY + "點擊新增股票到你的投資組合");
         addMeta.setLore(addLore);
         addButton.setItemMeta(addMeta);
-        gui.setItem(47, addButton);
+        menu.setButton(47, StockMenu.Action.ADD_STOCK, addButton);
 
         // Add refresh button
         ItemStack refreshButton = new ItemStack(Material.COMPASS);
@@ -265,7 +602,7 @@ public class MyStockGUI {
         refreshLore.add(ChatColor.GRAY + "點擊刷新所有股票資訊");
         refreshMeta.setLore(refreshLore);
         refreshButton.setItemMeta(refreshMeta);
-        gui.setItem(49, refreshButton);
+        menu.setButton(49, StockMenu.Action.REFRESH, refreshButton);
 
         // Add overview button (could show portfolio stats)
         ItemStack overviewButton = new ItemStack(Material.BOOK);
@@ -275,52 +612,126 @@ public class MyStockGUI {
         overviewLore.add(ChatColor.GRAY + "查看投資組合的整體表現");
         overviewMeta.setLore(overviewLore);
         overviewButton.setItemMeta(overviewMeta);
-        gui.setItem(45, overviewButton);
-    }
-
-    // Handle clicks in the GUI
-    public boolean handleClick(Player player, int slot, Inventory inventory, ClickType clickType) {
-        ItemStack clickedItem = inventory.getItem(slot);
-        if (clickedItem == null || clickedItem.getType() == Material.AIR) return false;
-
-        ItemMeta meta = clickedItem.getItemMeta();
-        if (meta == null) return false;
+        menu.setButton(45, StockMenu.Action.OVERVIEW, overviewButton);
 
-        String displayName = meta.getDisplayName();
+        addPageButtons(menu, page, totalPages, sortOrder);
+    }
 
-        // Handle special buttons
-        if (displayName.contains("刷新資料")) {
-            player.closeInventory();
+    /**
+     * 刷新按鈕：不重建介面，只以一次批次查詢 (經過報價快取) 更新這一頁的格子，
+     * 沒有訂閱紀錄時 (例如重新載入後) 才重新開啟。
+     */
+    private void refreshPortfolio(Player player, StockMenu menu) {
+        if (openViews.get(player.getUniqueId()) != menu) {
             openGUI(player);
-            player.sendMessage(ChatColor.GREEN + "已刷新投資組合資料");
-            return true;
+            return;
         }
+        Inventory inventory = menu.getInventory();
+        fetchQuotesThenOnMain(player, inventory, new ArrayList<>(menu.getStockSlots().keySet()), quotes -> {
+            for (Map.Entry<Symbol, Integer> entry : menu.getStockSlots().entrySet()) {
+                Symbol stockSymbol = entry.getKey();
+                setIfChanged(inventory, entry.getValue(), createStockItem(player, stockSymbol,
+                        menu.sharesOf(stockSymbol), quotes.get(stockSymbol), false));
+            }
+        });
+    }
 
-        if (displayName.contains("投資概覽")) {
-            player.closeInventory();
-            openOverviewGUI(player);
-            return true;
+    // 翻頁 (只在有上一頁/下一頁時顯示) 與排序按鈕，投資組合與概覽共用
+    private void addPageButtons(StockMenu menu, int page, int totalPages, SortOrder sortOrder) {
+        if (page > 0) {
+            menu.setButton(48, StockMenu.Action.PREVIOUS_PAGE, createButton(Material.ARROW, ChatColor.YELLOW + "上一頁",
+                    ChatColor.GRAY + "第 " + page + "/" + totalPages + " 頁"));
         }
-        if (displayName.contains("新增投資組合")) {
-            // Add new stock to portfolio
-            if (!plugin.isVaultEnabled()) {
-                player.sendMessage(ChatColor.RED + "經濟系統未啟用，無法進行交易");
-                return true;
-            }
+        if (page < totalPages - 1) {
+            menu.setButton(50, StockMenu.Action.NEXT_PAGE, createButton(Material.ARROW, ChatColor.YELLOW + "下一頁",
+                    ChatColor.GRAY + "第 " + (page + 2) + "/" + totalPages + " 頁"));
+        }
+        menu.setButton(51, StockMenu.Action.SORT, createButton(Material.HOPPER, ChatColor.AQUA + "排序方式: " + sortOrder.label,
+                ChatColor.GRAY + "點擊切換為依" + sortOrder.next().label + "排序"));
+    }
 
-            pendingStockAdditions.put(player.getUniqueId(), true);
-            player.closeInventory();
-            player.sendMessage(ChatColor.GREEN + "請在聊天中輸入你要新增的股票代碼 (例如: 2330 或 2330.TW)，或輸入 'cancel' 取消");
-            return true;
+    private static ItemStack createButton(Material material, String name, String... lore) {
+        ItemStack button = new ItemStack(material);
+        ItemMeta meta = button.getItemMeta();
+        meta.setDisplayName(name);
+        meta.setLore(Arrays.asList(lore));
+        button.setItemMeta(meta);
+        return button;
+    }
+
+    // 翻頁與排序：在同一種介面中開啟目標頁
+    private void turnPage(Player player, StockMenu.Kind kind, int target) {
+        if (kind == StockMenu.Kind.OVERVIEW) {
+            openOverviewGUI(player, target);
+        } else {
+            openGUI(player, target);
         }
+    }
+
+    // 玩家離線時清除翻頁、排序與聊天輸入狀態
+    public void clearViewState(UUID playerUUID) {
+        inputSessions.end(playerUUID);
+        openViews.remove(playerUUID);
+        portfolioPages.remove(playerUUID);
+        overviewPages.remove(playerUUID);
+        sortOrders.remove(playerUUID);
+    }
+
+    /**
+     * 投資組合與概覽介面的點擊：以開啟時記錄的格子動作分派，不比對物品名稱。
+     * 沒有動作的格子 (空格、總覽物品) 回傳 false。
+     */
+    public boolean handleClick(Player player, StockMenu menu, int slot, ClickType clickType) {
+        StockMenu.Action action = menu.actionAt(slot);
+        if (action == null) return false;
 
-        // Extract stock symbol from item name
-        String stockSymbol = extractStockSymbol(displayName);
-        if (stockSymbol == null) return false;
+        UUID playerUUID = player.getUniqueId();
+        Map<UUID, Integer> pages = menu.kind == StockMenu.Kind.OVERVIEW ? overviewPages : portfolioPages;
+        switch (action) {
+            case REFRESH:
+                refreshPortfolio(player, menu);
+                player.sendMessage(ChatColor.GREEN + "已刷新投資組合資料");
+                return true;
+            case OVERVIEW:
+                player.closeInventory();
+                openOverviewGUI(player);
+                return true;
+            case BACK:
+                openGUI(player);
+                return true;
+            case PREVIOUS_PAGE:
+                turnPage(player, menu.kind, pages.getOrDefault(playerUUID, 0) - 1);
+                return true;
+            case NEXT_PAGE:
+                turnPage(player, menu.kind, pages.getOrDefault(playerUUID, 0) + 1);
+                return true;
+            case SORT:
+                // 換排序後回到第一頁
+                sortOrders.put(playerUUID, sortOrders.getOrDefault(playerUUID, SortOrder.VALUE).next());
+                turnPage(player, menu.kind, 0);
+                return true;
+            case ADD_STOCK:
+                // Add new stock to portfolio
+                if (!plugin.isVaultEnabled()) {
+                    player.sendMessage(ChatColor.RED + "經濟系統未啟用，無法進行交易");
+                    return true;
+                }
 
-        // Debug log for the extracted stock symbol
-        plugin.getLogger().info("Extracted stock symbol: " + stockSymbol + " from display name: " + displayName);
+                inputSessions.begin(playerUUID, InputSessions.Stage.ADD, null);
+                player.closeInventory();
+                player.sendMessage(ChatColor.GREEN + "請在聊天中輸入你要新增的股票代碼或名稱 (例如: 2330、2330.TW 或 台積電)，或輸入 'cancel' 取消");
+                return true;
+            case STOCK:
+                // 概覽中的股票只供檢視
+                if (menu.kind != StockMenu.Kind.PORTFOLIO) return false;
+                return handleStockClick(player, menu.symbolAt(slot), clickType);
+            default:
+                return false;
+        }
+    }
 
+    // 投資組合中股票格子的買賣操作
+    private boolean handleStockClick(Player player, Symbol stockSymbol, ClickType clickType) {
         // Handle buy/sell based on click type
         if (clickType == ClickType.LEFT) {
             // Buy more of this stock
@@ -329,7 +740,7 @@ public class MyStockGUI {
                 return true;
             }
 
-            pendingStockPurchases.put(player.getUniqueId(), stockSymbol);
+            inputSessions.begin(player.getUniqueId(), InputSessions.Stage.BUY, stockSymbol);
             player.closeInventory();
             player.sendMessage(ChatColor.GREEN + "請在聊天中輸入你要購買的 " + stockSymbol + " 股數，或輸入 'cancel' 取消");
             return true;
@@ -340,7 +751,7 @@ public class MyStockGUI {
                 return true;
             }
 
-            pendingStockSales.put(player.getUniqueId(), stockSymbol);
+            inputSessions.begin(player.getUniqueId(), InputSessions.Stage.SELL, stockSymbol);
             player.closeInventory();
             player.sendMessage(ChatColor.GREEN + "請在聊天中輸入你要賣出的 " + stockSymbol + " 股數，或輸入 'cancel' 取消");
             return true;
@@ -366,100 +777,130 @@ public class MyStockGUI {
         return false;
     }
 
-    // Handle chat input for stock transactions
+    /**
+     * 聊天輸入 (非同步聊天執行緒)：沒有進行中的對話時不攔截。同一個對話狀態只由一則訊息處理，
+     * 輸入股數後對話即結束，輸入無效時需重新從介面操作。
+     */
     public boolean handleChat(Player player, String message) {
         UUID playerUUID = player.getUniqueId();
+        InputSessions.Session session = inputSessions.get(playerUUID);
+        if (session == null) {
+            return false; // Not handling this chat message
+        }
 
-        // Check if player is in add stock mode
-        if (pendingStockAdditions.containsKey(playerUUID)) {
-            pendingStockAdditions.remove(playerUUID);
-
-            if (message.equalsIgnoreCase("cancel")) {
-                player.sendMessage(ChatColor.YELLOW + "新增股票已取消");
-                return true;
+        if (message.equalsIgnoreCase("cancel")) {
+            if (inputSessions.end(playerUUID, session)) {
+                player.sendMessage(ChatColor.YELLOW + (session.stage == InputSessions.Stage.SELL ? "股票賣出已取消"
+                        : session.stage == InputSessions.Stage.BUY ? "股票購買已取消" : "新增股票已取消"));
             }
-
-            // Normalize stock code input
-            String stockSymbol = plugin.normalizeStockSymbol(message.trim());
-            // Debug log for the normalized stock symbol
-            plugin.getLogger().info("Normalized stock symbol for addition: " + stockSymbol + " from input: " + message.trim());
-            addStockToPortfolio(player, stockSymbol);
             return true;
         }
 
-        // Check if player is in buy mode
-        if (pendingStockPurchases.containsKey(playerUUID)) {
-            String stockSymbol = pendingStockPurchases.get(playerUUID);
-            pendingStockPurchases.remove(playerUUID);
+        switch (session.stage) {
+            case ADD:
+                handleAddInput(player, session, message);
+                return true;
+            case CONFIRM:
+                player.sendMessage(ChatColor.GRAY + "正在確認 " + session.symbol + " 的市場資料，請稍候...");
+                return true;
+            default:
+                break;
+        }
 
-            if (message.equalsIgnoreCase("cancel")) {
-                player.sendMessage(ChatColor.YELLOW + "股票購買已取消");
+        // 購買或賣出股數
+        if (!inputSessions.end(playerUUID, session)) {
+            return true; // 已由同時送出的另一則訊息處理
+        }
+        Symbol stockSymbol = session.symbol;
+        try {
+            int shares = Integer.parseInt(message);
+            if (shares <= 0) {
+                player.sendMessage(ChatColor.RED + "請輸入正數股數");
                 return true;
             }
 
-            try {
-                int shares = Integer.parseInt(message);
-                if (shares <= 0) {
-                    player.sendMessage(ChatColor.RED + "請輸入正數股數");
-                    return true;
-                }
-
+            if (session.stage == InputSessions.Stage.BUY) {
                 // Debug log for purchase attempt
                 plugin.getLogger().info("Processing purchase of " + shares + " shares of " + stockSymbol + " for player " + player.getName());
-
-                // Process the purchase
                 processPurchase(player, stockSymbol, shares);
-                return true;
-            } catch (NumberFormatException e) {
-                player.sendMessage(ChatColor.RED + "無效的股數，請輸入一個整數");
-                return true;
+            } else {
+                // Debug log for sell attempt
+                plugin.getLogger().info("Processing sale of " + shares + " shares of " + stockSymbol + " for player " + player.getName());
+                processSale(player, stockSymbol, shares);
             }
+            return true;
+        } catch (NumberFormatException e) {
+            player.sendMessage(ChatColor.RED + "無效的股數，請輸入一個整數");
+            return true;
         }
+    }
 
-        // Check if player is in sell mode
-        if (pendingStockSales.containsKey(playerUUID)) {
-            String stockSymbol = pendingStockSales.get(playerUUID);
-            pendingStockSales.remove(playerUUID);
-
-            if (message.equalsIgnoreCase("cancel")) {
-                player.sendMessage(ChatColor.YELLOW + "股票賣出已取消");
-                return true;
+    // 新增模式的輸入：代碼確認後進入 CONFIRM，名稱無法唯一對應時保留新增模式讓玩家再輸入一次
+    private void handleAddInput(Player player, InputSessions.Session session, String input) {
+        UUID playerUUID = player.getUniqueId();
+        Symbol stockSymbol = plugin.resolveStockInput(input);
+        if (stockSymbol == null) {
+            if (inputSessions.advance(playerUUID, session, InputSessions.Stage.ADD, null) != null) {
+                plugin.sendNameCandidates(player, input.trim());
+                player.sendMessage(ChatColor.GRAY + "請重新輸入股票代碼或名稱，或輸入 'cancel' 取消");
             }
+            return;
+        }
 
-            try {
-                int shares = Integer.parseInt(message);
-                if (shares <= 0) {
-                    player.sendMessage(ChatColor.RED + "請輸入正數股數");
-                    return true;
-                }
-
-                // Debug log for sell attempt
-                plugin.getLogger().info("Processing sale of " + shares + " shares of " + stockSymbol + " for player " + player.getName());
-
-                // Process the sale
-                processSale(player, stockSymbol, shares);
-                return true;
-            } catch (NumberFormatException e) {
-                player.sendMessage(ChatColor.RED + "無效的股數，請輸入一個整數");
-                return true;
-            }
+        InputSessions.Session confirming = inputSessions.advance(playerUUID, session, InputSessions.Stage.CONFIRM, stockSymbol);
+        if (confirming != null) {
+            plugin.getLogger().info("Normalized stock symbol for addition: " + stockSymbol + " from input: " + input.trim());
+            addStockToPortfolio(player, stockSymbol, confirming);
         }
+    }
 
-        return false; // Not handling this chat message
+    /**
+     * 依玩家輸入 (代碼或中文名稱) 新增股票。名稱找不到或有多個候選時列出候選並回傳 false。
+     */
+    public boolean addStockByInput(Player player, String input) {
+        // Normalize stock code input (names are resolved through the search index)
+        Symbol stockSymbol = plugin.resolveStockInput(input);
+        if (stockSymbol == null) {
+            plugin.sendNameCandidates(player, input.trim());
+            return false;
+        }
+        // Debug log for the normalized stock symbol
+        plugin.getLogger().info("Normalized stock symbol for addition: " + stockSymbol + " from input: " + input.trim());
+        addStockToPortfolio(player, stockSymbol, null);
+        return true;
     }
 
-    // Add new stock to portfolio
-    private void addStockToPortfolio(Player player, String stockSymbol) {
-        try {
-            // Clean the stock symbol from any color codes or formatting characters
-            String cleanStockSymbol = ChatColor.stripColor(stockSymbol);
+    /**
+     * Add new stock to portfolio
+     *
+     * @param confirming 聊天新增流程中的 CONFIRM 對話，由指令新增時為 null
+     */
+    private void addStockToPortfolio(Player player, Symbol cleanStockSymbol, InputSessions.Session confirming) {
+        // Log the stock symbol
+        plugin.getLogger().info("Adding stock to portfolio, symbol: " + cleanStockSymbol);
+
+        // Verify the stock symbol exists by trying to fetch its data (on the I/O executor),
+        // then finish on the main thread
+        fetchQuoteThenOnMain(player, cleanStockSymbol, "adding stock",
+                stockData -> completeAddStock(player, cleanStockSymbol, stockData, confirming));
+    }
 
-            // Log the clean stock symbol
-            plugin.getLogger().info("Adding stock to portfolio, clean symbol: " + cleanStockSymbol);
+    // 詢問購買股數：聊天新增流程由 CONFIRM 轉為 BUY，對話已取消或逾時時不再詢問
+    private boolean promptPurchase(Player player, Symbol cleanStockSymbol, InputSessions.Session confirming) {
+        if (confirming == null) {
+            inputSessions.begin(player.getUniqueId(), InputSessions.Stage.BUY, cleanStockSymbol);
+            return true;
+        }
+        return inputSessions.advance(player.getUniqueId(), confirming, InputSessions.Stage.BUY, cleanStockSymbol) != null;
+    }
 
-            // Verify the stock symbol exists by trying to fetch its data
-            Twstock.StockData stockData = plugin.fetchYahooStockDataForGUI(cleanStockSymbol);
+    private void completeAddStock(Player player, Symbol cleanStockSymbol, Twstock.StockData stockData,
+                                  InputSessions.Session confirming) {
+        try {
             if (stockData == null) {
+                if (confirming != null) {
+                    inputSessions.end(player.getUniqueId(), confirming);
+                }
                 player.sendMessage(ChatColor.RED + "無法獲取 " + cleanStockSymbol + " 的市場資料，該股票可能不存在或無法交易");
                 return;
             }
@@ -468,10 +909,11 @@ public class MyStockGUI {
             int existingShares = plugin.getPlayerStockManager().getShareCount(player, cleanStockSymbol);
             if (existingShares > 0) {
                 player.sendMessage(ChatColor.YELLOW + "你已經持有 " + existingShares + " 股 " + cleanStockSymbol + "。");
-                player.sendMessage(ChatColor.YELLOW + "你想要購買更多此股票嗎？請輸入購買股數，或輸入 'cancel' 取消");
 
                 // Set up for purchase
-                pendingStockPurchases.put(player.getUniqueId(), cleanStockSymbol);
+                if (promptPurchase(player, cleanStockSymbol, confirming)) {
+                    player.sendMessage(ChatColor.YELLOW + "你想要購買更多此股票嗎？請輸入購買股數，或輸入 'cancel' 取消");
+                }
                 return;
             }
 
@@ -481,145 +923,104 @@ public class MyStockGUI {
             // Ask if player wants to purchase shares immediately
             String stockName = getStockDisplayName(cleanStockSymbol);
             player.sendMessage(ChatColor.GREEN + "成功將 " + stockName + " (" + cleanStockSymbol + ") 加入你的投資組合");
-            player.sendMessage(ChatColor.YELLOW + "你想要立即購買此股票嗎？請輸入購買股數，或輸入 'cancel' 取消");
 
             // Set up for purchase
-            pendingStockPurchases.put(player.getUniqueId(), cleanStockSymbol);
+            if (promptPurchase(player, cleanStockSymbol, confirming)) {
+                player.sendMessage(ChatColor.YELLOW + "你想要立即購買此股票嗎？請輸入購買股數，或輸入 'cancel' 取消");
+            }
 
         } catch (Exception e) {
             player.sendMessage(ChatColor.RED + "添加股票時發生錯誤: " + e.getMessage());
-            plugin.getLogger().severe("Error adding stock " + stockSymbol + " for " + player.getName() + ": " + e.getMessage());
+            plugin.getLogger().severe("Error adding stock " + cleanStockSymbol + " for " + player.getName() + ": " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private void processPurchase(Player player, String stockSymbol, int shares) {
-        try {
-            // 清除顏色代碼
-            String cleanStockSymbol = ChatColor.stripColor(stockSymbol);
-
-            // 記錄操作
-            plugin.getLogger().info("Processing purchase, clean symbol: " + cleanStockSymbol);
-
-            // 獲取當前價格
-            Twstock.StockData stockData = plugin.fetchYahooStockDataForGUI(cleanStockSymbol);
-            if (stockData == null) {
-                player.sendMessage(ChatColor.RED + "無法獲取 " + cleanStockSymbol + " 的市場資料，交易取消");
-                return;
-            }
-
-            double pricePerShare = stockData.currentPrice;
-            double totalCost = pricePerShare * shares;
-
-            // 檢查玩家餘額
-            double balance = plugin.getEconomy().getBalance(player);
-            if (balance < totalCost) {
-                player.sendMessage(ChatColor.RED + "餘額不足！需要 $" + formatPrice(totalCost) +
-                        "，但你只有 $" + formatPrice(balance));
-                return;
-            }
-
-            // 扣款並添加股份
-            plugin.getEconomy().withdrawPlayer(player, totalCost);
-            playerStockManager.addShares(player, cleanStockSymbol, shares);
-
-            // 記錄交易成本 - 新增
-            playerStockManager.addStockTransaction(player, cleanStockSymbol, shares, pricePerShare);
-
-            // 顯示成功訊息
-            String stockName = getStockDisplayName(cleanStockSymbol);
-            player.sendMessage(ChatColor.GREEN + "成功購買 " + shares + " 股 " + stockName +
-                    "，花費 $" + formatPrice(totalCost) + " (每股 $" + formatPrice(pricePerShare) + ")");
+    private void processPurchase(Player player, Symbol cleanStockSymbol, int shares) {
+        // 記錄操作
+        plugin.getLogger().info("Processing purchase, symbol: " + cleanStockSymbol);
 
-            // 重新開啟 GUI 顯示更新後的組合
-            Bukkit.getScheduler().runTaskLater(plugin, () -> openGUI(player), 20L); // 延遲 1 秒
-
-        } catch (Exception e) {
-            player.sendMessage(ChatColor.RED + "處理交易時發生錯誤: " + e.getMessage());
-            plugin.getLogger().severe("Error processing purchase for " + player.getName() +
-                    " of " + stockSymbol + " x" + shares + ": " + e.getMessage());
-            e.printStackTrace();
-        }
+        // 委託交給撮合引擎，與同一個 tick 的其他委託一起報價並在主執行緒結算
+        plugin.getOrderEngine().submit(player, OrderEngine.Side.BUY, cleanStockSymbol, shares)
+                .thenAccept(result -> reportOrder(player, result));
     }
 
-    private void processSale(Player player, String stockSymbol, int shares) {
-        try {
-            // Clean the stock symbol from any color codes or formatting characters
-            String cleanStockSymbol = ChatColor.stripColor(stockSymbol);
-
-            // Log the clean stock symbol
-            plugin.getLogger().info("Processing sale, clean symbol: " + cleanStockSymbol);
-
-            // Check if player has enough shares
-            int currentShares = playerStockManager.getShareCount(player, cleanStockSymbol);
-            if (currentShares < shares) {
-                player.sendMessage(ChatColor.RED + "你只持有 " + currentShares + " 股 " + cleanStockSymbol +
-                        "，不能賣出 " + shares + " 股");
-                return;
-            }
+    private void processSale(Player player, Symbol cleanStockSymbol, int shares) {
+        // Log the stock symbol
+        plugin.getLogger().info("Processing sale, symbol: " + cleanStockSymbol);
 
-            // Get current price
-            Twstock.StockData stockData = plugin.fetchYahooStockDataForGUI(cleanStockSymbol);
-            if (stockData == null) {
-                player.sendMessage(ChatColor.RED + "無法獲取 " + cleanStockSymbol + " 的市場資料，交易取消");
-                return;
-            }
-
-            double pricePerShare = stockData.currentPrice;
-            double totalValue = pricePerShare * shares;
-
-            // Remove shares and deposit money
-            boolean success = playerStockManager.removeShares(player, cleanStockSymbol, shares);
-            if (success) {
-                plugin.getEconomy().depositPlayer(player, totalValue);
+        plugin.getOrderEngine().submit(player, OrderEngine.Side.SELL, cleanStockSymbol, shares)
+                .thenAccept(result -> reportOrder(player, result));
+    }
 
-                // Show success message
+    // 主執行緒：把委託的結果告訴玩家，成交後重新開啟 GUI 顯示更新後的組合
+    private void reportOrder(Player player, OrderEngine.Result result) {
+        Symbol cleanStockSymbol = result.symbol;
+        boolean buy = result.side == OrderEngine.Side.BUY;
+        switch (result.status) {
+            case FILLED:
                 String stockName = getStockDisplayName(cleanStockSymbol);
-                player.sendMessage(ChatColor.GREEN + "成功賣出 " + shares + " 股 " + stockName +
-                        "，獲得 $" + formatPrice(totalValue) + " (每股 $" + formatPrice(pricePerShare) + ")");
-
-                // Open the GUI again to show the updated portfolio
-                Bukkit.getScheduler().runTaskLater(plugin, () -> openGUI(player), 20L); // Delay 1 second
-            } else {
-                player.sendMessage(ChatColor.RED + "移除股票失敗，請聯繫伺服器管理員");
-            }
-
-        } catch (Exception e) {
-            player.sendMessage(ChatColor.RED + "處理交易時發生錯誤: " + e.getMessage());
-            plugin.getLogger().severe("Error processing sale for " + player.getName() +
-                    " of " + stockSymbol + " x" + shares + ": " + e.getMessage());
-            e.printStackTrace();
+                player.sendMessage(ChatColor.GREEN + (buy ? "成功購買 " : "成功賣出 ") + result.shares + " 股 " + stockName +
+                        (buy ? "，花費 $" : "，獲得 $") + formatPrice(result.getTotal()) +
+                        " (每股 $" + formatPrice(result.pricePerShare) + ")");
+                Bukkit.getScheduler().runTaskLater(plugin, () -> openGUI(player), 20L); // 延遲 1 秒
+                break;
+            case NO_QUOTE:
+                player.sendMessage(ChatColor.RED + "無法獲取 " + cleanStockSymbol + " 的市場資料，交易取消");
+                break;
+            case INSUFFICIENT_FUNDS:
+                player.sendMessage(ChatColor.RED + "餘額不足！需要 $" + formatPrice(result.getTotal()) +
+                        "，但你只有 $" + formatPrice(result.available));
+                break;
+            case INSUFFICIENT_SHARES:
+                player.sendMessage(ChatColor.RED + "你只持有 " + (int) result.available + " 股 " + cleanStockSymbol +
+                        "，不能賣出 " + result.shares + " 股");
+                break;
+            case ERROR:
+                player.sendMessage(ChatColor.RED + "處理交易時發生錯誤，請聯繫伺服器管理員");
+                break;
+            default:
+                // 玩家已離線
+                break;
         }
     }
 
-    // Helper methods
-    private String extractStockSymbol(String displayName) {
-        if (displayName == null) return null;
-
-        // Strip color codes first to avoid interference
-        String stripped = ChatColor.stripColor(displayName);
-
-        // Check if the name contains a stock symbol in parentheses
-        int openParenIndex = stripped.lastIndexOf("(");
-        int closeParenIndex = stripped.lastIndexOf(")");
-
-        if (openParenIndex >= 0 && closeParenIndex > openParenIndex) {
-            String symbol = stripped.substring(openParenIndex + 1, closeParenIndex).trim();
-            plugin.getLogger().info("Extracted stock symbol from parentheses: " + symbol);
-            return symbol;
-        }
+    // 在 I/O 執行緒取得報價，再把結果 (失敗時為 null) 交回主執行緒處理
+    private void fetchQuoteThenOnMain(Player player, Symbol cleanStockSymbol, String context, Consumer<Twstock.StockData> onMain) {
+        plugin.getQuoteCache().getAsync(cleanStockSymbol)
+                .exceptionally(error -> {
+                    plugin.getLogger().warning("Quote lookup for " + cleanStockSymbol + " (" + context + ") failed: " + error.getMessage());
+                    return null;
+                })
+                .thenAcceptAsync(stockData -> {
+                    if (player.isOnline()) {
+                        onMain.accept(stockData);
+                    }
+                }, plugin.getIoExecutor().mainThread());
+    }
 
-        // If no parentheses, try to use the whole name
-        plugin.getLogger().info("No parentheses found, using full string as stock symbol: " + stripped);
-        return stripped;
+    // 在 I/O 執行緒批次取得報價，回到主執行緒時玩家仍開著同一個介面才交給 onMain 更新格子
+    private void fetchQuotesThenOnMain(Player player, Inventory gui, List<Symbol> symbols,
+                                       Consumer<Map<Symbol, QuoteResult>> onMain) {
+        plugin.fetchQuotesAsync(symbols)
+                .exceptionally(error -> {
+                    plugin.getLogger().warning("Quote batch for " + player.getName() + "'s GUI failed: " + error.getMessage());
+                    return Map.of();
+                })
+                .thenAcceptAsync(quotes -> {
+                    if (player.isOnline() && player.getOpenInventory().getTopInventory() == gui) {
+                        onMain.accept(quotes);
+                    }
+                }, plugin.getIoExecutor().mainThread());
     }
 
-    private String getStockDisplayName(String stockSymbol) {
-        String chineseName = plugin.getTwStockChineseNames().get(stockSymbol);
+    // Helper methods
+    private String getStockDisplayName(Symbol stockSymbol) {
+        String chineseName = plugin.getTwStockChineseNames().get(stockSymbol.key());
         if (chineseName != null && !chineseName.isEmpty()) {
             return chineseName + " (" + stockSymbol + ")";
         }
-        return stockSymbol;
+        return stockSymbol.key();
     }
 
     private String formatPrice(double price) {
@@ -7,9 +7,12 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.ClickType;
 import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.InventoryHolder;
 
 public class MyStockListener implements Listener {
     private final MyStockGUI myStockGUI;
@@ -22,51 +25,39 @@ public class MyStockListener implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onInventoryClick(InventoryClickEvent event) {
-        String title = event.getView().getTitle();
+        // 只處理我的投資組合界面或投資概覽界面 (由 StockMenu 持有)
+        InventoryHolder holder = event.getInventory().getHolder();
+        if (!(holder instanceof StockMenu)) return;
+        StockMenu menu = (StockMenu) holder;
 
-        // 檢查是否是我的投資組合界面或投資概覽界面
-        if (title.contains("我的投資組合") || title.contains("投資概覽")) {
-            event.setCancelled(true); // 立即取消事件
-            plugin.getLogger().info("Stock GUI click detected and cancelled");
+        event.setCancelled(true); // 立即取消事件
 
-            if (event.getWhoClicked() instanceof Player) {
-                Player player = (Player) event.getWhoClicked();
-                int slot = event.getRawSlot();
-                ClickType clickType = event.getClick();
+        if (event.getWhoClicked() instanceof Player) {
+            Player player = (Player) event.getWhoClicked();
+            int slot = event.getRawSlot();
+            ClickType clickType = event.getClick();
 
-                plugin.getLogger().info("Player " + player.getName() + " clicked slot " + slot +
-                        " with " + clickType + " in " + title);
-
-                // 只有當點擊的槽位在有效範圍內時才處理
-                if (slot >= 0 && slot < event.getInventory().getSize()) {
-                    // 確保在主線程執行GUI交互
-                    Bukkit.getScheduler().runTask(plugin, () -> {
-                        boolean handled;
-                        if (title.contains("投資概覽")) {
-                            if (slot == 45) {
-                                // 返回到投資組合
-                                myStockGUI.openGUI(player);
-                                plugin.getLogger().info("Player " + player.getName() + " clicked back button in Overview GUI");
-                            }
-                        } else {
-                            // 處理我的投資組合界面的點擊
-                            handled = myStockGUI.handleClick(player, slot, event.getInventory(), clickType);
-                        }
-                    });
-                }
-                // 如果是點擊庫存外的區域，我們不需要做額外處理，只需取消事件即可
+            // 只有當點擊的槽位在有效範圍內時才處理
+            if (slot >= 0 && slot < event.getInventory().getSize()) {
+                // 確保在主線程執行GUI交互
+                Bukkit.getScheduler().runTask(plugin, () -> myStockGUI.handleClick(player, menu, slot, clickType));
             }
+            // 如果是點擊庫存外的區域，我們不需要做額外處理，只需取消事件即可
         }
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onInventoryDrag(InventoryDragEvent event) {
-        String title = event.getView().getTitle();
-
-        // 檢查是否是我的投資組合界面或投資概覽界面
-        if (title.contains("我的投資組合") || title.contains("投資概覽")) {
+        if (event.getInventory().getHolder() instanceof StockMenu) {
             event.setCancelled(true);
-            plugin.getLogger().info("Stock GUI drag detected and cancelled");
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        // 停止更新已關閉介面的報價
+        if (event.getInventory().getHolder() instanceof StockMenu) {
+            myStockGUI.handleInventoryClose(event.getPlayer().getUniqueId(), (StockMenu) event.getInventory().getHolder());
         }
     }
 
@@ -82,11 +73,22 @@ public class MyStockListener implements Listener {
         }
     }
 
+    // 登入前在非同步執行緒預先載入持股檔，進入伺服器後開啟 GUI 不需要讀檔
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        plugin.getPlayerStockManager().preloadPlayer(event.getUniqueId());
+    }
+
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         // 清理離線玩家的相關狀態
         Player player = event.getPlayer();
-        // 確保玩家退出時保存持股數據
+        // 在 I/O 執行緒上寫出持股數據，寫檔後從記憶體移除
+        plugin.getPlayerStockManager().handleQuit(player.getUniqueId());
+        myStockGUI.clearViewState(player.getUniqueId());
         plugin.getLogger().info("Player " + player.getName() + " left, cleaned up MyStock state");
     }
 }
\ No newline at end of file
@@ -0,0 +1,211 @@
+package me.ninepin.twstock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 股票名稱的唯讀二進位快照，啟動時以記憶體映射開啟，不需要把每一筆名稱解析到 heap 上。
+ * <pre>
+ * header : magic(int) version(int) count(int) crc32(int)   -- crc32 涵蓋 header 之後的全部內容
+ * index  : count 個 int，各筆資料相對於資料區起點的位移
+ * data   : [keyLength(u16) key(UTF-8) nameLength(u16) name(UTF-8)]，依 key 的位元組順序排序
+ * </pre>
+ * 查詢以二分搜尋直接比對映射中的位元組，只有找到時才解碼名稱。
+ */
+final class NameSnapshot {
+    private static final int MAGIC = 0x54574E53; // "TWNS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    static final NameSnapshot EMPTY = new NameSnapshot(ByteBuffer.allocate(0), 0, 0);
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int dataStart;
+
+    private NameSnapshot(ByteBuffer buffer, int count, int dataStart) {
+        this.buffer = buffer;
+        this.count = count;
+        this.dataStart = dataStart;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // 映射的位元組數 (不計入 heap)
+    int byteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * 映射並驗證快照檔。格式或檢查碼不符時丟出 IOException，呼叫端應改用其他來源。
+     */
+    static NameSnapshot map(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size " + length);
+            }
+            // 關閉 channel 後映射仍然有效
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a stock name snapshot");
+        }
+        int version = mapped.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int count = mapped.getInt(8);
+        long dataStart = HEADER_SIZE + (long) count * 4;
+        if (count < 0 || dataStart > mapped.capacity()) {
+            throw new IOException("Corrupt snapshot entry count " + count);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(mapped.slice(HEADER_SIZE, mapped.capacity() - HEADER_SIZE));
+        if ((int) crc.getValue() != mapped.getInt(12)) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return new NameSnapshot(mapped, count, (int) dataStart);
+    }
+
+    /**
+     * 將對應表寫成快照格式。呼叫端負責寫入暫存檔後再替換正式檔案。
+     */
+    static void write(OutputStream out, Map<String, String> names) throws IOException {
+        List<byte[][]> entries = new ArrayList<>(names.size());
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_FIELD_BYTES || name.length > MAX_FIELD_BYTES) {
+                continue; // 不合理的長度，略過
+            }
+            entries.add(new byte[][]{key, name});
+        }
+        entries.sort((a, b) -> Arrays.compareUnsigned(a[0], b[0]));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(entries.size() * 24);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        int offset = 0;
+        for (byte[][] entry : entries) {
+            bodyOut.writeInt(offset);
+            offset += 4 + entry[0].length + entry[1].length;
+        }
+        for (byte[][] entry : entries) {
+            bodyOut.writeShort(entry[0].length);
+            bodyOut.write(entry[0]);
+            bodyOut.writeShort(entry[1].length);
+            bodyOut.write(entry[1]);
+        }
+        bodyOut.flush();
+        byte[] bodyBytes = body.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+
+        DataOutputStream headerOut = new DataOutputStream(out);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeInt(VERSION);
+        headerOut.writeInt(entries.size());
+        headerOut.writeInt((int) crc.getValue());
+        headerOut.write(bodyBytes);
+        headerOut.flush();
+    }
+
+    static void write(Path path, Map<String, String> names) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out, names);
+        }
+    }
+
+    String get(String key) {
+        if (count == 0 || key == null) {
+            return null;
+        }
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = entryOffset(mid);
+            int cmp = compareKey(entry, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return nameAt(entry);
+            }
+        }
+        return null;
+    }
+
+    String keyAt(int index) {
+        int entry = entryOffset(index);
+        return decode(entry + 2, unsignedShort(entry));
+    }
+
+    String valueAt(int index) {
+        return nameAt(entryOffset(index));
+    }
+
+    // 依 key 順序逐筆解碼 (例如重建搜尋索引或匯出)
+    void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < count; i++) {
+            int entry = entryOffset(i);
+            action.accept(decode(entry + 2, unsignedShort(entry)), nameAt(entry));
+        }
+    }
+
+    private int entryOffset(int index) {
+        return dataStart + buffer.getInt(HEADER_SIZE + index * 4);
+    }
+
+    private String nameAt(int entry) {
+        int nameField = entry + 2 + unsignedShort(entry);
+        return decode(nameField + 2, unsignedShort(nameField));
+    }
+
+    private int compareKey(int entry, byte[] target) {
+        int length = unsignedShort(entry);
+        int shared = Math.min(length, target.length);
+        for (int i = 0; i < shared; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(entry + 2 + i)) - Byte.toUnsignedInt(target[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - target.length;
+    }
+
+    private int unsignedShort(int position) {
+        return Short.toUnsignedInt(buffer.getShort(position));
+    }
+
+    // 使用絕對位置讀取，多執行緒同時查詢不會互相影響
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
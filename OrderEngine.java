@@ -0,0 +1,210 @@
+package me.ninepin.twstock;
+
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 買賣單的批次撮合：下單只放入佇列，同一個 tick 內送出的委託合併成一批，
+ * 每檔股票只查詢一次報價 (經過報價快取)，整批都以同一個價格成交。
+ * 扣款、入帳與持股更新回到主執行緒一次處理完整批，結果以 CompletableFuture (在主執行緒完成) 交回呼叫者。
+ */
+public class OrderEngine {
+
+    public enum Side {
+        BUY,
+        SELL
+    }
+
+    public enum Status {
+        FILLED,
+        // 無法取得報價
+        NO_QUOTE,
+        INSUFFICIENT_FUNDS,
+        INSUFFICIENT_SHARES,
+        // 成交前玩家已離線
+        CANCELLED,
+        ERROR
+    }
+
+    /**
+     * 委託的結果。pricePerShare 為這一批的成交價，沒有報價時為 NaN。
+     */
+    public static final class Result {
+        public final Status status;
+        public final Side side;
+        public final Symbol symbol;
+        public final int shares;
+        public final double pricePerShare;
+        // 買進時為玩家當時的餘額，賣出時為當時持有的股數 (資金或股數不足時顯示)
+        public final double available;
+
+        Result(Status status, Side side, Symbol symbol, int shares, double pricePerShare, double available) {
+            this.status = status;
+            this.side = side;
+            this.symbol = symbol;
+            this.shares = shares;
+            this.pricePerShare = pricePerShare;
+            this.available = available;
+        }
+
+        public boolean isFilled() {
+            return status == Status.FILLED;
+        }
+
+        public double getTotal() {
+            return pricePerShare * shares;
+        }
+    }
+
+    private static final class Order {
+        final Player player;
+        final Side side;
+        final Symbol symbol;
+        final int shares;
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+
+        Order(Player player, Side side, Symbol symbol, int shares) {
+            this.player = player;
+            this.side = side;
+            this.symbol = symbol;
+            this.shares = shares;
+        }
+
+        Result reject(Status status, double price, double available) {
+            return new Result(status, side, symbol, shares, price, available);
+        }
+    }
+
+    private final Twstock plugin;
+    private final PlayerStockManager playerStockManager;
+    private final Queue<Order> pending = new ConcurrentLinkedQueue<>();
+    // 這個 tick 是否已排定收集佇列
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // 統計數據
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong filled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OrderEngine(Twstock plugin, PlayerStockManager playerStockManager) {
+        this.plugin = plugin;
+        this.playerStockManager = playerStockManager;
+    }
+
+    /**
+     * 送出委託 (任何執行緒)。回傳的結果在主執行緒完成。
+     */
+    public CompletableFuture<Result> submit(Player player, Side side, Symbol symbol, int shares) {
+        Order order = new Order(player, side, symbol, shares);
+        pending.add(order);
+        if (drainScheduled.compareAndSet(false, true)) {
+            plugin.getIoExecutor().mainThread().execute(this::drain);
+        }
+        return order.result;
+    }
+
+    // 主執行緒：收集這個 tick 內送出的委託，整批查詢報價
+    private void drain() {
+        drainScheduled.set(false);
+        List<Order> batch = new ArrayList<>();
+        Order order;
+        while ((order = pending.poll()) != null) {
+            batch.add(order);
+        }
+        if (batch.isEmpty()) return;
+
+        batches.incrementAndGet();
+        Set<Symbol> symbols = new LinkedHashSet<>();
+        for (Order queued : batch) {
+            symbols.add(queued.symbol);
+        }
+        plugin.fetchQuotesAsync(symbols)
+                .exceptionally(error -> {
+                    plugin.getLogger().warning("Quote batch for " + batch.size() + " orders failed: " + error.getMessage());
+                    return Map.of();
+                })
+                .thenAcceptAsync(quotes -> settle(batch, quotes), plugin.getIoExecutor().mainThread());
+    }
+
+    // 主執行緒：依送出順序一次處理整批，同一檔股票都使用同一份報價
+    private void settle(List<Order> batch, Map<Symbol, QuoteResult> quotes) {
+        Economy economy = plugin.getEconomy();
+        for (Order order : batch) {
+            Result result;
+            try {
+                QuoteResult quote = quotes.get(order.symbol);
+                double price = quote != null && quote.isOk() ? quote.getData().currentPrice : Double.NaN;
+                result = order.side == Side.BUY ? settleBuy(economy, order, price) : settleSell(economy, order, price);
+            } catch (RuntimeException e) {
+                plugin.getLogger().severe("Error settling " + order.side + " order for " + order.player.getName() +
+                        " of " + order.symbol + " x" + order.shares + ": " + e.getMessage());
+                result = order.reject(Status.ERROR, Double.NaN, 0);
+            }
+            (result.isFilled() ? filled : rejected).incrementAndGet();
+            order.result.complete(result);
+        }
+    }
+
+    private Result settleBuy(Economy economy, Order order, double price) {
+        if (!order.player.isOnline()) {
+            return order.reject(Status.CANCELLED, price, 0);
+        }
+        if (Double.isNaN(price)) {
+            return order.reject(Status.NO_QUOTE, price, 0);
+        }
+        double totalCost = price * order.shares;
+        double balance = economy.getBalance(order.player);
+        if (balance < totalCost) {
+            return order.reject(Status.INSUFFICIENT_FUNDS, price, balance);
+        }
+        economy.withdrawPlayer(order.player, totalCost);
+        playerStockManager.buyShares(order.player, order.symbol, order.shares, price);
+        return new Result(Status.FILLED, order.side, order.symbol, order.shares, price, balance - totalCost);
+    }
+
+    private Result settleSell(Economy economy, Order order, double price) {
+        if (!order.player.isOnline()) {
+            return order.reject(Status.CANCELLED, price, 0);
+        }
+        int held = playerStockManager.getShareCount(order.player, order.symbol);
+        if (held < order.shares) {
+            return order.reject(Status.INSUFFICIENT_SHARES, price, held);
+        }
+        if (Double.isNaN(price)) {
+            return order.reject(Status.NO_QUOTE, price, held);
+        }
+        // 檢查與扣除持股在同一個鎖內完成
+        if (!playerStockManager.removeShares(order.player, order.symbol, order.shares)) {
+            return order.reject(Status.INSUFFICIENT_SHARES, price, playerStockManager.getShareCount(order.player, order.symbol));
+        }
+        economy.depositPlayer(order.player, price * order.shares);
+        return new Result(Status.FILLED, order.side, order.symbol, order.shares, price, held - order.shares);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getFilledCount() {
+        return filled.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
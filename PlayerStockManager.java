@@ -1,190 +1,440 @@
 package me.ninepin.twstock;
 
 import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class PlayerStockManager {
-    private final Twstock plugin;
-    private final File holdingsFile;
-    private FileConfiguration holdingsConfig;
 
-    // Store player holdings in memory for quick access
-    private final Map<UUID, Map<String, Integer>> playerHoldings = new ConcurrentHashMap<>();
+    /**
+     * 記憶體中玩家資料的變動通知，在該玩家的鎖內呼叫 (同一位玩家的通知依序送出)，實作必須很快完成。
+     */
+    public interface HoldingsListener {
+        // 玩家資料載入記憶體 (登入預先載入或第一次存取)
+        void onPlayerLoaded(UUID player, Map<Symbol, Integer> holdings, Map<Symbol, Position> positions);
 
-    public PlayerStockManager(Twstock plugin) {
-        this.plugin = plugin;
+        // 一檔股票的持股或成本變動，shares 為 0 表示已賣光
+        void onPositionChanged(UUID player, Symbol symbol, int shares, double totalCost);
 
-        // Ensure data folder exists
-        if (!plugin.getDataFolder().exists()) {
-            plugin.getDataFolder().mkdirs();
-        }
+        // 玩家資料移出記憶體
+        void onPlayerUnloaded(UUID player);
+    }
 
-        // Initialize holdings file
-        this.holdingsFile = new File(plugin.getDataFolder(), "player_holdings.yml");
+    private final File dataFolder;
+    private final Logger logger;
+    private final ConfigurationSection config;
+    // IoExecutor 在 onEnable 中於本類別之後建立，使用時才取得
+    private final Supplier<IoExecutor> ioExecutor;
+    // 舊版的單一持股檔，啟動時一次性轉換到目前的儲存後端
+    private final File legacyHoldingsFile;
+    // 儲存後端 (storage.backend: yaml 或 sqlite)
+    private final HoldingsStore store;
+    // 交易日誌；每位玩家的資料記錄自己已包含到哪一個序號 (journal-seq)
+    private final TransactionJournal journal;
+
+    // 只保留線上 (或尚未寫檔) 玩家的資料，離線且寫檔後移除
+    private final Map<UUID, PlayerShard> loadedShards = new ConcurrentHashMap<>();
+    // 已離線、等待寫檔後移出記憶體的玩家
+    private final Set<UUID> evictionCandidates = ConcurrentHashMap.newKeySet();
+
+    // 每筆交易追加一行到日誌並修改記憶體中的玩家資料，由 I/O 執行緒定期把有變更的玩家寫到後端 (壓縮日誌)
+    private static final long DEFAULT_COMPACT_INTERVAL_SECONDS = 60;
+    private static final int DEFAULT_COMPACT_AFTER_RECORDS = 1000;
+    private final int compactAfterRecords;
+    // 玩家依 UUID 分配到固定數量的鎖之一 (lock striping)：同一位玩家的交易依序寫日誌並套用，
+    // 不同玩家的交易可以在不同執行緒同時進行
+    private static final int LOCK_STRIPES = 64;
+    private final Object[] playerLocks = new Object[LOCK_STRIPES];
+    // 寫檔本身一次只進行一個
+    private final Object flushLock = new Object();
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    // 尚未寫到後端的交易紀錄 (只有保存歷史的後端需要)
+    private final Queue<TransactionJournal.Entry> pendingTrades = new ConcurrentLinkedQueue<>();
+    // 日誌累積太多筆時已排入一次背景壓縮
+    private final AtomicBoolean compactQueued = new AtomicBoolean();
+    // 舊版 player_holdings.yml 轉換中尚未寫入後端的玩家；舊檔改名之前不刪除任何日誌區段，
+    // 重新轉換時才能以舊檔加上其後完整的日誌重建
+    private final Set<UUID> migratingPlayers = ConcurrentHashMap.newKeySet();
+    private volatile boolean migrationPending;
+    private final List<HoldingsListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile ScheduledFuture<?> flushTask;
+
+    // 寫檔統計
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private final AtomicLong shardLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
-        // Create the file if it doesn't exist
-        if (!holdingsFile.exists()) {
-            try {
-                holdingsFile.createNewFile();
-                plugin.getLogger().info("Created new player_holdings.yml file");
-            } catch (IOException e) {
-                plugin.getLogger().severe("Could not create player_holdings.yml: " + e.getMessage());
+    /**
+     * 單一玩家在記憶體中的資料：持股數量與各股票的成本資料，以及已套用到的日誌序號。
+     * 兩個 Map 只在該玩家的鎖內直接修改 (每筆交易 O(1)，不複製整個 Map)，
+     * 單一股票的持股與 Position (不可變) 在任何執行緒都可以不加鎖讀取。
+     * 整份持股的不可變快照在交易後作廢，下次有人要讀時才在鎖內重建。
+     */
+    private static final class PlayerShard {
+        final Map<Symbol, Integer> holdings = new ConcurrentHashMap<>();
+        final Map<Symbol, Position> positions = new ConcurrentHashMap<>();
+        // 整份持股的快照，有交易時設為 null
+        volatile Map<Symbol, Integer> holdingsSnapshot;
+        // 最後套用的日誌序號，只在玩家的鎖內讀寫
+        long journalSeq;
+
+        PlayerShard(HoldingsStore.PlayerSnapshot snapshot) {
+            holdings.putAll(snapshot.holdings);
+            for (Map.Entry<Symbol, List<Position.Lot>> entry : snapshot.lots.entrySet()) {
+                positions.put(entry.getKey(), Position.fromLots(entry.getValue()));
             }
+            this.journalSeq = snapshot.journalSeq;
         }
 
-        // Load the config
-        this.holdingsConfig = YamlConfiguration.loadConfiguration(holdingsFile);
+        // 呼叫端需持有該玩家的鎖
+        Map<Symbol, Integer> holdingsSnapshot() {
+            Map<Symbol, Integer> snapshot = holdingsSnapshot;
+            if (snapshot == null) {
+                snapshot = Collections.unmodifiableMap(new HashMap<>(holdings));
+                holdingsSnapshot = snapshot;
+            }
+            return snapshot;
+        }
 
-        // Initialize the 'players' section if it doesn't exist
-        if (!holdingsConfig.contains("players")) {
-            holdingsConfig.createSection("players");
-            saveHoldingsConfig();
+        // 呼叫端需持有該玩家的鎖 (onPlayerLoaded 與寫檔才需要完整的成本資料)
+        Map<Symbol, Position> positionsSnapshot() {
+            return Collections.unmodifiableMap(new HashMap<>(positions));
         }
 
-        // Load all player holdings into memory
-        loadAllPlayerHoldings();
+        /**
+         * 寫檔用的快照 (呼叫端需持有該玩家的鎖)。同價格的 lot 在這裡才合併，
+         * 有可以合併的紀錄時換成只含合併後 lot 的 Position，追加的 lot 清單不會無限增長。
+         */
+        HoldingsStore.PlayerSnapshot snapshot(UUID player) {
+            Map<Symbol, List<Position.Lot>> lots = new HashMap<>();
+            for (Map.Entry<Symbol, Position> entry : positions.entrySet()) {
+                Position position = entry.getValue();
+                List<Position.Lot> merged = position.getLots();
+                lots.put(entry.getKey(), merged);
+                if (merged.size() < position.getLotCount()) {
+                    entry.setValue(Position.fromLots(merged));
+                }
+            }
+            return new HoldingsStore.PlayerSnapshot(player, journalSeq, holdingsSnapshot(), lots, false);
+        }
     }
 
-    // Load all player holdings from config into memory
-    private void loadAllPlayerHoldings() {
-        playerHoldings.clear();
+    public PlayerStockManager(Twstock plugin) {
+        this(plugin.getDataFolder(), plugin.getLogger(), plugin.getConfig(), plugin::getIoExecutor);
+    }
 
-        ConfigurationSection playersSection = holdingsConfig.getConfigurationSection("players");
-        if (playersSection == null) {
-            plugin.getLogger().warning("No 'players' section found in holdings config, creating one");
-            playersSection = holdingsConfig.createSection("players");
-            saveHoldingsConfig();
-            return; // No players to load
+    /**
+     * 不依賴伺服器的建構子 (例如 HoldingsStressHarness)：資料目錄、記錄器與 storage.* 設定。
+     */
+    PlayerStockManager(File dataFolder, Logger logger, ConfigurationSection config, Supplier<IoExecutor> ioExecutor) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.config = config;
+        this.ioExecutor = ioExecutor;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            playerLocks[i] = new Object();
         }
 
-        for (String uuidString : playersSection.getKeys(false)) {
-            try {
-                UUID playerUUID = UUID.fromString(uuidString);
-                Map<String, Integer> holdings = loadPlayerHoldings(playerUUID);
-                playerHoldings.put(playerUUID, holdings);
-            } catch (IllegalArgumentException e) {
-                plugin.getLogger().warning("Invalid UUID in player_holdings.yml: " + uuidString);
-            }
+        // Ensure data folder exists
+        if (!dataFolder.exists()) {
+            dataFolder.mkdirs();
         }
+        this.legacyHoldingsFile = new File(dataFolder, "player_holdings.yml");
+        this.store = openStore(config.getString("storage.backend", "yaml"));
 
-        plugin.getLogger().info("Loaded holdings for " + playerHoldings.size() + " players");
-    }
-
-    // Load holdings for a specific player from config
-    public Map<String, Integer> loadPlayerHoldings(UUID playerUUID) {
-        Map<String, Integer> holdings = new HashMap<>();
+        this.compactAfterRecords = Math.max(1, config.getInt("storage.compact-after-records", DEFAULT_COMPACT_AFTER_RECORDS));
+        this.journal = new TransactionJournal(new File(dataFolder, "journal").toPath(), logger,
+                config.getBoolean("storage.journal-fsync", false));
 
-        String path = "players." + playerUUID.toString() + ".holdings";
-        ConfigurationSection holdingsSection = holdingsConfig.getConfigurationSection(path);
+        // 舊版單一檔案轉換到儲存後端，否則只重播日誌中尚未寫入後端的紀錄
+        boolean migrating = legacyHoldingsFile.exists();
+        long lastSeq = migrating ? loadLegacyHoldings() : replayJournal();
 
-        // 如果沒有找到持股部分，返回空持股
-        if (holdingsSection == null) {
-            plugin.getLogger().fine("No holdings found for player " + playerUUID + ", creating empty section");
-            return holdings; // 返回空持股
+        // 從新的區段開始寫入，再把重播的結果寫到後端並刪除已包含的舊區段
+        try {
+            journal.quarantineIfTruncated();
+            journal.open(lastSeq);
+        } catch (IOException e) {
+            logger.severe("Could not open transaction journal: " + e.getMessage());
         }
+        compact();
 
-        // 遍歷持股部分的所有鍵（股票代碼）
-        for (String encodedStockSymbol : holdingsSection.getKeys(false)) {
-            int shares = holdingsSection.getInt(encodedStockSymbol);
-            if (shares > 0) {
-                String stockSymbol = encodedStockSymbol.replace("_DOT_", ".");
-                holdings.put(stockSymbol, shares);
-            }
+        if (migrationPending) {
+            // 保留舊檔與所有日誌區段，之後的壓縮成功時才完成轉換
+            logger.severe("Migration of player_holdings.yml is not finished yet, keeping the old file and the journal");
         }
 
-        // 將加載的數據放入內存緩存
-        playerHoldings.put(playerUUID, holdings);
-
-        return holdings;
+        // 啟動時沒有玩家在線，重播時載入的玩家寫檔後就可以移除
+        evictionCandidates.addAll(loadedShards.keySet());
+        evictIdle();
     }
 
-    public void addStockTransaction(Player player, String stockSymbol, int shares, double pricePerShare) {
-        UUID playerUUID = player.getUniqueId();
-        String basePath = "players." + playerUUID.toString();
-        String transactionsPath = basePath + ".transactions." + stockSymbol.replace(".", "_DOT_");
+    private HoldingsStore openStore(String backend) {
+        if (backend.equalsIgnoreCase("sqlite")) {
+            try {
+                return new SqliteHoldingsStore(new File(dataFolder, "holdings.db"), logger);
+            } catch (IOException e) {
+                logger.severe(e.getMessage() + ", falling back to YAML holdings storage");
+            }
+        } else if (!backend.equalsIgnoreCase("yaml")) {
+            logger.warning("Unknown storage.backend '" + backend + "', using yaml");
+        }
+        return new YamlHoldingsStore(new File(dataFolder, "players"), logger);
+    }
 
-        // 獲取已存在的交易記錄
-        List<Double> prices = new ArrayList<>();
-        List<Integer> sharesList = new ArrayList<>();
+    /**
+     * 重播日誌中尚未寫入後端的紀錄，回傳最後的序號。只會載入日誌中出現的玩家。
+     */
+    private long replayJournal() {
+        List<TransactionJournal.Entry> tail;
+        try {
+            tail = journal.readAfter(0);
+        } catch (IOException e) {
+            logger.severe("Could not read transaction journal: " + e.getMessage());
+            return journal.getLastReadSeq();
+        }
 
-        // 檢查是否有現有交易記錄
-        if (holdingsConfig.contains(transactionsPath)) {
-            prices = holdingsConfig.getDoubleList(transactionsPath + ".prices");
-            sharesList = holdingsConfig.getIntegerList(transactionsPath + ".shares");
+        // 啟動時還沒有其他執行緒存取玩家資料，不需要加鎖
+        int applied = 0;
+        for (TransactionJournal.Entry entry : tail) {
+            PlayerShard shard = getShard(entry.player);
+            // 後端已經包含的紀錄略過
+            if (entry.seq <= shard.journalSeq) {
+                continue;
+            }
+            apply(shard, entry.type, entry.symbol, entry.shares, entry.price, entry.seq);
+            dirtyPlayers.add(entry.player);
+            if (store.keepsHistory()) {
+                pendingTrades.add(entry);
+            }
+            applied++;
+        }
+        if (applied > 0) {
+            logger.info("Replayed " + applied + " journal records for " + dirtyPlayers.size() + " players");
         }
+        return journal.getLastReadSeq();
+    }
 
-        // 添加新交易
-        prices.add(pricePerShare);
-        sharesList.add(shares);
+    /**
+     * 一次性轉換：讀取舊的 player_holdings.yml 並重播其後的日誌，所有玩家標記為待寫入，
+     * 由啟動時 (或之後) 的壓縮寫到儲存後端。全部寫入成功後才把舊檔改名，在那之前日誌區段都會保留。
+     * 重新轉換時，後端已有比舊檔更新的資料 (journal-seq 較大) 的玩家以後端為準。
+     */
+    private long loadLegacyHoldings() {
+        YamlConfiguration legacy = YamlConfiguration.loadConfiguration(legacyHoldingsFile);
+        long snapshotSeq = legacy.getLong("journal-seq", 0);
+        ConfigurationSection playersSection = legacy.getConfigurationSection("players");
 
-        // 更新配置
-        holdingsConfig.set(transactionsPath + ".prices", prices);
-        holdingsConfig.set(transactionsPath + ".shares", sharesList);
+        List<TransactionJournal.Entry> tail = List.of();
+        try {
+            // 舊檔記錄的序號之後的紀錄
+            tail = journal.readAfter(snapshotSeq);
+        } catch (IOException e) {
+            logger.severe("Could not read transaction journal: " + e.getMessage());
+        }
 
-        // 保存配置
-        saveHoldingsConfig();
+        if (playersSection != null) {
+            for (String uuidString : playersSection.getKeys(false)) {
+                UUID playerUUID;
+                try {
+                    playerUUID = UUID.fromString(uuidString);
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Invalid UUID in player_holdings.yml: " + uuidString);
+                    continue;
+                }
+                ConfigurationSection section = playersSection.getConfigurationSection(uuidString);
+                if (section == null) continue;
+                if (hasNewerSnapshot(playerUUID, snapshotSeq)) {
+                    continue;
+                }
+                // 後端沒有更新的資料 (第一次轉換或先前轉換失敗)，以舊檔為準
+                PlayerShard shard = new PlayerShard(YamlHoldingsStore.parse(playerUUID, section, logger));
+                shard.journalSeq = snapshotSeq;
+                loadedShards.put(playerUUID, shard);
+                dirtyPlayers.add(playerUUID);
+            }
+        }
+        for (TransactionJournal.Entry entry : tail) {
+            PlayerShard shard = getShard(entry.player);
+            // 後端已經包含的紀錄略過
+            if (entry.seq <= shard.journalSeq) {
+                continue;
+            }
+            apply(shard, entry.type, entry.symbol, entry.shares, entry.price, entry.seq);
+            dirtyPlayers.add(entry.player);
+            if (store.keepsHistory()) {
+                pendingTrades.add(entry);
+            }
+        }
+        migratingPlayers.addAll(dirtyPlayers);
+        migrationPending = true;
+        logger.info("Converting player_holdings.yml (" + dirtyPlayers.size() + " players) to the " +
+                store.getName() + " holdings store...");
+        return Math.max(snapshotSeq, journal.getLastReadSeq());
     }
 
-    public double getAverageCost(Player player, String stockSymbol) {
-        UUID playerUUID = player.getUniqueId();
-        String transactionsPath = "players." + playerUUID.toString() + ".transactions." + stockSymbol.replace(".", "_DOT_");
+    // 重新轉換時，後端是否已有比舊檔更新的玩家資料 (讀不到時視為沒有，由舊檔與保留的日誌重建)
+    private boolean hasNewerSnapshot(UUID playerUUID, long legacySeq) {
+        try {
+            return store.load(playerUUID).journalSeq > legacySeq;
+        } catch (IOException e) {
+            logger.warning("Could not read " + playerUUID + " from the " + store.getName() +
+                    " store, migrating from player_holdings.yml: " + e.getMessage());
+            return false;
+        }
+    }
 
-        // 檢查是否有交易記錄
-        if (!holdingsConfig.contains(transactionsPath)) {
-            return 0.0;
+    // 所有轉換的玩家都已寫入後端：把舊檔改名，之後才允許刪除日誌區段 (呼叫端持有 flushLock 或在建構子中)
+    private void finishMigration() {
+        File migrated = new File(dataFolder, "player_holdings.yml.migrated");
+        try {
+            Files.move(legacyHoldingsFile.toPath(), migrated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // 保留日誌，下一次壓縮再試
+            logger.severe("Could not rename player_holdings.yml after migration: " + e.getMessage());
+            return;
         }
+        migrationPending = false;
+        logger.info("Migrated player_holdings.yml into the " + store.getName() + " holdings store");
+    }
 
-        List<Double> prices = holdingsConfig.getDoubleList(transactionsPath + ".prices");
-        List<Integer> shares = holdingsConfig.getIntegerList(transactionsPath + ".shares");
+    private Object lockFor(UUID playerUUID) {
+        return playerLocks[playerUUID.hashCode() & (LOCK_STRIPES - 1)];
+    }
 
-        if (prices.isEmpty() || shares.isEmpty() || prices.size() != shares.size()) {
-            return 0.0;
+    /**
+     * 取得 (必要時從後端載入) 玩家資料。讀取與放入都在玩家的鎖內：同一位玩家的交易、壓縮與移出記憶體
+     * 不會插在讀取與放入之間，不會放入比後端舊的快照；之後的交易通知也一定排在載入通知之後。
+     */
+    private PlayerShard getShard(UUID playerUUID) {
+        PlayerShard shard = loadedShards.get(playerUUID);
+        if (shard != null) {
+            return shard;
+        }
+        synchronized (lockFor(playerUUID)) {
+            shard = loadedShards.get(playerUUID);
+            if (shard != null) {
+                return shard;
+            }
+            PlayerShard loaded = loadShard(playerUUID);
+            loadedShards.put(playerUUID, loaded);
+            Map<Symbol, Integer> holdings = loaded.holdingsSnapshot();
+            Map<Symbol, Position> positions = loaded.positionsSnapshot();
+            for (HoldingsListener listener : listeners) {
+                listener.onPlayerLoaded(playerUUID, holdings, positions);
+            }
+            return loaded;
         }
+    }
 
-        // 計算總成本和總股數
-        double totalCost = 0.0;
-        int totalShares = 0;
+    /**
+     * 註冊變動通知，並立即以目前已載入的玩家呼叫一次 onPlayerLoaded。
+     */
+    public void addListener(HoldingsListener listener) {
+        listeners.add(listener);
+        for (Map.Entry<UUID, PlayerShard> entry : loadedShards.entrySet()) {
+            synchronized (lockFor(entry.getKey())) {
+                PlayerShard shard = entry.getValue();
+                listener.onPlayerLoaded(entry.getKey(), shard.holdingsSnapshot(), shard.positionsSnapshot());
+            }
+        }
+    }
 
-        for (int i = 0; i < prices.size(); i++) {
-            totalCost += prices.get(i) * shares.get(i);
-            totalShares += shares.get(i);
+    private void notifyPositionChanged(UUID playerUUID, PlayerShard shard, Symbol stockSymbol) {
+        if (listeners.isEmpty()) return;
+        int shares = shard.holdings.getOrDefault(stockSymbol, 0);
+        Position position = shard.positions.get(stockSymbol);
+        double totalCost = position != null ? position.getTotalCost() : 0.0;
+        for (HoldingsListener listener : listeners) {
+            listener.onPositionChanged(playerUUID, stockSymbol, shares, totalCost);
         }
+    }
 
-        // 計算平均成本
-        return totalShares > 0 ? totalCost / totalShares : 0.0;
+    // 呼叫端需持有該玩家的鎖
+    private void unloadShard(UUID playerUUID) {
+        if (loadedShards.remove(playerUUID) != null) {
+            for (HoldingsListener listener : listeners) {
+                listener.onPlayerUnloaded(playerUUID);
+            }
+        }
     }
 
-    public double getTotalCost(Player player, String stockSymbol) {
-        UUID playerUUID = player.getUniqueId();
-        String transactionsPath = "players." + playerUUID.toString() + ".transactions." + stockSymbol.replace(".", "_DOT_");
+    private PlayerShard loadShard(UUID playerUUID) {
+        HoldingsStore.PlayerSnapshot snapshot;
+        try {
+            snapshot = store.load(playerUUID);
+        } catch (IOException e) {
+            // 不能以空資料代替，否則下次寫檔會覆蓋掉玩家的持股
+            logger.severe(e.getMessage());
+            throw new IllegalStateException("Holdings for " + playerUUID + " are unavailable", e);
+        }
+        shardLoads.incrementAndGet();
+        if (snapshot.needsSave) {
+            dirtyPlayers.add(playerUUID);
+        }
+        return new PlayerShard(snapshot);
+    }
 
-        // 檢查是否有交易記錄
-        if (!holdingsConfig.contains(transactionsPath)) {
-            return 0.0;
+    /**
+     * 在 AsyncPlayerPreLoginEvent (非主執行緒) 預先載入玩家資料，進入伺服器時不需要讀檔。
+     */
+    public void preloadPlayer(UUID playerUUID) {
+        evictionCandidates.remove(playerUUID);
+        try {
+            getShard(playerUUID);
+        } catch (IllegalStateException e) {
+            // 已記錄錯誤，進入伺服器後存取時會再試一次
         }
+    }
 
-        List<Double> prices = holdingsConfig.getDoubleList(transactionsPath + ".prices");
-        List<Integer> shares = holdingsConfig.getIntegerList(transactionsPath + ".shares");
+    /**
+     * 玩家離線：交給 I/O 執行緒寫出變更，寫檔成功後從記憶體移除。
+     */
+    public void handleQuit(UUID playerUUID) {
+        evictionCandidates.add(playerUUID);
+        flushAsync();
+    }
 
-        if (prices.isEmpty() || shares.isEmpty() || prices.size() != shares.size()) {
-            return 0.0;
-        }
+    // 成本資料，沒有交易記錄時為 null (例如查看合併後的買進 lot)
+    public Position getPosition(Player player, Symbol stockSymbol) {
+        return getShard(player.getUniqueId()).positions.get(stockSymbol);
+    }
 
-        // 計算總成本
-        double totalCost = 0.0;
+    public double getAverageCost(Player player, Symbol stockSymbol) {
+        Position position = getPosition(player, stockSymbol);
+        return position != null ? position.getAverageCost() : 0.0;
+    }
 
-        for (int i = 0; i < prices.size(); i++) {
-            totalCost += prices.get(i) * shares.get(i);
-        }
+    public double getTotalCost(Player player, Symbol stockSymbol) {
+        Position position = getPosition(player, stockSymbol);
+        return position != null ? position.getTotalCost() : 0.0;
+    }
 
-        return totalCost;
+    /**
+     * 玩家最近的交易紀錄 (新到舊，只有保存歷史的後端才有資料)，在 I/O 執行緒上查詢。
+     */
+    public CompletableFuture<List<TransactionJournal.Entry>> getTradeHistoryAsync(UUID playerUUID, int limit) {
+        return ioExecutor.get().supply(() -> store.loadHistory(playerUUID, limit));
     }
 
     /**
@@ -193,137 +443,355 @@ public class PlayerStockManager {
      * @param player      玩家
      * @param stockSymbol 股票代碼
      */
-    public void clearTransactionHistory(Player player, String stockSymbol) {
-        UUID playerUUID = player.getUniqueId();
-        String transactionsPath = "players." + playerUUID.toString() + ".transactions." + stockSymbol.replace(".", "_DOT_");
-
+    public void clearTransactionHistory(Player player, Symbol stockSymbol) {
         // 清除交易記錄
-        holdingsConfig.set(transactionsPath, null);
-
-        // 保存配置
-        saveHoldingsConfig();
+        record(TransactionJournal.Type.CLEAR, player.getUniqueId(), stockSymbol, 0, Double.NaN);
 
-        plugin.getLogger().info("Cleared transaction history for player " + player.getName() +
+        logger.info("Cleared transaction history for player " + player.getName() +
                 " stock " + stockSymbol);
     }
 
-    // Get holdings for a player (from memory)
-    public Map<String, Integer> getPlayerHoldings(Player player) {
+    /**
+     * 玩家持股的不可變快照 (任何執行緒都可以呼叫)，之後的交易不會改變回傳的 Map。
+     * 沒有交易時重複使用同一份快照；未載入時才讀檔。
+     */
+    public Map<Symbol, Integer> getPlayerHoldings(Player player) {
         UUID playerUUID = player.getUniqueId();
+        PlayerShard shard = loadedShard(player);
+        Map<Symbol, Integer> snapshot = shard.holdingsSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (lockFor(playerUUID)) {
+            return shard.holdingsSnapshot();
+        }
+    }
 
-        // If not in memory, load from config
-        if (!playerHoldings.containsKey(playerUUID)) {
-            Map<String, Integer> holdings = loadPlayerHoldings(playerUUID);
-            playerHoldings.put(playerUUID, holdings);
-            return holdings;
+    private PlayerShard loadedShard(Player player) {
+        PlayerShard shard = loadedShards.get(player.getUniqueId());
+        if (shard == null) {
+            // 正常情況下已在登入時預先載入
+            logger.fine("Holdings for " + player.getName() + " were not preloaded, loading now");
+            shard = getShard(player.getUniqueId());
         }
+        return shard;
+    }
 
-        return playerHoldings.get(playerUUID);
+    // Add shares to a player's holdings (沒有成本記錄)
+    public void addShares(Player player, Symbol stockSymbol, int sharesToAdd) {
+        buyShares(player, stockSymbol, sharesToAdd, Double.NaN);
     }
 
-    // Add shares to a player's holdings
-    public void addShares(Player player, String stockSymbol, int sharesToAdd) {
+    /**
+     * 買進股票：增加持股並記錄這筆成本，日誌中只佔一筆 BUY 紀錄。
+     *
+     * @param pricePerShare 每股成交價，NaN 表示不記錄成本
+     */
+    public void buyShares(Player player, Symbol stockSymbol, int sharesToAdd, double pricePerShare) {
         if (sharesToAdd <= 0) return;
 
-        UUID playerUUID = player.getUniqueId();
-        Map<String, Integer> holdings = getPlayerHoldings(player);
-
-        int currentShares = holdings.getOrDefault(stockSymbol, 0);
-        holdings.put(stockSymbol, currentShares + sharesToAdd);
-
-        // Update in memory
-        playerHoldings.put(playerUUID, holdings);
-
-        // Save to config
-        savePlayerHoldings(playerUUID, holdings);
+        // 寫入日誌並更新記憶體中的資料
+        record(TransactionJournal.Type.BUY, player.getUniqueId(), stockSymbol, sharesToAdd, pricePerShare);
     }
+
     // Remove shares from a player's holdings
-    // Remove shares from a player's holdings
-    public boolean removeShares(Player player, String stockSymbol, int sharesToRemove) {
+    public boolean removeShares(Player player, Symbol stockSymbol, int sharesToRemove) {
         if (sharesToRemove <= 0) return false;
 
         UUID playerUUID = player.getUniqueId();
-        Map<String, Integer> holdings = getPlayerHoldings(player);
+        int currentShares;
+        // 檢查持股與賣出在同一個鎖內，同時送出的兩筆賣單不會賣超過持有的股數
+        synchronized (lockFor(playerUUID)) {
+            currentShares = getShard(playerUUID).holdings.getOrDefault(stockSymbol, 0);
+            if (currentShares < sharesToRemove) {
+                return false; // Not enough shares
+            }
 
-        int currentShares = holdings.getOrDefault(stockSymbol, 0);
-        if (currentShares < sharesToRemove) {
-            return false; // Not enough shares
+            // 寫入日誌並更新記憶體中的資料；賣光時 SELL 紀錄本身就會清除交易記錄
+            record(TransactionJournal.Type.SELL, playerUUID, stockSymbol, sharesToRemove, Double.NaN);
+        }
+        if (currentShares == sharesToRemove) {
+            logger.info("Cleared transaction history for player " + player.getName() +
+                    " stock " + stockSymbol);
         }
+        return true;
+    }
 
-        // Update shares
-        int newAmount = currentShares - sharesToRemove;
-        if (newAmount > 0) {
-            holdings.put(stockSymbol, newAmount);
-        } else {
-            holdings.remove(stockSymbol); // Remove stock if no shares left
+    /**
+     * 在玩家的鎖內追加一筆日誌紀錄並套用到玩家資料上，同一位玩家的紀錄序號與套用順序一致。
+     * 日誌寫入失敗時交易仍然生效，標記待寫入後由下一次壓縮寫到後端。
+     */
+    private void record(TransactionJournal.Type type, UUID playerUUID, Symbol stockSymbol, int shares, double price) {
+        synchronized (lockFor(playerUUID)) {
+            // 在鎖內取得玩家資料，避免剛好被移出記憶體
+            PlayerShard shard = getShard(playerUUID);
+            // 先標記再寫日誌：壓縮換區段後取出的待寫入玩家一定包含已寫進舊區段的紀錄
+            dirtyPlayers.add(playerUUID);
+            long seq = 0;
+            try {
+                TransactionJournal.Entry entry = journal.append(type, playerUUID, stockSymbol, shares, price);
+                seq = entry.seq;
+                if (store.keepsHistory()) {
+                    pendingTrades.add(entry);
+                }
+            } catch (IOException e) {
+                logger.severe("Could not append to transaction journal (" + type + " " + stockSymbol +
+                        " for " + playerUUID + "): " + e.getMessage());
+            }
+            apply(shard, type, stockSymbol, shares, price, seq);
+            notifyPositionChanged(playerUUID, shard, stockSymbol);
+        }
 
-            // 當玩家賣掉所有股票時，清除交易記錄
-            clearTransactionHistory(player, stockSymbol);
+        // 日誌累積太多筆時不等定時，直接在背景壓縮 (同時只排入一次)
+        if (journal.getRecordsSinceRoll() >= compactAfterRecords && compactQueued.compareAndSet(false, true)) {
+            flushAsync();
         }
+    }
 
-        // Update in memory
-        playerHoldings.put(playerUUID, holdings);
+    /**
+     * 將一筆交易套用到玩家資料 (即時交易與重播共用)：只修改這一檔股票的持股與 Position，
+     * 成本與玩家持有的股票數無關 (買進只追加一筆 lot)。呼叫端需持有該玩家的鎖 (啟動重播除外)。
+     *
+     * @param seq 日誌序號，日誌寫入失敗時為 0
+     */
+    private static void apply(PlayerShard shard, TransactionJournal.Type type, Symbol stockSymbol, int shares,
+                              double price, long seq) {
+        switch (type) {
+            case BUY:
+                shard.holdings.merge(stockSymbol, shares, Integer::sum);
+                if (!Double.isNaN(price)) {
+                    Position current = shard.positions.get(stockSymbol);
+                    shard.positions.put(stockSymbol, (current != null ? current : Position.EMPTY).withLot(price, shares));
+                }
+                shard.holdingsSnapshot = null;
+                break;
+            case SELL:
+                int remaining = shard.holdings.getOrDefault(stockSymbol, 0) - shares;
+                if (remaining > 0) {
+                    shard.holdings.put(stockSymbol, remaining);
+                } else {
+                    shard.holdings.remove(stockSymbol); // Remove stock if no shares left
+                    shard.positions.remove(stockSymbol);
+                }
+                shard.holdingsSnapshot = null;
+                break;
+            case CLEAR:
+                shard.positions.remove(stockSymbol);
+                break;
+        }
+        if (seq > shard.journalSeq) {
+            shard.journalSeq = seq;
+        }
+    }
 
-        // Save to config
-        savePlayerHoldings(playerUUID, holdings);
-        return true;
+    // 移除已離線且沒有待寫入變更的玩家
+    private void evictIdle() {
+        for (UUID playerUUID : new ArrayList<>(evictionCandidates)) {
+            synchronized (lockFor(playerUUID)) {
+                if (dirtyPlayers.contains(playerUUID)) continue;
+                evictionCandidates.remove(playerUUID);
+                if (loadedShards.containsKey(playerUUID)) {
+                    unloadShard(playerUUID);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
     }
 
-    // Save a player's holdings to config
-    private void savePlayerHoldings(UUID playerUUID, Map<String, Integer> holdings) {
-        String basePath = "players." + playerUUID.toString();
+    // 開始定期壓縮 (由 onEnable 在 IoExecutor 建立後呼叫)
+    public void startWriteBehind() {
+        stopWriteBehind();
+        long intervalSeconds = Math.max(1, config.getLong("storage.compact-interval-seconds", DEFAULT_COMPACT_INTERVAL_SECONDS));
+        flushTask = ioExecutor.get().scheduleAtFixedRate(this::flush, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-        // 確保玩家部分存在
-        if (!holdingsConfig.contains(basePath)) {
-            holdingsConfig.createSection(basePath);
+    public void stopWriteBehind() {
+        ScheduledFuture<?> task = flushTask;
+        if (task != null) {
+            task.cancel(false);
+            flushTask = null;
         }
+    }
 
-        // 設置持股
-        String holdingsPath = basePath + ".holdings";
+    // 在 I/O 執行緒上壓縮 (例如玩家離線或日誌累積太多時)
+    public CompletableFuture<Void> flushAsync() {
+        return ioExecutor.get().run(this::flush);
+    }
 
-        // 清除現有持股並重新創建
-        holdingsConfig.set(holdingsPath, null);
-        ConfigurationSection holdingsSection = holdingsConfig.createSection(holdingsPath);
+    /**
+     * 把日誌壓縮到儲存後端 (呼叫端的執行緒)，之後移除已離線且寫檔完成的玩家。
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            compactQueued.set(false);
+            if (!dirtyPlayers.isEmpty()) {
+                compact();
+            }
+            evictIdle();
+        }
+    }
 
-        // 添加所有持股，使用轉義字符替換點號
-        for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-            // 只保存股數大於0的股票
-            if (entry.getValue() > 0) {
-                String stockSymbol = entry.getKey().replace(".", "_DOT_");
-                holdingsSection.set(stockSymbol, entry.getValue());
+    /**
+     * 先換到新的日誌區段並記下舊區段的最後序號，再逐一在玩家的鎖內建立有變更玩家的快照
+     * (各自記錄已套用到的序號)，交給後端寫入，成功後刪除舊區段。
+     * 交易在寫日誌前就標記玩家，所以舊區段中的每筆紀錄都會包含在這批快照裡；
+     * 換區段之後的交易可能一起寫入，重播時依玩家的序號略過。
+     * 寫入失敗時玩家與交易紀錄放回待寫入佇列，舊區段也會保留。不會阻塞其他玩家的交易。
+     */
+    private void compact() {
+        long startedAt = System.nanoTime();
+        long snapshotSeq;
+        try {
+            snapshotSeq = journal.roll();
+        } catch (IOException e) {
+            logger.warning("Could not roll transaction journal: " + e.getMessage());
+            snapshotSeq = journal.getLastSeq();
+        }
+
+        List<HoldingsStore.PlayerSnapshot> snapshots = new ArrayList<>();
+        for (UUID playerUUID : new ArrayList<>(dirtyPlayers)) {
+            synchronized (lockFor(playerUUID)) {
+                dirtyPlayers.remove(playerUUID);
+                PlayerShard shard = loadedShards.get(playerUUID);
+                if (shard != null) {
+                    snapshots.add(shard.snapshot(playerUUID));
+                }
             }
         }
+        // 在快照之後取出，舊區段的交易都已經放進佇列
+        List<TransactionJournal.Entry> trades = new ArrayList<>();
+        TransactionJournal.Entry trade;
+        while ((trade = pendingTrades.poll()) != null) {
+            trades.add(trade);
+        }
 
-        // 立即保存到文件
-        saveHoldingsConfig();
+        try {
+            store.save(snapshots, trades);
+        } catch (IOException e) {
+            for (HoldingsStore.PlayerSnapshot snapshot : snapshots) {
+                dirtyPlayers.add(snapshot.player);
+            }
+            // 後端以序號去重，順序不影響
+            pendingTrades.addAll(trades);
+            failedFlushCount.incrementAndGet();
+            logger.severe("Could not save holdings (" + snapshots.size() + " players pending): " + e.getMessage());
+            return;
+        }
+        if (migrationPending) {
+            for (HoldingsStore.PlayerSnapshot snapshot : snapshots) {
+                migratingPlayers.remove(snapshot.player);
+            }
+            if (migratingPlayers.isEmpty()) {
+                finishMigration();
+            }
+        }
+        // 轉換完成前舊檔仍會在下次啟動時重新讀取，需要保留它之後的所有日誌
+        if (!migrationPending) {
+            try {
+                journal.deleteCompacted(snapshotSeq);
+            } catch (IOException e) {
+                logger.warning("Could not delete compacted journal segments: " + e.getMessage());
+            }
+        }
 
-        // 更新內存中的數據
-        playerHoldings.put(playerUUID, new HashMap<>(holdings));
+        long elapsed = System.nanoTime() - startedAt;
+        lastFlushNanos = elapsed;
+        maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        totalFlushNanos.addAndGet(elapsed);
+        flushCount.incrementAndGet();
+        logger.fine("Compacted holdings journal up to seq " + snapshotSeq + " (" + snapshots.size() +
+                " players, " + trades.size() + " trades) in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
     }
 
-    // Save the holdings config file
-    private void saveHoldingsConfig() {
+    // 關閉前壓縮並關閉日誌與後端 (onDisable，在 IoExecutor 關閉前呼叫)
+    public void close() {
+        flush();
         try {
-            holdingsConfig.save(holdingsFile);
+            journal.close();
         } catch (IOException e) {
-            plugin.getLogger().severe("Could not save player_holdings.yml: " + e.getMessage());
+            logger.warning("Could not close transaction journal: " + e.getMessage());
         }
+        store.close();
+    }
+
+    public String getStoreName() {
+        return store.getName();
+    }
+
+    public long getJournalSeq() {
+        return journal.getLastSeq();
+    }
+
+    // 上次壓縮後追加的紀錄數
+    public int getJournalPendingRecords() {
+        return journal.getRecordsSinceRoll();
+    }
+
+    public boolean isDirty(UUID playerUUID) {
+        return dirtyPlayers.contains(playerUUID);
+    }
+
+    public int getDirtyCount() {
+        return dirtyPlayers.size();
+    }
+
+    public int getLoadedPlayerCount() {
+        return loadedShards.size();
+    }
+
+    public long getShardLoads() {
+        return shardLoads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1_000_000.0;
+    }
+
+    public double getAverageFlushMillis() {
+        long count = flushCount.get();
+        return count > 0 ? totalFlushNanos.get() / 1_000_000.0 / count : 0.0;
     }
 
     // Reload holdings data from file
-    public void reloadHoldings() {
-        // Reload the configuration from disk
-        this.holdingsConfig = YamlConfiguration.loadConfiguration(holdingsFile);
+    /**
+     * 先在 I/O 執行緒上寫出尚未保存的變更，完成後回到主執行緒丟棄記憶體中的資料，
+     * 線上玩家下次存取時重新讀取。壓縮期間主執行緒不會被阻塞。
+     */
+    public CompletableFuture<Void> reloadHoldings() {
+        return flushAsync().thenRunAsync(this::unloadSavedShards, ioExecutor.get().mainThread());
+    }
 
-        // Re-load all player holdings
-        loadAllPlayerHoldings();
+    private void unloadSavedShards() {
+        for (UUID playerUUID : new ArrayList<>(loadedShards.keySet())) {
+            synchronized (lockFor(playerUUID)) {
+                // 寫入失敗的玩家保留記憶體中的資料，避免遺失
+                if (!dirtyPlayers.contains(playerUUID)) {
+                    unloadShard(playerUUID);
+                }
+            }
+        }
 
-        plugin.getLogger().info("Reloaded player holdings data from file");
+        logger.info("Reloaded player holdings data from the " + store.getName() + " store");
     }
 
-    // Get how many shares of a stock a player has
-    public int getShareCount(Player player, String stockSymbol) {
-        Map<String, Integer> holdings = getPlayerHoldings(player);
-        return holdings.getOrDefault(stockSymbol, 0);
+    // Get how many shares of a stock a player has (不建立整份快照)
+    public int getShareCount(Player player, Symbol stockSymbol) {
+        return loadedShard(player).holdings.getOrDefault(stockSymbol, 0);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,145 @@
+package me.ninepin.twstock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 玩家單一股票的成本資料 (不可變)。總成本與成本股數隨每筆買進以 O(1) 累加，
+ * GUI 顯示平均成本不需要再掃描整個交易歷史，也可以在任何執行緒直接讀取。
+ * 買進紀錄追加到同一檔股票共用的 lot 清單 (不複製)，每個 Position 只看得到建立當時的前幾筆；
+ * 同價格的 lot 在寫檔或查看歷史時才合併。
+ * 與交易記錄的規則相同：賣出部分持股不影響成本，賣光或清除時整筆移除。
+ */
+public final class Position {
+    static final Position EMPTY = new Position(null, 0, 0, 0.0);
+
+    public static final class Lot {
+        public final double price;
+        public final int shares;
+
+        Lot(double price, int shares) {
+            this.price = price;
+            this.shares = shares;
+        }
+    }
+
+    /**
+     * 只追加不修改的買進紀錄，由同一檔股票先後的 Position 共用。
+     * 追加只在玩家的鎖內進行；擴充時換上新的陣列，讀取中的舊 Position 仍能看到自己的前 lotCount 筆。
+     */
+    private static final class Ledger {
+        volatile Lot[] lots;
+        int size;
+
+        Ledger(Lot[] lots, int size) {
+            this.lots = lots;
+            this.size = size;
+        }
+
+        void append(Lot lot) {
+            Lot[] current = lots;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                lots = current;
+            }
+            current[size++] = lot;
+        }
+    }
+
+    private static final int INITIAL_LOTS = 4;
+
+    private final Ledger ledger;
+    // 這個 Position 包含的 lot 數 (ledger 的前 lotCount 筆)
+    private final int lotCount;
+    private final long costShares;
+    private final double totalCost;
+
+    private Position(Ledger ledger, int lotCount, long costShares, double totalCost) {
+        this.ledger = ledger;
+        this.lotCount = lotCount;
+        this.costShares = costShares;
+        this.totalCost = totalCost;
+    }
+
+    /**
+     * 加上一筆買進後的新成本資料：攤銷 O(1)，只追加一筆 lot。
+     * 只有最新的 Position 會直接追加，從較舊的 Position 分支時才複製前 lotCount 筆。
+     */
+    Position withLot(double price, int shares) {
+        Ledger target = ledger;
+        if (target == null || target.size != lotCount) {
+            Lot[] copied = new Lot[Math.max(INITIAL_LOTS, lotCount * 2)];
+            if (target != null) {
+                System.arraycopy(target.lots, 0, copied, 0, lotCount);
+            }
+            target = new Ledger(copied, lotCount);
+        }
+        target.append(new Lot(price, shares));
+        return new Position(target, target.size, costShares + shares, totalCost + price * shares);
+    }
+
+    // 從存檔的 prices/shares 清單建立；兩個清單長度不一致時視為沒有成本資料
+    static Position fromLists(List<Double> prices, List<Integer> shares) {
+        if (prices.size() != shares.size()) {
+            return EMPTY;
+        }
+        Position position = EMPTY;
+        for (int i = 0; i < prices.size(); i++) {
+            position = position.withLot(prices.get(i), shares.get(i));
+        }
+        return position;
+    }
+
+    static Position fromLots(List<Lot> lots) {
+        Position position = EMPTY;
+        for (Lot lot : lots) {
+            position = position.withLot(lot.price, lot.shares);
+        }
+        return position;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public double getAverageCost() {
+        return costShares > 0 ? totalCost / costShares : 0.0;
+    }
+
+    // 有成本記錄的股數 (買進股數的總和)
+    public long getCostShares() {
+        return costShares;
+    }
+
+    public boolean isEmpty() {
+        return lotCount == 0;
+    }
+
+    // 尚未合併的 lot 數，大於 getLots() 的筆數時表示有同價格的紀錄可以合併
+    int getLotCount() {
+        return lotCount;
+    }
+
+    /**
+     * 依成交價合併後的 lot，依第一次以該價格買進的順序 (與 lot 數成正比，只在寫檔或查看歷史時呼叫)。
+     */
+    public List<Lot> getLots() {
+        if (lotCount == 0) {
+            return List.of();
+        }
+        Lot[] lots = ledger.lots;
+        Map<Double, Integer> merged = new LinkedHashMap<>();
+        for (int i = 0; i < lotCount; i++) {
+            merged.merge(lots[i].price, lots[i].shares, Integer::sum);
+        }
+        List<Lot> result = new ArrayList<>(merged.size());
+        for (Map.Entry<Double, Integer> entry : merged.entrySet()) {
+            result.add(new Lot(entry.getKey(), entry.getValue()));
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
@@ -0,0 +1,325 @@
+package me.ninepin.twstock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 股價快取：以 Symbol 為鍵，在 TTL 內直接回傳上次的報價，
+ * 同一代碼同時間的多個未命中請求只會共用一次上游查詢。
+ * 過期很久且沒有玩家持有的報價由定期清理移除，查過一次的代碼不會永久留在記憶體中。
+ */
+public class QuoteCache {
+
+    /**
+     * 報價價格變動的通知 (在完成查詢的執行緒上呼叫，通常不是主執行緒)。
+     */
+    public interface UpdateListener {
+        void onQuoteChanged(Symbol symbol, Twstock.StockData data);
+    }
+
+    // 報價過期後仍保留的時間 (GUI 與估值在查詢失敗時顯示最後價格)
+    private static final long DEFAULT_RETAIN_MINUTES = 60;
+    private static final long EVICT_INTERVAL_MINUTES = 5;
+
+    private final Twstock plugin;
+    private final Function<Symbol, CompletableFuture<Twstock.StockData>> loader;
+    private final Function<List<Symbol>, CompletableFuture<Map<Symbol, QuoteResult>>> batchLoader;
+    private volatile long ttlMillis;
+    private volatile ScheduledFuture<?> evictTask;
+    // 仍被需要的代碼 (例如有玩家持有)，不論多舊都不清除
+    private volatile Predicate<Symbol> pinned = symbol -> false;
+
+    // 已取得的報價
+    private final Map<Symbol, CachedQuote> quotes = new ConcurrentHashMap<>();
+    // 正在進行中的查詢，供同代碼的並發請求共用
+    private final Map<Symbol, CompletableFuture<Twstock.StockData>> inFlight = new ConcurrentHashMap<>();
+    private final List<UpdateListener> listeners = new CopyOnWriteArrayList<>();
+
+    // 統計數據，用來評估 TTL 與 Yahoo 速率限制
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public QuoteCache(Twstock plugin, long ttlSeconds,
+                      Function<Symbol, CompletableFuture<Twstock.StockData>> loader,
+                      Function<List<Symbol>, CompletableFuture<Map<Symbol, QuoteResult>>> batchLoader) {
+        this.plugin = plugin;
+        this.loader = loader;
+        this.batchLoader = batchLoader;
+        setTtlSeconds(ttlSeconds);
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSeconds));
+    }
+
+    public long getTtlSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(ttlMillis);
+    }
+
+    // 同步取得報價 (會阻塞呼叫的執行緒直到查詢完成)，失敗時回傳 null
+    public Twstock.StockData get(Symbol symbol) {
+        try {
+            return getAsync(symbol).join();
+        } catch (CompletionException e) {
+            plugin.getLogger().warning("Quote lookup for " + symbol + " failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    public CompletableFuture<Twstock.StockData> getAsync(Symbol symbol) {
+        CachedQuote cached = quotes.get(symbol);
+        if (cached != null && cached.isFresh(System.currentTimeMillis(), ttlMillis)) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached.data);
+        }
+
+        // 若已有相同代碼的查詢在進行中，直接共用該結果
+        CompletableFuture<Twstock.StockData> created = new CompletableFuture<>();
+        CompletableFuture<Twstock.StockData> existing = inFlight.putIfAbsent(symbol, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        misses.incrementAndGet();
+        CompletableFuture<Twstock.StockData> load;
+        try {
+            load = loader.apply(symbol);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((data, error) -> {
+            if (error == null && data != null) {
+                store(symbol, data, System.currentTimeMillis());
+            }
+            inFlight.remove(symbol, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(data);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 批次取得多檔股票報價。快取命中的直接回傳，已在查詢中的共用既有請求，
+     * 其餘未命中的代碼交給 batchLoader 以最少的上游請求一次查詢。
+     */
+    public CompletableFuture<Map<Symbol, QuoteResult>> getAllAsync(Collection<Symbol> symbols) {
+        long now = System.currentTimeMillis();
+        Map<Symbol, QuoteResult> results = new LinkedHashMap<>();
+        Map<Symbol, CompletableFuture<Twstock.StockData>> pending = new LinkedHashMap<>();
+        Map<Symbol, CompletableFuture<Twstock.StockData>> created = new LinkedHashMap<>();
+
+        for (Symbol key : symbols) {
+            if (results.containsKey(key) || pending.containsKey(key)) continue;
+
+            CachedQuote cached = quotes.get(key);
+            if (cached != null && cached.isFresh(now, ttlMillis)) {
+                hits.incrementAndGet();
+                results.put(key, QuoteResult.ok(key, cached.data));
+                continue;
+            }
+
+            CompletableFuture<Twstock.StockData> future = new CompletableFuture<>();
+            CompletableFuture<Twstock.StockData> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                pending.put(key, existing);
+            } else {
+                misses.incrementAndGet();
+                pending.put(key, future);
+                created.put(key, future);
+            }
+        }
+
+        // 只有自己建立的 in-flight 項目需要送出批次查詢
+        CompletableFuture<Map<Symbol, QuoteResult>> batch;
+        if (created.isEmpty()) {
+            batch = CompletableFuture.completedFuture(Map.of());
+        } else {
+            try {
+                batch = batchLoader.apply(new ArrayList<>(created.keySet()));
+            } catch (RuntimeException e) {
+                batch = CompletableFuture.failedFuture(e);
+            }
+        }
+
+        Map<Symbol, QuoteResult> batchResults = new ConcurrentHashMap<>();
+        CompletableFuture<Void> loaded = batch.handle((loadedResults, error) -> {
+            long fetchedAt = System.currentTimeMillis();
+            for (Map.Entry<Symbol, CompletableFuture<Twstock.StockData>> entry : created.entrySet()) {
+                Symbol key = entry.getKey();
+                QuoteResult result = error == null && loadedResults != null ? loadedResults.get(key) : null;
+                if (result == null) {
+                    result = QuoteResult.failed(key, error == null ? QuoteResult.Status.NOT_FOUND : QuoteResult.Status.ERROR);
+                }
+                if (result.isOk()) {
+                    store(key, result.getData(), fetchedAt);
+                }
+                batchResults.put(key, result);
+                inFlight.remove(key, entry.getValue());
+                entry.getValue().complete(result.getData());
+            }
+            return null;
+        });
+
+        List<CompletableFuture<?>> waits = new ArrayList<>(pending.values());
+        waits.add(loaded);
+        return CompletableFuture.allOf(waits.toArray(new CompletableFuture[0]))
+                .handle((ignored, error) -> {
+                    for (Map.Entry<Symbol, CompletableFuture<Twstock.StockData>> entry : pending.entrySet()) {
+                        Symbol key = entry.getKey();
+                        QuoteResult result = batchResults.get(key);
+                        if (result == null) {
+                            // 共用其他請求的結果
+                            Twstock.StockData data = entry.getValue().isCompletedExceptionally() ? null : entry.getValue().getNow(null);
+                            result = data != null ? QuoteResult.ok(key, data) : QuoteResult.failed(key, QuoteResult.Status.ERROR);
+                        }
+                        results.put(key, result);
+                    }
+                    return results;
+                });
+    }
+
+    public void setPinned(Predicate<Symbol> pinned) {
+        this.pinned = pinned;
+    }
+
+    // 定期清除過期超過保留時間的報價 (重複呼叫會取消先前的排程)
+    public void startEvictor() {
+        stopEvictor();
+        evictTask = plugin.getIoExecutor().scheduleAtFixedRate(this::evictStale,
+                EVICT_INTERVAL_MINUTES, EVICT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void stopEvictor() {
+        ScheduledFuture<?> task = evictTask;
+        if (task != null) {
+            task.cancel(false);
+            evictTask = null;
+        }
+    }
+
+    /**
+     * 移除取得時間早於 TTL + 保留時間、且沒有被釘選的報價，回傳移除的筆數。
+     */
+    int evictStale() {
+        long retainMillis = TimeUnit.MINUTES.toMillis(
+                plugin.getConfig().getLong("quote-cache.retain-minutes", DEFAULT_RETAIN_MINUTES));
+        long cutoff = System.currentTimeMillis() - ttlMillis - retainMillis;
+        Predicate<Symbol> keep = pinned;
+        int evicted = 0;
+        for (Map.Entry<Symbol, CachedQuote> entry : quotes.entrySet()) {
+            if (entry.getValue().fetchedAt < cutoff && !keep.test(entry.getKey())
+                    && quotes.remove(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            plugin.getLogger().fine("Evicted " + evicted + " stale quotes (" + quotes.size() + " cached)");
+        }
+        return evicted;
+    }
+
+    public void addListener(UpdateListener listener) {
+        listeners.add(listener);
+    }
+
+    // 存入新的報價，價格與上次不同 (或第一次取得) 時通知監聽者
+    private void store(Symbol symbol, Twstock.StockData data, long fetchedAt) {
+        CachedQuote previous = quotes.put(symbol, new CachedQuote(data, fetchedAt));
+        if (previous != null && previous.data.currentPrice == data.currentPrice) {
+            return;
+        }
+        for (UpdateListener listener : listeners) {
+            try {
+                listener.onQuoteChanged(symbol, data);
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Quote listener failed for " + symbol + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // 只讀取仍在有效期限內的報價，不觸發查詢
+    public Twstock.StockData getIfFresh(Symbol symbol) {
+        CachedQuote cached = quotes.get(symbol);
+        if (cached != null && cached.isFresh(System.currentTimeMillis(), ttlMillis)) {
+            return cached.data;
+        }
+        return null;
+    }
+
+    // 上次取得的報價 (不論是否過期)，查詢失敗時讓 GUI 顯示過期的價格
+    public Twstock.StockData getLastKnown(Symbol symbol) {
+        CachedQuote cached = quotes.get(symbol);
+        return cached != null ? cached.data : null;
+    }
+
+    public void invalidate(Symbol symbol) {
+        quotes.remove(symbol);
+    }
+
+    public void clear() {
+        quotes.clear();
+    }
+
+    public int size() {
+        return quotes.size();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get() + coalesced.get();
+        return total > 0 ? (double) (hits.get() + coalesced.get()) / total : 0.0;
+    }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        coalesced.set(0);
+    }
+
+    private static final class CachedQuote {
+        final Twstock.StockData data;
+        final long fetchedAt;
+
+        CachedQuote(Twstock.StockData data, long fetchedAt) {
+            this.data = data;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isFresh(long now, long ttlMillis) {
+            return now - fetchedAt < ttlMillis;
+        }
+    }
+}
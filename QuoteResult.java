@@ -0,0 +1,49 @@
+package me.ninepin.twstock;
+
+/**
+ * 批次報價查詢中單一股票的結果，附帶查詢狀態。
+ */
+public class QuoteResult {
+
+    public enum Status {
+        OK,
+        NOT_FOUND,     // Yahoo 沒有回傳此代碼
+        RATE_LIMITED,  // 429 Too Many Requests
+        ERROR          // 連線或解析錯誤
+    }
+
+    private final Symbol symbol;
+    private final Status status;
+    private final Twstock.StockData data;
+
+    private QuoteResult(Symbol symbol, Status status, Twstock.StockData data) {
+        this.symbol = symbol;
+        this.status = status;
+        this.data = data;
+    }
+
+    public static QuoteResult ok(Symbol symbol, Twstock.StockData data) {
+        return new QuoteResult(symbol, Status.OK, data);
+    }
+
+    public static QuoteResult failed(Symbol symbol, Status status) {
+        return new QuoteResult(symbol, status, null);
+    }
+
+    public Symbol getSymbol() {
+        return symbol;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK && data != null;
+    }
+
+    // 查詢失敗時為 null
+    public Twstock.StockData getData() {
+        return data;
+    }
+}
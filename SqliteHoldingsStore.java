@@ -0,0 +1,414 @@
+package me.ninepin.twstock;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 以 SQLite 單一資料庫檔 (holdings.db) 保存持股，驅動程式由伺服器 (Paper/Spigot) 內建提供。
+ * 除了持股與 lot 之外也保存完整的交易歷史。所有存取共用一條連線，以同步方法序列化。
+ */
+final class SqliteHoldingsStore implements HoldingsStore {
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS players (uuid TEXT PRIMARY KEY, journal_seq INTEGER NOT NULL)",
+            // 主鍵即為 (uuid, symbol) 索引；lots_hash 為該股票 lot 的指紋，相同時寫入不必讀取比對 lot
+            "CREATE TABLE IF NOT EXISTS positions (uuid TEXT NOT NULL, symbol TEXT NOT NULL, shares INTEGER NOT NULL, " +
+                    "lots_hash INTEGER, PRIMARY KEY (uuid, symbol))",
+            "CREATE TABLE IF NOT EXISTS lots (uuid TEXT NOT NULL, symbol TEXT NOT NULL, price REAL NOT NULL, shares INTEGER NOT NULL)",
+            // 涵蓋索引：lot 列依寫入時間散落在資料表各處，讀取玩家的 lot 只需要掃描索引中相鄰的項目
+            "CREATE INDEX IF NOT EXISTS idx_lots_player ON lots (uuid, symbol, price, shares)",
+            "DROP INDEX IF EXISTS idx_lots_uuid_symbol",
+            // seq 為日誌序號，重複寫入同一筆交易時直接略過
+            "CREATE TABLE IF NOT EXISTS trades (seq INTEGER PRIMARY KEY, uuid TEXT NOT NULL, symbol TEXT NOT NULL, " +
+                    "type TEXT NOT NULL, shares INTEGER NOT NULL, price REAL, time INTEGER NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS idx_trades_uuid_time ON trades (uuid, time)"
+    };
+
+    private final Connection connection;
+    private final Logger logger;
+
+    SqliteHoldingsStore(File databaseFile, Logger logger) throws IOException {
+        this.logger = logger;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                // WAL：寫入時不阻塞讀取 (登入預先載入)，NORMAL 在 WAL 下仍不會損壞資料庫
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+                addColumnIfMissing(statement, "positions", "lots_hash", "INTEGER");
+            }
+            connection.setAutoCommit(false);
+            connection.commit();
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Could not open " + databaseFile.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // 舊版建立的資料表沒有新欄位時補上 (值為 NULL，下一次寫入時比對後填入)
+    private static void addColumnIfMissing(Statement statement, String table, String column, String type) throws SQLException {
+        try (ResultSet result = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (result.next()) {
+                if (column.equalsIgnoreCase(result.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
+
+    @Override
+    public String getName() {
+        return "sqlite";
+    }
+
+    @Override
+    public synchronized PlayerSnapshot load(UUID player) throws IOException {
+        String uuid = player.toString();
+        try {
+            long journalSeq = 0;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT journal_seq FROM players WHERE uuid = ?")) {
+                statement.setString(1, uuid);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next()) {
+                        journalSeq = result.getLong(1);
+                    }
+                }
+            }
+
+            Map<Symbol, Integer> holdings = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT symbol, shares FROM positions WHERE uuid = ?")) {
+                statement.setString(1, uuid);
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        holdings.put(Symbol.of(result.getString(1)), result.getInt(2));
+                    }
+                }
+            }
+
+            Map<Symbol, List<Position.Lot>> lots = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT symbol, price, shares FROM lots WHERE uuid = ? ORDER BY rowid")) {
+                statement.setString(1, uuid);
+                try (ResultSet result = statement.executeQuery()) {
+                    Map<Symbol, Position> positions = new LinkedHashMap<>();
+                    while (result.next()) {
+                        double price = result.getDouble(2);
+                        int shares = result.getInt(3);
+                        positions.merge(Symbol.of(result.getString(1)), Position.EMPTY.withLot(price, shares),
+                                (current, added) -> current.withLot(price, shares));
+                    }
+                    positions.forEach((symbol, position) -> lots.put(symbol, position.getLots()));
+                }
+            }
+            connection.commit();
+            return new PlayerSnapshot(player, journalSeq, holdings, lots, false);
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Could not load holdings for " + player + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 一個交易內寫入整批玩家，只寫入與資料庫現況不同的部分：持股逐檔比對，
+     * lot 只在該股票的指紋 (lots_hash) 改變時才讀出比對——新價格的 lot 追加、同價格加碼只更新股數、
+     * 賣光或清除的 lot 才刪除，寫入量與變更數成正比而不是與 lot 總數成正比。
+     * 交易紀錄以 seq 去重後批次插入。比對以資料庫現況為準，重試同一批仍是冪等的。
+     */
+    @Override
+    public synchronized void save(Collection<PlayerSnapshot> players, List<TransactionJournal.Entry> trades) throws IOException {
+        try (SaveBatch batch = new SaveBatch();
+             PreparedStatement insertTrade = connection.prepareStatement(
+                     "INSERT OR IGNORE INTO trades (seq, uuid, symbol, type, shares, price, time) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+
+            for (PlayerSnapshot snapshot : players) {
+                batch.add(snapshot);
+            }
+
+            for (TransactionJournal.Entry trade : trades) {
+                insertTrade.setLong(1, trade.seq);
+                insertTrade.setString(2, trade.player.toString());
+                insertTrade.setString(3, trade.symbol.key());
+                insertTrade.setString(4, trade.type.name());
+                insertTrade.setInt(5, trade.shares);
+                if (trade.hasPrice()) {
+                    insertTrade.setDouble(6, trade.price);
+                } else {
+                    insertTrade.setNull(6, java.sql.Types.REAL);
+                }
+                insertTrade.setLong(7, trade.time);
+                insertTrade.addBatch();
+            }
+
+            batch.execute();
+            insertTrade.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Could not save holdings: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 一檔股票 lot 的指紋 (與順序無關)，沒有 lot 時為 0。
+     */
+    static long lotsHash(List<Position.Lot> lots) {
+        long hash = 0;
+        for (Position.Lot lot : lots) {
+            long mixed = Double.doubleToLongBits(lot.price) * 0x9E3779B97F4A7C15L + lot.shares;
+            mixed ^= mixed >>> 33;
+            mixed *= 0xFF51AFD7ED558CCDL;
+            mixed ^= mixed >>> 33;
+            hash += mixed;
+        }
+        return hash;
+    }
+
+    // 資料庫中玩家一檔股票的持股列
+    private static final class StoredPosition {
+        final int shares;
+        final Long lotsHash;
+
+        StoredPosition(int shares, Long lotsHash) {
+            this.shares = shares;
+            this.lotsHash = lotsHash;
+        }
+    }
+
+    // 資料庫中一筆 lot 列 (以 symbol + 成交價識別)
+    private static final class StoredLot {
+        final long rowid;
+        int shares;
+
+        StoredLot(long rowid, int shares) {
+            this.rowid = rowid;
+            this.shares = shares;
+        }
+    }
+
+    /**
+     * 一次 save 的所有語句：逐位玩家讀取現況並比對，差異累積成批次，最後依序執行。
+     */
+    private final class SaveBatch implements AutoCloseable {
+        private final List<PreparedStatement> opened = new ArrayList<>();
+        private final PreparedStatement upsertPlayer;
+        private final PreparedStatement selectPositions;
+        private final PreparedStatement upsertPosition;
+        private final PreparedStatement deletePosition;
+        private final PreparedStatement selectLots;
+        private final PreparedStatement insertLot;
+        private final PreparedStatement updateLot;
+        private final PreparedStatement deleteLot;
+        private final PreparedStatement deleteSymbolLots;
+
+        SaveBatch() throws SQLException {
+            try {
+                upsertPlayer = prepare("INSERT OR REPLACE INTO players (uuid, journal_seq) VALUES (?, ?)");
+                selectPositions = prepare("SELECT symbol, shares, lots_hash FROM positions WHERE uuid = ?");
+                upsertPosition = prepare("INSERT OR REPLACE INTO positions (uuid, symbol, shares, lots_hash) VALUES (?, ?, ?, ?)");
+                deletePosition = prepare("DELETE FROM positions WHERE uuid = ? AND symbol = ?");
+                selectLots = prepare("SELECT rowid, price, shares FROM lots WHERE uuid = ? AND symbol = ?");
+                insertLot = prepare("INSERT INTO lots (uuid, symbol, price, shares) VALUES (?, ?, ?, ?)");
+                updateLot = prepare("UPDATE lots SET shares = ? WHERE rowid = ?");
+                deleteLot = prepare("DELETE FROM lots WHERE rowid = ?");
+                deleteSymbolLots = prepare("DELETE FROM lots WHERE uuid = ? AND symbol = ?");
+            } catch (SQLException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            opened.add(statement);
+            return statement;
+        }
+
+        void add(PlayerSnapshot snapshot) throws SQLException {
+            String uuid = snapshot.player.toString();
+            upsertPlayer.setString(1, uuid);
+            upsertPlayer.setLong(2, snapshot.journalSeq);
+            upsertPlayer.addBatch();
+
+            Map<String, StoredPosition> stored = new HashMap<>();
+            selectPositions.setString(1, uuid);
+            try (ResultSet result = selectPositions.executeQuery()) {
+                while (result.next()) {
+                    long lotsHash = result.getLong(3);
+                    stored.put(result.getString(1), new StoredPosition(result.getInt(2), result.wasNull() ? null : lotsHash));
+                }
+            }
+
+            Set<Symbol> symbols = new HashSet<>(snapshot.holdings.keySet());
+            symbols.addAll(snapshot.lots.keySet());
+            for (Symbol symbol : symbols) {
+                String key = symbol.key();
+                StoredPosition storedPosition = stored.remove(key);
+                int shares = snapshot.holdings.getOrDefault(symbol, 0);
+                List<Position.Lot> lots = snapshot.lots.getOrDefault(symbol, List.of());
+                long lotsHash = lotsHash(lots);
+
+                if (shares > 0) {
+                    if (storedPosition == null || storedPosition.shares != shares
+                            || storedPosition.lotsHash == null || storedPosition.lotsHash != lotsHash) {
+                        upsertPosition.setString(1, uuid);
+                        upsertPosition.setString(2, key);
+                        upsertPosition.setInt(3, shares);
+                        upsertPosition.setLong(4, lotsHash);
+                        upsertPosition.addBatch();
+                    }
+                } else if (storedPosition != null) {
+                    deletePosition.setString(1, uuid);
+                    deletePosition.setString(2, key);
+                    deletePosition.addBatch();
+                }
+
+                // 沒有持股列可以記錄指紋的 lot (舊資料) 每次都比對
+                boolean lotsUnchanged = shares > 0 && storedPosition != null
+                        && storedPosition.lotsHash != null && storedPosition.lotsHash == lotsHash;
+                if (!lotsUnchanged) {
+                    if (lots.isEmpty()) {
+                        deleteLots(uuid, key);
+                    } else {
+                        diffLots(uuid, key, lots);
+                    }
+                }
+            }
+
+            // 快照中已經沒有的股票 (賣光)
+            for (String key : stored.keySet()) {
+                deletePosition.setString(1, uuid);
+                deletePosition.setString(2, key);
+                deletePosition.addBatch();
+                deleteLots(uuid, key);
+            }
+        }
+
+        private void deleteLots(String uuid, String symbol) throws SQLException {
+            deleteSymbolLots.setString(1, uuid);
+            deleteSymbolLots.setString(2, symbol);
+            deleteSymbolLots.addBatch();
+        }
+
+        private void diffLots(String uuid, String symbol, List<Position.Lot> lots) throws SQLException {
+            Map<Double, StoredLot> stored = new HashMap<>();
+            selectLots.setString(1, uuid);
+            selectLots.setString(2, symbol);
+            try (ResultSet result = selectLots.executeQuery()) {
+                while (result.next()) {
+                    long rowid = result.getLong(1);
+                    StoredLot existing = stored.putIfAbsent(result.getDouble(2), new StoredLot(rowid, result.getInt(3)));
+                    if (existing != null) {
+                        // 同價格的重複列：併入第一列，讓下面的比對更新股數
+                        existing.shares = -1;
+                        deleteLot.setLong(1, rowid);
+                        deleteLot.addBatch();
+                    }
+                }
+            }
+
+            for (Position.Lot lot : lots) {
+                StoredLot storedLot = stored.remove(lot.price);
+                if (storedLot == null) {
+                    // 新價格的買進，追加在最後 (rowid 順序即為第一次買進的順序)
+                    insertLot.setString(1, uuid);
+                    insertLot.setString(2, symbol);
+                    insertLot.setDouble(3, lot.price);
+                    insertLot.setInt(4, lot.shares);
+                    insertLot.addBatch();
+                } else if (storedLot.shares != lot.shares) {
+                    updateLot.setInt(1, lot.shares);
+                    updateLot.setLong(2, storedLot.rowid);
+                    updateLot.addBatch();
+                }
+            }
+            // 不再存在的價格
+            for (StoredLot storedLot : stored.values()) {
+                deleteLot.setLong(1, storedLot.rowid);
+                deleteLot.addBatch();
+            }
+        }
+
+        void execute() throws SQLException {
+            upsertPlayer.executeBatch();
+            deletePosition.executeBatch();
+            upsertPosition.executeBatch();
+            deleteSymbolLots.executeBatch();
+            deleteLot.executeBatch();
+            updateLot.executeBatch();
+            insertLot.executeBatch();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (PreparedStatement statement : opened) {
+                statement.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean keepsHistory() {
+        return true;
+    }
+
+    @Override
+    public synchronized List<TransactionJournal.Entry> loadHistory(UUID player, int limit) throws IOException {
+        List<TransactionJournal.Entry> history = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT seq, symbol, type, shares, price, time FROM trades WHERE uuid = ? ORDER BY time DESC, seq DESC LIMIT ?")) {
+            statement.setString(1, player.toString());
+            statement.setInt(2, limit);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    double price = result.getDouble(5);
+                    if (result.wasNull()) {
+                        price = Double.NaN;
+                    }
+                    history.add(new TransactionJournal.Entry(result.getLong(1), TransactionJournal.Type.valueOf(result.getString(3)),
+                            player, Symbol.of(result.getString(2)), result.getInt(4), price, result.getLong(6)));
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Could not load trade history for " + player + ": " + e.getMessage(), e);
+        }
+        return history;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warning("Could not close holdings database: " + e.getMessage());
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.warning("Could not roll back holdings database: " + e.getMessage());
+        }
+    }
+}
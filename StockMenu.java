@@ -0,0 +1,92 @@
+package me.ninepin.twstock;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 投資組合與概覽介面的 InventoryHolder：開啟時記錄每個格子的動作與股票代碼，
+ * 點擊時以格子查表分派，不需要比對標題或物品名稱。同時記錄這一頁顯示的股票，供報價更新時只重寫對應的格子。
+ */
+final class StockMenu implements InventoryHolder {
+
+    enum Kind {
+        PORTFOLIO,
+        OVERVIEW
+    }
+
+    enum Action {
+        STOCK,
+        OVERVIEW,
+        ADD_STOCK,
+        REFRESH,
+        PREVIOUS_PAGE,
+        NEXT_PAGE,
+        SORT,
+        BACK
+    }
+
+    final Kind kind;
+    // 所有持股 (已排序)，概覽中任一檔報價變動時更新總覽
+    final List<Map.Entry<Symbol, Integer>> holdings;
+    private final Inventory inventory;
+    private final Action[] actions;
+    private final Symbol[] symbols;
+    // 這一頁的股票 -> 格子與股數
+    private final Map<Symbol, Integer> stockSlots = new HashMap<>();
+    private final Map<Symbol, Integer> stockShares = new HashMap<>();
+
+    StockMenu(Kind kind, int size, String title, List<Map.Entry<Symbol, Integer>> holdings) {
+        this.kind = kind;
+        this.holdings = holdings;
+        this.inventory = Bukkit.createInventory(this, size, title);
+        this.actions = new Action[size];
+        this.symbols = new Symbol[size];
+    }
+
+    @Override
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    void setStock(int slot, Symbol symbol, int shares, ItemStack item) {
+        inventory.setItem(slot, item);
+        actions[slot] = Action.STOCK;
+        symbols[slot] = symbol;
+        stockSlots.put(symbol, slot);
+        stockShares.put(symbol, shares);
+    }
+
+    void setButton(int slot, Action action, ItemStack item) {
+        inventory.setItem(slot, item);
+        actions[slot] = action;
+        symbols[slot] = null;
+    }
+
+    // 格子的動作，沒有動作 (空格或純顯示的物品) 時為 null
+    Action actionAt(int slot) {
+        return slot >= 0 && slot < actions.length ? actions[slot] : null;
+    }
+
+    Symbol symbolAt(int slot) {
+        return slot >= 0 && slot < symbols.length ? symbols[slot] : null;
+    }
+
+    // 這一頁顯示的股票所在的格子，不在這一頁時為 null
+    Integer slotOf(Symbol symbol) {
+        return stockSlots.get(symbol);
+    }
+
+    int sharesOf(Symbol symbol) {
+        return stockShares.getOrDefault(symbol, 0);
+    }
+
+    Map<Symbol, Integer> getStockSlots() {
+        return stockSlots;
+    }
+}
@@ -0,0 +1,1005 @@
+package me.ninepin.twstock;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 台灣股票中文名稱目錄。
+ * 讀取端只會看到已完整發佈的對應表；從 ISIN 網站下載、解析的工作全部在背景進行，
+ * 完成後才一次替換，因此啟動時不會卡住主執行緒，查詢也不會看到一半的資料。
+ * 持久化格式為記憶體映射的二進位快照 (NameSnapshot)，之後的新增暫存在 heap 上的 overlay，
+ * 每次保存時寫出新一代的快照檔 (stock_names.&lt;世代&gt;.snap) 並重新映射，再以指標檔指向它；
+ * 不覆蓋仍在映射中的檔案 (Windows 不允許)，舊世代在映射釋放後或下次啟動時刪除。
+ * .properties 只保留給管理員匯入/匯出。
+ * 注意：搜尋索引 (StockSearchIndex) 仍在 heap 上保留每一筆名稱，快照省下的只是目錄本身的 heap 與啟動時的解析時間
+ * (40,000 筆合成資料：HashMap 約 5.3 MiB，快照約 1.3 MB 映射、heap 幾乎為 0，搜尋索引約 16 MiB)。
+ */
+public class StockNameDirectory {
+
+    public enum State {
+        EMPTY,    // 尚未載入任何名稱
+        LOADING,  // 背景正在從 ISIN 網站下載/解析
+        READY,    // 已有可用的名稱
+        FAILED    // 背景載入失敗且沒有任何名稱
+    }
+
+    // ISIN 清單來源，內部上櫃統一存為 .TWO
+    public enum Market {
+        TWSE("https://isin.twse.com.tw/isin/C_public.jsp?strMode=2", ".TW", "TWSE Listed"),  // 上市公司
+        TPEX("https://isin.twse.com.tw/isin/C_public.jsp?strMode=4", ".TWO", "TPEX Listed"); // 上櫃公司
+
+        final String isinUrl;
+        final String suffix;
+        final String context;
+
+        Market(String isinUrl, String suffix, String context) {
+            this.isinUrl = isinUrl;
+            this.suffix = suffix;
+            this.context = context;
+        }
+
+        // 依標準化代碼判斷市場，非台灣股票回傳 null
+        static Market of(String normalizedSymbol) {
+            if (normalizedSymbol.endsWith(".TW")) return TWSE;
+            if (normalizedSymbol.endsWith(".TWO") || normalizedSymbol.endsWith(".OOTC")) return TPEX;
+            return null;
+        }
+    }
+
+    /**
+     * 名稱變更通知 (例如搜尋索引)。回呼在持有寫入鎖時同步執行，順序與實際變更一致，
+     * 實作必須快速且不可再回頭修改目錄。
+     */
+    public interface ChangeListener {
+        // oldName 為 null 代表新增，newName 為 null 代表移除
+        void onNameChanged(String symbol, String oldName, String newName);
+
+        // 整份對應表被替換 (例如從檔案重新載入)
+        void onNamesReplaced(Map<String, String> names);
+    }
+
+    static final String ISIN_CHARSET = "BIG5";
+    private static final String STOCK_NAMES_FILE = "stock_names.properties";
+    // 舊版固定檔名的快照，沒有指標檔時仍會讀取，下一次保存後刪除
+    private static final String LEGACY_SNAPSHOT_FILE = "stock_names.snap";
+    private static final String SNAPSHOT_PREFIX = "stock_names.";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    // 記錄目前快照檔名的指標檔 (不會被映射，可以直接替換)
+    private static final String SNAPSHOT_POINTER_FILE = "stock_names.snap.current";
+    // 單筆新增後延遲寫檔的秒數，期間的多次新增合併為一次寫入
+    private static final long SAVE_DEBOUNCE_SECONDS = 5;
+    // 查無名稱的代碼在這段時間內不會再觸發下載
+    private static final long DEFAULT_NEGATIVE_TTL_MINUTES = 10;
+    // 同一市場的 ISIN 清單按需重新下載的最短間隔
+    private static final long DEFAULT_MARKET_REFRESH_MINUTES = 360;
+    // ISIN 下載失敗後，同一市場的按需查詢在這段時間內直接回傳查無，不再重新下載
+    private static final long DEFAULT_MARKET_FAILURE_BACKOFF_MINUTES = 2;
+    private static final int NEGATIVE_CACHE_PURGE_THRESHOLD = 1024;
+    // 定期重新下載 ISIN 清單的間隔 (分鐘)，0 代表停用
+    private static final long DEFAULT_REFRESH_INTERVAL_MINUTES = 1440;
+    // 快照已經過期時，啟動後延遲多久進行第一次刷新
+    private static final long STALE_REFRESH_DELAY_MINUTES = 5;
+    // 新清單少於目前該市場名稱數的這個比例時，視為不完整的頁面，不套用移除
+    private static final double MIN_REMOVAL_COVERAGE = 0.5;
+    // overlay 中代表「已移除」的值 (名稱不會是空字串)
+    private static final String REMOVED = "";
+
+    private final Twstock plugin;
+    private final File stockNamesFile;
+    // 目前映射中的快照檔 (沒有快照時為 null)，只在 loadFromFile/save 內修改
+    private volatile File snapshotFile;
+    // 已使用過的最大世代編號
+    private long snapshotGeneration;
+
+    // 目前發佈中的對應表 (鍵為大寫代碼) = 映射的快照 + 快照之後的新增/變更 (overlay)。
+    // 寫入端先替換 snapshot 再替換 overlay，讀取端先讀 overlay，因此不會看到遺失的名稱
+    private volatile NameSnapshot snapshot = NameSnapshot.EMPTY;
+    // 值為 REMOVED 時代表快照中的名稱已下市/移除
+    private volatile Map<String, String> overlay = new ConcurrentHashMap<>();
+    private final Map<String, String> view = new MergedView();
+    private volatile State state = State.EMPTY;
+    // 各市場的載入進度 (市場 -> 狀態描述)
+    private final Map<String, String> progress = new ConcurrentHashMap<>();
+    private volatile CompletableFuture<Integer> bootstrapFuture;
+
+    // 修改對應表時使用的鎖，避免批次替換時遺失同時間的單筆新增
+    private final Object writeLock = new Object();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    // 查無名稱的代碼 -> 過期時間
+    private final Map<String, Long> negativeCache = new ConcurrentHashMap<>();
+    // 各市場最後一次成功下載 ISIN 清單的時間
+    private final Map<Market, Long> lastMarketRefresh = new ConcurrentHashMap<>();
+    // 各市場按需下載失敗後的退避期限
+    private final Map<Market, Long> marketFailureUntil = new ConcurrentHashMap<>();
+    // 進行中的按需下載，同一市場只會有一個
+    private final Map<Market, CompletableFuture<BulkResult>> marketRefreshes = new ConcurrentHashMap<>();
+    // 各市場上次回應的 ETag / Last-Modified，用於條件式請求
+    private final Map<Market, Validators> validators = new ConcurrentHashMap<>();
+    private volatile ScheduledFuture<?> refreshTask;
+
+    public StockNameDirectory(Twstock plugin) {
+        this.plugin = plugin;
+        this.stockNamesFile = new File(plugin.getDataFolder(), STOCK_NAMES_FILE);
+    }
+
+    // 註冊後立即以目前的對應表通知一次，之後的變更逐筆通知
+    public void addListener(ChangeListener listener) {
+        synchronized (writeLock) {
+            listeners.add(listener);
+            listener.onNamesReplaced(view);
+        }
+    }
+
+    public String get(String symbol) {
+        if (symbol == null) return null;
+        String name = overlay.get(symbol);
+        if (name != null) {
+            return name.isEmpty() ? null : name; // REMOVED
+        }
+        return snapshot.get(symbol);
+    }
+
+    // 唯讀檢視，反映目前發佈中的對應表 (走訪時才逐筆解碼)
+    public Map<String, String> asMap() {
+        return view;
+    }
+
+    public int size() {
+        NameSnapshot base = snapshot;
+        int size = base.size();
+        for (Map.Entry<String, String> entry : overlay.entrySet()) {
+            boolean inBase = base.get(entry.getKey()) != null;
+            if (entry.getValue().isEmpty()) {
+                if (inBase) size--;
+            } else if (!inBase) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        if (overlay.isEmpty()) {
+            return snapshot.size() == 0;
+        }
+        return size() == 0;
+    }
+
+    // 映射中的快照位元組數與尚未寫入快照的名稱數 (除錯用)
+    public int getSnapshotBytes() {
+        return snapshot.byteSize();
+    }
+
+    public int getOverlaySize() {
+        return overlay.size();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public boolean isLoading() {
+        return state == State.LOADING;
+    }
+
+    public CompletableFuture<Integer> getBootstrapFuture() {
+        return bootstrapFuture;
+    }
+
+    // 例如 "TWSE Listed: 已解析 1000 筆, TPEX Listed: 下載中"
+    public String describeProgress() {
+        if (progress.isEmpty()) {
+            return state.name();
+        }
+        StringBuilder builder = new StringBuilder();
+        progress.forEach((market, status) -> {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(market).append(": ").append(status);
+        });
+        return builder.toString();
+    }
+
+    /**
+     * 啟動/重新載入時呼叫：優先映射二進位快照；快照不存在或損壞時從 .properties 匯入，
+     * 並立即轉換為快照，下次啟動就不需要再解析 .properties。
+     * 延遲中的保存會先寫出，尚未寫入快照的新增也會保留在重新載入後的對應表上。
+     */
+    public synchronized void loadFromFile() {
+        if (!plugin.getDataFolder().exists()) {
+            plugin.getDataFolder().mkdirs();
+        }
+        flush();
+
+        long startedAt = System.nanoTime();
+        File current = resolveSnapshotFile();
+        deleteStaleSnapshots(current);
+        if (current.exists()) {
+            try {
+                NameSnapshot mapped = NameSnapshot.map(current.toPath());
+                snapshotFile = current;
+                publish(mapped, new ConcurrentHashMap<>());
+                plugin.getLogger().info("Mapped " + mapped.size() + " stock names from " + current.getName() + " (" +
+                        mapped.byteSize() + " bytes) in " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt) + " µs");
+                if (mapped.size() > 0) {
+                    state = State.READY; // 從檔案加載了內容，標記為就緒
+                }
+                return;
+            } catch (IOException e) {
+                plugin.getLogger().warning("Stock name snapshot " + current.getName() + " is unreadable (" + e.getMessage() +
+                        "), falling back to " + STOCK_NAMES_FILE);
+            }
+        }
+
+        if (!stockNamesFile.exists()) {
+            plugin.getLogger().info(STOCK_NAMES_FILE + " does not exist. Will attempt to fetch from web if needed.");
+            return;
+        }
+
+        try {
+            Map<String, String> loaded = readProperties(stockNamesFile);
+            publish(NameSnapshot.EMPTY, loaded);
+            plugin.getLogger().info("Loaded " + loaded.size() + " stock names from " + STOCK_NAMES_FILE + " in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms; converting to a snapshot");
+            if (!loaded.isEmpty()) {
+                state = State.READY; // 從檔案加載了內容，標記為就緒
+                save();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Error loading stock names from " + STOCK_NAMES_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // 整份替換目前的對應表並通知監聽者；尚未寫入 base 的新增與移除 (overlay) 會覆蓋在 loaded 之上保留下來
+    private void publish(NameSnapshot base, Map<String, String> loaded) {
+        synchronized (writeLock) {
+            Map<String, String> next = new ConcurrentHashMap<>(loaded);
+            next.putAll(uncovered(base));
+            snapshot = base;
+            overlay = next;
+            for (ChangeListener listener : listeners) {
+                listener.onNamesReplaced(view);
+            }
+        }
+    }
+
+    private static Map<String, String> readProperties(File file) throws IOException {
+        Properties props = new Properties();
+        // 使用 UTF-8 讀取，避免中文亂碼
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            loaded.put(key.toUpperCase(), props.getProperty(key)); // 鍵名也統一為大寫
+        }
+        return loaded;
+    }
+
+    /**
+     * 管理員指令：從 stock_names.properties 匯入 (合併) 名稱。
+     */
+    public BulkResult importProperties() throws IOException {
+        if (!stockNamesFile.exists()) {
+            throw new FileNotFoundException(STOCK_NAMES_FILE + " does not exist");
+        }
+        BulkLoad load = beginBulkLoad();
+        load.stageAll(readProperties(stockNamesFile));
+        BulkResult result = load.commit();
+        if (!isEmpty() && state != State.LOADING) {
+            state = State.READY;
+        }
+        return result;
+    }
+
+    /**
+     * 管理員指令：將目前的對應表匯出為 stock_names.properties，回傳匯出筆數。
+     */
+    public int exportProperties() throws IOException {
+        Properties props = new Properties();
+        view.forEach(props::setProperty);
+        File tempFile = new File(stockNamesFile.getPath() + ".tmp");
+        // 使用 UTF-8 寫入
+        try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            props.store(writer, "Taiwan Stock Chinese Names (TWSE & TPEX)");
+        }
+        replaceFile(tempFile, stockNamesFile);
+        return props.size();
+    }
+
+    // 新增或更新單一名稱，只有在內容改變時才 (延遲) 保存
+    public void put(String symbol, String name) {
+        if (symbol == null || name == null || symbol.trim().isEmpty() || name.trim().isEmpty()) {
+            return;
+        }
+        String normalizedKey = symbol.toUpperCase();
+        String existingName;
+        synchronized (writeLock) {
+            existingName = get(normalizedKey);
+            if (!name.equals(existingName)) {
+                overlay.put(normalizedKey, name);
+                fireNameChanged(normalizedKey, existingName, name);
+            }
+        }
+        if (existingName == null || !existingName.equals(name)) {
+            plugin.getLogger().info("Added/Updated stock name in cache: " + normalizedKey + " - " + name + ". Scheduling save.");
+            scheduleSave();
+        }
+    }
+
+    // 必須在持有 writeLock 時呼叫
+    private void fireNameChanged(String symbol, String oldName, String newName) {
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onNameChanged(symbol, oldName, newName);
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Stock name listener failed for " + symbol + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // 合併短時間內的多次寫入，只在延遲結束後寫檔一次
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            plugin.getIoExecutor().schedule(() -> {
+                saveScheduled.set(false);
+                save();
+            }, SAVE_DEBOUNCE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // 立即寫入尚未保存的變更 (由 onDisable 呼叫)
+    public void flush() {
+        if (saveScheduled.compareAndSet(true, false)) {
+            save();
+        }
+    }
+
+    /**
+     * 將目前的對應表寫成新一代的快照檔並映射，指標檔改指向它後清掉已寫入快照的 overlay，
+     * 最後刪除上一代的檔案。不替換仍在映射中的檔案，在 Windows 上也能保存。
+     */
+    synchronized void save() {
+        if (!plugin.getDataFolder().exists()) {
+            plugin.getDataFolder().mkdirs();
+        }
+        Map<String, String> merged;
+        synchronized (writeLock) {
+            merged = new HashMap<>(view);
+        }
+
+        // 世代編號不重複使用 (包含磁碟上尚未刪除的舊檔)，失敗的保存不會覆蓋到其他檔案
+        long generation = Math.max(snapshotGeneration, highestSnapshotGeneration()) + 1;
+        snapshotGeneration = generation;
+        File target = new File(plugin.getDataFolder(), SNAPSHOT_PREFIX + generation + SNAPSHOT_SUFFIX);
+        File tempFile = new File(target.getPath() + ".tmp");
+        NameSnapshot mapped;
+        try {
+            NameSnapshot.write(tempFile.toPath(), merged);
+            replaceFile(tempFile, target);
+            mapped = NameSnapshot.map(target.toPath());
+            writeSnapshotPointer(target.getName());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Error saving stock names to " + target.getName() + ": " + e.getMessage());
+            return;
+        }
+
+        File previous = snapshotFile;
+        synchronized (writeLock) {
+            // 只保留寫檔期間新增、尚未包含在新快照中的名稱
+            Map<String, String> remaining = uncovered(mapped);
+            snapshot = mapped;
+            overlay = remaining;
+        }
+        snapshotFile = target;
+        if (previous != null) {
+            deleteSnapshot(previous);
+        }
+        plugin.getLogger().info("Saved " + mapped.size() + " stock names to " + target.getName() + " (" + mapped.byteSize() + " bytes)");
+    }
+
+    // overlay 中尚未包含在 base 的新增與移除，必須在持有 writeLock 時呼叫
+    private Map<String, String> uncovered(NameSnapshot base) {
+        Map<String, String> remaining = new ConcurrentHashMap<>();
+        overlay.forEach((key, name) -> {
+            String saved = base.get(key);
+            boolean covered = name.isEmpty() ? saved == null : name.equals(saved);
+            if (!covered) remaining.put(key, name);
+        });
+        return remaining;
+    }
+
+    // 指標檔記錄的快照檔，沒有指標檔時沿用舊版的 stock_names.snap
+    private File resolveSnapshotFile() {
+        File pointer = new File(plugin.getDataFolder(), SNAPSHOT_POINTER_FILE);
+        if (pointer.exists()) {
+            try {
+                String name = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+                if (snapshotGenerationOf(name) >= 0) {
+                    return new File(plugin.getDataFolder(), name);
+                }
+                plugin.getLogger().warning(SNAPSHOT_POINTER_FILE + " does not name a snapshot: " + name);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read " + SNAPSHOT_POINTER_FILE + ": " + e.getMessage());
+            }
+        }
+        return new File(plugin.getDataFolder(), LEGACY_SNAPSHOT_FILE);
+    }
+
+    private void writeSnapshotPointer(String snapshotName) throws IOException {
+        File pointer = new File(plugin.getDataFolder(), SNAPSHOT_POINTER_FILE);
+        File tempFile = new File(pointer.getPath() + ".tmp");
+        Files.write(tempFile.toPath(), snapshotName.getBytes(StandardCharsets.UTF_8));
+        replaceFile(tempFile, pointer);
+    }
+
+    // stock_names.<世代>.snap 的世代編號，其他檔名回傳 -1
+    private static long snapshotGenerationOf(String fileName) {
+        if (!fileName.startsWith(SNAPSHOT_PREFIX) || !fileName.endsWith(SNAPSHOT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(SNAPSHOT_PREFIX.length(), fileName.length() - SNAPSHOT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long highestSnapshotGeneration() {
+        long highest = 0;
+        File[] files = plugin.getDataFolder().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                highest = Math.max(highest, snapshotGenerationOf(stripTempSuffix(file.getName())));
+            }
+        }
+        return highest;
+    }
+
+    // 刪除 current 以外的舊世代、舊版快照與中斷的暫存檔
+    private void deleteStaleSnapshots(File current) {
+        File[] files = plugin.getDataFolder().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String snapshotName = stripTempSuffix(file.getName());
+            boolean isSnapshot = snapshotGenerationOf(snapshotName) >= 0 || snapshotName.equals(LEGACY_SNAPSHOT_FILE);
+            if (isSnapshot && !file.equals(current)) {
+                deleteSnapshot(file);
+            }
+        }
+    }
+
+    private static String stripTempSuffix(String fileName) {
+        return fileName.endsWith(".tmp") ? fileName.substring(0, fileName.length() - ".tmp".length()) : fileName;
+    }
+
+    // 仍在映射中的檔案在 Windows 上無法刪除，留到下次啟動時再清除
+    private void deleteSnapshot(File file) {
+        if (!file.delete() && file.exists()) {
+            plugin.getLogger().fine("Could not delete old stock name snapshot " + file.getName() + " yet; will retry on next start");
+        }
+    }
+
+    private static void replaceFile(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 快照 + overlay 的唯讀 Map 檢視。查詢直接走 get，走訪時先列出 overlay，再逐筆解碼快照中未被覆蓋的名稱。
+     */
+    private class MergedView extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? StockNameDirectory.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return StockNameDirectory.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return StockNameDirectory.this.isEmpty();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    NameSnapshot base = snapshot;
+                    Map<String, String> top = overlay;
+                    Iterator<Entry<String, String>> overlayEntries = top.entrySet().iterator();
+                    return new Iterator<>() {
+                        private int index = 0;
+                        private Entry<String, String> next = advance();
+
+                        private Entry<String, String> advance() {
+                            while (overlayEntries.hasNext()) {
+                                Entry<String, String> entry = overlayEntries.next();
+                                if (!entry.getValue().isEmpty()) {
+                                    return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+                                }
+                            }
+                            while (index < base.size()) {
+                                String key = base.keyAt(index);
+                                String name = base.valueAt(index);
+                                index++;
+                                if (!top.containsKey(key)) {
+                                    return new SimpleImmutableEntry<>(key, name);
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next == null) throw new NoSuchElementException();
+                            Entry<String, String> current = next;
+                            next = advance();
+                            return current;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return StockNameDirectory.this.size();
+                }
+            };
+        }
+    }
+
+    public BulkLoad beginBulkLoad() {
+        return new BulkLoad();
+    }
+
+    /**
+     * 批次匯入：先把名稱暫存起來，commit 時一次套用到目錄、替換對應表並只寫檔一次。
+     * stage 可以從多個執行緒呼叫。
+     */
+    public class BulkLoad {
+        private final Map<String, String> staged = new ConcurrentHashMap<>();
+
+        private BulkLoad() {
+        }
+
+        public void stage(String symbol, String name) {
+            if (symbol == null || name == null || symbol.trim().isEmpty() || name.trim().isEmpty()) {
+                return;
+            }
+            staged.put(symbol.toUpperCase(), name);
+        }
+
+        public void stageAll(Map<String, String> entries) {
+            entries.forEach(this::stage);
+        }
+
+        public int size() {
+            return staged.size();
+        }
+
+        public BulkResult commit() {
+            int added = 0;
+            int changed = 0;
+            Map<String, String> previousNames = new HashMap<>();
+            synchronized (writeLock) {
+                Map<String, String> next = new ConcurrentHashMap<>(overlay);
+                for (Map.Entry<String, String> entry : staged.entrySet()) {
+                    String previous = get(entry.getKey());
+                    if (previous == null) {
+                        added++;
+                    } else if (!previous.equals(entry.getValue())) {
+                        changed++;
+                    } else {
+                        continue;
+                    }
+                    next.put(entry.getKey(), entry.getValue());
+                    previousNames.put(entry.getKey(), previous);
+                }
+                if (added > 0 || changed > 0) {
+                    // 一次替換，讀取端不會看到部分結果
+                    overlay = next;
+                    for (Map.Entry<String, String> entry : previousNames.entrySet()) {
+                        fireNameChanged(entry.getKey(), entry.getValue(), staged.get(entry.getKey()));
+                    }
+                }
+            }
+            if (added > 0 || changed > 0) {
+                save();
+            }
+            return new BulkResult(added, changed, staged.size() - added - changed, size());
+        }
+    }
+
+    public static final class BulkResult {
+        public final int added;
+        public final int changed;
+        public final int removed;
+        public final int unchanged;
+        public final int total;
+
+        BulkResult(int added, int changed, int unchanged, int total) {
+            this(added, changed, 0, unchanged, total);
+        }
+
+        BulkResult(int added, int changed, int removed, int unchanged, int total) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+            this.unchanged = unchanged;
+            this.total = total;
+        }
+
+        public boolean hasChanges() {
+            return added > 0 || changed > 0 || removed > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "added " + added + ", changed " + changed + ", removed " + removed + ", unchanged " + unchanged + ", total " + total;
+        }
+    }
+
+    /**
+     * 以某個市場的最新完整清單與目錄比對，只套用新增、改名與下市 (移除) 的差異。
+     * 比對與替換在寫入鎖內完成，讀取端不受影響；有變更時寫出新快照。
+     */
+    BulkResult applyMarketDiff(Market market, Map<String, String> latest) {
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        int unchanged = 0;
+        boolean hasChanges;
+        synchronized (writeLock) {
+            Map<String, String> next = new ConcurrentHashMap<>(overlay);
+            List<String[]> changes = new ArrayList<>(); // {代碼, 舊名稱, 新名稱}
+
+            for (Map.Entry<String, String> entry : latest.entrySet()) {
+                String previous = get(entry.getKey());
+                if (entry.getValue().equals(previous)) {
+                    unchanged++;
+                    continue;
+                }
+                if (previous == null) added++; else changed++;
+                next.put(entry.getKey(), entry.getValue());
+                changes.add(new String[]{entry.getKey(), previous, entry.getValue()});
+            }
+
+            // 目前屬於這個市場、但新清單中已經沒有的代碼
+            List<String> missing = new ArrayList<>();
+            int marketCount = 0;
+            for (Map.Entry<String, String> entry : view.entrySet()) {
+                if (!entry.getKey().endsWith(market.suffix)) continue;
+                marketCount++;
+                if (!latest.containsKey(entry.getKey())) missing.add(entry.getKey());
+            }
+            if (!missing.isEmpty() && latest.size() < marketCount * MIN_REMOVAL_COVERAGE) {
+                plugin.getLogger().warning(market.context + " listing has only " + latest.size() + " of " + marketCount +
+                        " known names; skipping " + missing.size() + " removals");
+            } else {
+                for (String key : missing) {
+                    changes.add(new String[]{key, get(key), null});
+                    next.put(key, REMOVED);
+                    removed++;
+                }
+            }
+
+            hasChanges = !changes.isEmpty();
+            if (hasChanges) {
+                overlay = next; // 一次替換
+                for (String[] change : changes) {
+                    fireNameChanged(change[0], change[1], change[2]);
+                }
+            }
+        }
+        if (hasChanges) {
+            save();
+        }
+        return new BulkResult(added, changed, removed, unchanged, size());
+    }
+
+    private static final class Validators {
+        final String etag;
+        final String lastModified;
+
+        Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * 在背景從 ISIN 網站下載上市、上櫃兩份清單 (並行)，解析成暫存表後一次替換並保存。
+     * 已在進行中時回傳同一個 future。完成值為新增的名稱數量。
+     */
+    public synchronized CompletableFuture<Integer> bootstrapAsync() {
+        if (bootstrapFuture != null && !bootstrapFuture.isDone()) {
+            return bootstrapFuture;
+        }
+
+        plugin.getLogger().info("Starting fetch of all Taiwanese stock names from ISIN websites...");
+        state = State.LOADING;
+        progress.clear();
+        long startedAt = System.currentTimeMillis();
+
+        CompletableFuture<Map<String, String>> twse = fetchMarket(Market.TWSE, false);
+        CompletableFuture<Map<String, String>> tpex = fetchMarket(Market.TPEX, false);
+
+        bootstrapFuture = twse.thenCombine(tpex, (listed, otc) -> {
+            BulkLoad load = beginBulkLoad();
+            load.stageAll(listed);
+            load.stageAll(otc);
+            BulkResult result = load.commit(); // 一次替換並保存
+
+            state = isEmpty() ? State.FAILED : State.READY;
+            plugin.getLogger().info("Initial stock name fetching from ISIN websites complete in " +
+                    (System.currentTimeMillis() - startedAt) + " ms: " + result);
+            return result.added;
+        }).exceptionally(error -> {
+            plugin.getLogger().severe("Stock name bootstrap failed: " + error.getMessage());
+            state = isEmpty() ? State.FAILED : State.READY;
+            return 0;
+        });
+        return bootstrapFuture;
+    }
+
+    /**
+     * 按需查詢單一台灣股票名稱。目錄沒有時不再為一筆資料下載整份 ISIN 頁面，而是：
+     * 查無紀錄在有效期內直接回傳 null；該市場清單在刷新間隔內已下載過也視為查無；
+     * 否則下載整份清單 (同市場同時只下載一次) 批次匯入後再查；下載失敗後該市場短暫退避，期間直接回傳 null。
+     */
+    public CompletableFuture<String> lookupAsync(String normalizedSymbol) {
+        Market market = Market.of(normalizedSymbol);
+        if (market == null) {
+            return CompletableFuture.completedFuture(null); // 只處理台灣股票
+        }
+        String key = toDirectoryKey(normalizedSymbol, market);
+
+        String name = get(key);
+        if (name != null) {
+            return CompletableFuture.completedFuture(name);
+        }
+
+        long now = System.currentTimeMillis();
+        Long negativeUntil = negativeCache.get(key);
+        if (negativeUntil != null && negativeUntil > now) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Long refreshedAt = lastMarketRefresh.get(market);
+        if (refreshedAt != null && now - refreshedAt < getMarketRefreshMillis()) {
+            // 清單是最近下載的，卻沒有這個代碼
+            rememberMissing(key, now);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Long failedUntil = marketFailureUntil.get(market);
+        if (failedUntil != null && failedUntil > now) {
+            // ISIN 網站剛下載失敗，退避期間不再重試
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return refreshMarket(market).thenApply(result -> {
+            marketFailureUntil.remove(market);
+            String found = get(key);
+            if (found == null) {
+                rememberMissing(key, System.currentTimeMillis());
+                plugin.getLogger().info("Could not find name for " + key + " from ISIN website; cached as missing.");
+            }
+            return found;
+        }).exceptionally(error -> {
+            // 記錄市場退避，ISIN 網站故障時不會每次查詢都重新下載整份清單
+            long failedAt = System.currentTimeMillis();
+            marketFailureUntil.put(market, failedAt + TimeUnit.MINUTES.toMillis(plugin.getConfig().getLong(
+                    "names.market-failure-backoff-minutes", DEFAULT_MARKET_FAILURE_BACKOFF_MINUTES)));
+            plugin.getLogger().warning("Error looking up stock name for " + key + ": " + error.getMessage()
+                    + "; not retrying " + market.context + " for a while");
+            return null;
+        });
+    }
+
+    // 上櫃的 .OOTC 在目錄中以 .TWO 存放
+    private static String toDirectoryKey(String normalizedSymbol, Market market) {
+        int dot = normalizedSymbol.lastIndexOf('.');
+        String code = dot > 0 ? normalizedSymbol.substring(0, dot) : normalizedSymbol;
+        return code + market.suffix;
+    }
+
+    private void rememberMissing(String key, long now) {
+        if (negativeCache.size() >= NEGATIVE_CACHE_PURGE_THRESHOLD) {
+            negativeCache.values().removeIf(until -> until <= now);
+        }
+        negativeCache.put(key, now + TimeUnit.MINUTES.toMillis(
+                plugin.getConfig().getLong("names.negative-cache-minutes", DEFAULT_NEGATIVE_TTL_MINUTES)));
+    }
+
+    private long getMarketRefreshMillis() {
+        return TimeUnit.MINUTES.toMillis(plugin.getConfig().getLong("names.market-refresh-minutes", DEFAULT_MARKET_REFRESH_MINUTES));
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCache.size();
+    }
+
+    /**
+     * 依設定的間隔定期重新下載兩個市場的 ISIN 清單 (重複呼叫會取消先前的排程)。
+     * 快照比刷新間隔還舊時，啟動後不久就先刷新一次。
+     */
+    public void startRefresher() {
+        stopRefresher();
+        long intervalMinutes = plugin.getConfig().getLong("names.refresh-interval-minutes", DEFAULT_REFRESH_INTERVAL_MINUTES);
+        if (intervalMinutes <= 0) {
+            plugin.getLogger().info("Scheduled stock name refresh is disabled");
+            return;
+        }
+        File current = snapshotFile;
+        long ageMinutes = current != null && current.exists()
+                ? TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - current.lastModified())
+                : Long.MAX_VALUE;
+        long initialDelay = ageMinutes >= intervalMinutes ? STALE_REFRESH_DELAY_MINUTES : intervalMinutes - ageMinutes;
+        refreshTask = plugin.getIoExecutor().scheduleAtFixedRate(this::refreshAll, initialDelay, intervalMinutes, TimeUnit.MINUTES);
+        plugin.getLogger().info("Scheduled stock name refresh every " + intervalMinutes + " minutes (first in " + initialDelay + " minutes)");
+    }
+
+    public void stopRefresher() {
+        ScheduledFuture<?> task = refreshTask;
+        if (task != null) {
+            task.cancel(false);
+            refreshTask = null;
+        }
+    }
+
+    /**
+     * 並行刷新兩個市場 (與按需查詢共用同一次下載)，回傳各市場的比對結果。
+     * 背景載入進行中時略過，避免重複下載。
+     */
+    public CompletableFuture<Map<Market, BulkResult>> refreshAllAsync() {
+        if (isLoading()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        Map<Market, CompletableFuture<BulkResult>> futures = new EnumMap<>(Market.class);
+        for (Market market : Market.values()) {
+            futures.put(market, refreshMarket(market));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).handle((ignored, error) -> {
+            Map<Market, BulkResult> results = new EnumMap<>(Market.class);
+            futures.forEach((market, future) -> {
+                if (!future.isCompletedExceptionally()) results.put(market, future.join());
+            });
+            return results;
+        });
+    }
+
+    private void refreshAll() {
+        long startedAt = System.currentTimeMillis();
+        Map<Market, BulkResult> results = refreshAllAsync().join();
+        plugin.getLogger().info("Scheduled stock name refresh finished in " + (System.currentTimeMillis() - startedAt) +
+                " ms: " + results);
+    }
+
+    // 以條件式請求下載單一市場的整份清單並套用差異，同一市場的並發請求共用同一次下載
+    private CompletableFuture<BulkResult> refreshMarket(Market market) {
+        CompletableFuture<BulkResult> created = new CompletableFuture<>();
+        CompletableFuture<BulkResult> existing = marketRefreshes.putIfAbsent(market, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        plugin.getLogger().info("Refreshing " + market.context + " ISIN index");
+        fetchMarket(market, true).whenComplete((parsed, error) -> {
+            BulkResult result = null;
+            if (error == null) {
+                if (parsed == null) {
+                    // 304：清單沒有變化
+                    result = new BulkResult(0, 0, 0, 0, size());
+                    plugin.getLogger().info(market.context + " ISIN index not modified");
+                } else if (parsed.isEmpty()) {
+                    error = new IOException("Empty " + market.context + " ISIN listing");
+                } else {
+                    result = applyMarketDiff(market, parsed);
+                    plugin.getLogger().info("Refreshed " + market.context + " ISIN index: " + result);
+                }
+            }
+            marketRefreshes.remove(market, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 下載單一市場的 ISIN 頁面，在 I/O 執行緒上邊下載邊解析，失敗時回傳空表。
+     * conditional 為 true 時帶上前一次的驗證資訊，伺服器回覆 304 時完成值為 null。
+     */
+    private CompletableFuture<Map<String, String>> fetchMarket(Market market, boolean conditional) {
+        String url = market.isinUrl;
+        String suffix = market.suffix;
+        String context = market.context;
+        Validators previous = conditional ? validators.get(market) : null;
+        progress.put(context, "下載中");
+        return plugin.getHttpTransport().getStreamAsync(url, "Mozilla/5.0", "Bulk ISIN " + context,
+                        previous != null ? previous.etag : null, previous != null ? previous.lastModified : null)
+                .thenApplyAsync(response -> {
+                    Map<String, String> parsed = new ConcurrentHashMap<>();
+                    if (response == null) {
+                        plugin.getLogger().warning("Failed to fetch content from " + url + " for " + context);
+                        progress.put(context, "下載失敗");
+                        return parsed;
+                    }
+                    if (response.isNotModified()) {
+                        lastMarketRefresh.put(market, System.currentTimeMillis());
+                        progress.put(context, "未變更");
+                        return null;
+                    }
+                    try (InputStream body = response.body) {
+                        parseIsinPage(body, suffix, context, parsed);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    if (!parsed.isEmpty()) {
+                        lastMarketRefresh.put(market, System.currentTimeMillis());
+                        if (response.etag != null || response.lastModified != null) {
+                            validators.put(market, new Validators(response.etag, response.lastModified));
+                        }
+                    }
+                    progress.put(context, "完成 (" + parsed.size() + " 筆)");
+                    return parsed;
+                }, plugin.getIoExecutor().executor())
+                .exceptionally(error -> {
+                    plugin.getLogger().warning("Error fetching stock names from " + url + " (" + context + "): " + error.getMessage());
+                    progress.put(context, "失敗");
+                    return Map.of();
+                });
+    }
+
+    // 以串流方式解析 ISIN 網頁，將 "代碼　名稱" 存入 into
+    private void parseIsinPage(InputStream body, String suffixForCache, String context, Map<String, String> into) throws IOException {
+        long startedAt = System.nanoTime();
+        IsinPageParser.Stats stats = IsinPageParser.parse(body, Charset.forName(ISIN_CHARSET), (stockCode, stockName) -> {
+            into.put(stockCode + suffixForCache, stockName);
+            if (into.size() % 200 == 0) { // 每處理200個更新一次進度
+                progress.put(context, "已解析 " + into.size() + " 筆");
+            }
+            return true;
+        });
+        plugin.getLogger().info("Finished parsing ISIN page for " + context + " in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms. Processed " + stats.rows +
+                " rows (" + stats.chars + " chars), found " + stats.entries + " names with suffix " + suffixForCache);
+    }
+}
@@ -0,0 +1,175 @@
+package me.ninepin.twstock;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 股票代碼與中文名稱的記憶體搜尋索引，提供代碼前綴、名稱前綴與名稱子字串查詢。
+ * 名稱經過 NFKC 正規化 (全形轉半形)、轉小寫並去除空白後再建立索引，
+ * 因此 "ＡＢＣ" 與 "abc"、"台 積電" 與 "台積電" 都能互相比對。
+ * 由 StockNameDirectory 的變更通知逐筆更新，不需要整份重建。
+ */
+public class StockSearchIndex implements StockNameDirectory.ChangeListener {
+
+    public static final class Match {
+        public final String symbol;
+        public final String name;
+
+        Match(String symbol, String name) {
+            this.symbol = symbol;
+            this.name = name;
+        }
+    }
+
+    // 代碼 (例如 2330.TW) -> 名稱，依字典序排列以便做前綴查詢
+    private final ConcurrentSkipListMap<String, String> bySymbol = new ConcurrentSkipListMap<>();
+    // 正規化名稱 -> 代碼集合 (同名不同市場時會有多筆)
+    private final ConcurrentSkipListMap<String, Set<String>> byName = new ConcurrentSkipListMap<>();
+
+    @Override
+    public synchronized void onNameChanged(String symbol, String oldName, String newName) {
+        if (oldName != null) {
+            removeName(oldName, symbol);
+        }
+        if (newName != null) {
+            bySymbol.put(symbol, newName);
+            byName.computeIfAbsent(fold(newName), key -> ConcurrentHashMap.newKeySet()).add(symbol);
+        } else {
+            bySymbol.remove(symbol);
+        }
+    }
+
+    @Override
+    public synchronized void onNamesReplaced(Map<String, String> names) {
+        bySymbol.clear();
+        byName.clear();
+        names.forEach((symbol, name) -> onNameChanged(symbol, null, name));
+    }
+
+    private void removeName(String name, String symbol) {
+        String folded = fold(name);
+        Set<String> symbols = byName.get(folded);
+        if (symbols != null) {
+            symbols.remove(symbol);
+            if (symbols.isEmpty()) {
+                byName.remove(folded, symbols);
+            }
+        }
+    }
+
+    public int size() {
+        return bySymbol.size();
+    }
+
+    /**
+     * Tab 補全建議。輸入看起來是代碼時回傳代碼，否則回傳符合前綴 (不足時加上子字串) 的名稱。
+     */
+    public List<String> suggest(String input, int limit) {
+        List<String> suggestions = new ArrayList<>();
+        if (input == null) return suggestions;
+
+        String trimmed = input.trim();
+        if (trimmed.isEmpty() || isAsciiOnly(trimmed)) {
+            String prefix = trimmed.toUpperCase();
+            for (String symbol : symbolsWithPrefix(prefix).keySet()) {
+                if (suggestions.size() >= limit) break;
+                suggestions.add(symbol);
+            }
+            return suggestions;
+        }
+
+        for (Match match : search(trimmed, limit)) {
+            if (!suggestions.contains(match.name)) {
+                suggestions.add(match.name);
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * 搜尋代碼或名稱：先列出代碼前綴，再是名稱前綴，最後是名稱子字串。
+     */
+    public List<Match> search(String query, int limit) {
+        List<Match> matches = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        if (query == null || query.trim().isEmpty()) return matches;
+
+        String upper = query.trim().toUpperCase();
+        for (Map.Entry<String, String> entry : symbolsWithPrefix(upper).entrySet()) {
+            if (matches.size() >= limit) return matches;
+            if (seen.add(entry.getKey())) matches.add(new Match(entry.getKey(), entry.getValue()));
+        }
+
+        String folded = fold(query);
+        if (folded.isEmpty()) return matches;
+
+        // 名稱前綴
+        for (Map.Entry<String, Set<String>> entry : byName.tailMap(folded, true).entrySet()) {
+            if (!entry.getKey().startsWith(folded)) break;
+            for (String symbol : entry.getValue()) {
+                if (matches.size() >= limit) return matches;
+                if (seen.add(symbol)) matches.add(new Match(symbol, bySymbol.get(symbol)));
+            }
+        }
+
+        // 名稱子字串
+        for (Map.Entry<String, Set<String>> entry : byName.entrySet()) {
+            if (!entry.getKey().contains(folded)) continue;
+            for (String symbol : entry.getValue()) {
+                if (matches.size() >= limit) return matches;
+                if (seen.add(symbol)) matches.add(new Match(symbol, bySymbol.get(symbol)));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 將玩家輸入的名稱解析成唯一的代碼：完全相同的名稱優先，其次是唯一的前綴/子字串結果。
+     * 找不到或有多個候選時回傳 null，候選清單可用 search 取得。
+     */
+    public String resolveName(String input) {
+        String folded = fold(input);
+        if (folded.isEmpty()) return null;
+
+        Set<String> exact = byName.get(folded);
+        if (exact != null && exact.size() == 1) {
+            return exact.iterator().next();
+        }
+        if (exact != null && !exact.isEmpty()) {
+            return null; // 同名多檔，需要玩家選擇
+        }
+
+        List<Match> matches = search(input, 2);
+        return matches.size() == 1 ? matches.get(0).symbol : null;
+    }
+
+    private ConcurrentNavigableMap<String, String> symbolsWithPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return bySymbol;
+        }
+        return bySymbol.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    // 全形轉半形、轉小寫、去除所有空白
+    static String fold(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder builder = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    static boolean isAsciiOnly(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) return false;
+        }
+        return true;
+    }
+}
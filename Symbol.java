@@ -0,0 +1,177 @@
+package me.ninepin.twstock;
+
+import org.bukkit.ChatColor;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 標準化後的股票代碼。同一代碼同時間只會有一個實例 (interned)，可以直接用 == 比較，
+ * 市場、Yahoo 查詢代碼與儲存用鍵名都在建立時算好，之後的快取、持股與存檔不需要再處理字串。
+ * 只在輸入的邊界 (指令、聊天、GUI、存檔讀取) 透過 {@link #of(String)} 建立。
+ * 表中只以弱參照保存實例：玩家隨意輸入的代碼在沒有人使用後會被回收，不會永久佔用記憶體；
+ * 仍被持股、快取或索引引用的實例不會被回收，因此同一代碼同時間只會有一個實例。
+ */
+public final class Symbol implements Comparable<Symbol> {
+    // 標準化代碼 -> 實例 (弱參照，回收後由 STALE 佇列清除表項)
+    private static final Map<String, KeyRef> BY_KEY = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> STALE = new ReferenceQueue<>();
+    // 原始輸入 -> 實例，重複的輸入不需要再解析
+    private static final Map<String, Symbol> BY_INPUT = new ConcurrentHashMap<>();
+    // 上限也限制了被這個快取強參照保留的實例數
+    private static final int INPUT_CACHE_LIMIT = 4096;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final String STORAGE_DOT = "_DOT_";
+
+    private final String key;          // 例如 2330.TW、6446.TWO、AAPL
+    private final String code;         // 不含市場後綴的代碼
+    private final StockNameDirectory.Market market; // 非台灣股票為 null
+    private final String yahooSymbol;  // Yahoo 查詢用代碼 (上櫃 .TWO -> .OOTC)
+    private final String storageKey;   // YAML 鍵名 (點號轉為 _DOT_)
+    private final int id;
+
+    private Symbol(String key) {
+        this.key = key;
+        int dot = key.lastIndexOf('.');
+        this.code = dot > 0 ? key.substring(0, dot) : key;
+        this.market = StockNameDirectory.Market.of(key);
+        this.yahooSymbol = market == StockNameDirectory.Market.TPEX ? code + ".OOTC" : key;
+        this.storageKey = key.replace(".", STORAGE_DOT);
+        this.id = NEXT_ID.getAndIncrement();
+    }
+
+    /**
+     * 從玩家輸入或內部字串取得代碼：去除顏色碼、轉大寫，純數字預設為上市 .TW，
+     * .OOTC 視為 .TWO。空白輸入丟出 IllegalArgumentException。
+     */
+    public static Symbol of(String raw) {
+        Symbol cached = BY_INPUT.get(raw);
+        if (cached != null) {
+            return cached;
+        }
+        Symbol symbol = intern(canonicalize(raw));
+        if (BY_INPUT.size() >= INPUT_CACHE_LIMIT) {
+            BY_INPUT.clear(); // 輸入變化太多時直接重來，沒有其他引用的實例之後會被回收
+        }
+        BY_INPUT.put(raw, symbol);
+        return symbol;
+    }
+
+    // 取得仍存活的實例，沒有時建立新的；兩個執行緒同時建立時以先放入表中的為準
+    private static Symbol intern(String key) {
+        expungeStale();
+        while (true) {
+            KeyRef ref = BY_KEY.get(key);
+            Symbol existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            Symbol created = new Symbol(key);
+            KeyRef fresh = new KeyRef(created);
+            boolean stored = ref == null ? BY_KEY.putIfAbsent(key, fresh) == null : BY_KEY.replace(key, ref, fresh);
+            if (stored) {
+                return created;
+            }
+        }
+    }
+
+    // 移除已被回收的實例留下的表項
+    private static void expungeStale() {
+        Reference<? extends Symbol> stale;
+        while ((stale = STALE.poll()) != null) {
+            KeyRef ref = (KeyRef) stale;
+            BY_KEY.remove(ref.key, ref);
+        }
+    }
+
+    private static final class KeyRef extends WeakReference<Symbol> {
+        final String key;
+
+        KeyRef(Symbol symbol) {
+            super(symbol, STALE);
+            this.key = symbol.key;
+        }
+    }
+
+    // 從存檔的鍵名 (2330_DOT_TW) 還原
+    public static Symbol fromStorageKey(String storageKey) {
+        return of(storageKey.replace(STORAGE_DOT, "."));
+    }
+
+    private static String canonicalize(String raw) {
+        if (raw == null) {
+            throw new IllegalArgumentException("Stock symbol is null");
+        }
+        String stripped = ChatColor.stripColor(raw);
+        String key = (stripped != null ? stripped : raw).trim().toUpperCase();
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("Stock symbol is empty");
+        }
+        if (isDigits(key)) {
+            return key + ".TW"; // 純數字 (例如 "2330") 預設為上市
+        }
+        if (key.endsWith(".OOTC")) {
+            return key.substring(0, key.length() - 5) + ".TWO"; // 內部統一使用 .TWO 代表上櫃
+        }
+        return key;
+    }
+
+    private static boolean isDigits(String text) {
+        int length = text.length();
+        if (length < 4 || length > 6) return false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public StockNameDirectory.Market market() {
+        return market;
+    }
+
+    public boolean isTaiwan() {
+        return market != null;
+    }
+
+    public String yahooSymbol() {
+        return yahooSymbol;
+    }
+
+    public String storageKey() {
+        return storageKey;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public int compareTo(Symbol other) {
+        return key.compareTo(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    // 實例是唯一的，equals 使用預設的參照比較
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
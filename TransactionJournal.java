@@ -0,0 +1,360 @@
+package me.ninepin.twstock;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 持股交易的追加式日誌 (JSON lines)，每筆交易一行，附帶遞增序號與 CRC32：
+ * <pre>
+ * {"seq":12,"type":"BUY","player":"...","symbol":"2330.TW","shares":10,"price":600.0,"time":1700000000000,"crc":"1a2b3c4d"}
+ * </pre>
+ * 日誌分成多個區段檔 (檔名為區段的起始序號)。壓縮時換到新的區段，
+ * 等玩家資料寫入儲存後端後才刪除舊區段，所以任何時間當機都能以「快照 + 之後的紀錄」還原。
+ * 寫入本身以物件鎖序列化；同一位玩家的紀錄順序由 PlayerStockManager 的玩家鎖保證。
+ */
+final class TransactionJournal {
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    enum Type {
+        BUY,   // 增加持股，有價格時同時記錄一筆成本
+        SELL,  // 減少持股，歸零時一併清除成本記錄
+        CLEAR  // 清除成本記錄
+    }
+
+    static final class Entry {
+        final long seq;
+        final Type type;
+        final UUID player;
+        final Symbol symbol;
+        final int shares;
+        final double price; // 沒有成本記錄時為 NaN
+        final long time;    // 交易時間 (epoch 毫秒)，舊紀錄為 0
+
+        Entry(long seq, Type type, UUID player, Symbol symbol, int shares, double price, long time) {
+            this.seq = seq;
+            this.type = type;
+            this.player = player;
+            this.symbol = symbol;
+            this.shares = shares;
+            this.price = price;
+            this.time = time;
+        }
+
+        boolean hasPrice() {
+            return !Double.isNaN(price);
+        }
+    }
+
+    private final Path directory;
+    private final Logger logger;
+    private final boolean fsync;
+
+    private FileChannel channel;
+    private Path currentSegment;
+    private long lastSeq;
+    private int recordsSinceRoll;
+    // 寫入失敗後目前區段已關閉，下一筆紀錄寫入新的區段
+    private boolean segmentAbandoned;
+    // 上次 readAfter 是否因損壞而提前停止
+    private boolean replayTruncated;
+    // 上次 readAfter 看到的最後序號 (沒有紀錄時由區段檔名推算)
+    private long lastReadSeq;
+
+    TransactionJournal(Path directory, Logger logger, boolean fsync) {
+        this.directory = directory;
+        this.logger = logger;
+        this.fsync = fsync;
+    }
+
+    /**
+     * 依序讀取所有區段中序號大於 afterSeq 的紀錄。遇到截斷、檢查碼錯誤或序號不連續的行就停止，
+     * 之後的紀錄無法確定是否完整，全部略過。
+     * 例外是寫入失敗而放棄的區段：新區段從檔名的序號開始 (跳過失敗的序號)，
+     * 舊區段最後一行若是無法截掉的殘缺紀錄也直接略過。
+     */
+    synchronized List<Entry> readAfter(long afterSeq) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        replayTruncated = false;
+        List<Path> segments = listSegments();
+        // 空的區段 (例如剛壓縮完) 或損壞的區段仍代表序號已經用到 起始序號 - 1
+        lastReadSeq = 0;
+        for (Path segment : segments) {
+            lastReadSeq = Math.max(lastReadSeq, startSeqOf(segment) - 1);
+        }
+        long previousSeq = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            boolean lastSegment = i == segments.size() - 1;
+            long segmentStart = startSeqOf(segment);
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                int lineNumber = 0;
+                boolean firstEntry = true;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) continue;
+                    Entry entry = parse(line);
+                    if (entry == null && !lastSegment && onlyBlankLinesLeft(reader)) {
+                        // 寫入失敗且無法截掉的最後一行，後面的紀錄在新區段中
+                        logger.warning("Skipping torn last line " + lineNumber + " of transaction journal " + segment.getFileName());
+                        break;
+                    }
+                    // 區段的第一筆從檔名的序號開始，寫入失敗的序號不會重用，因此可能比前一區段的最後一筆多跳一號
+                    long expectedSeq = firstEntry && segmentStart > previousSeq ? segmentStart : previousSeq + 1;
+                    firstEntry = false;
+                    if (entry == null || (previousSeq >= 0 && entry.seq != expectedSeq)) {
+                        logger.severe("Transaction journal " + segment.getFileName() + " is corrupt at line " + lineNumber +
+                                ", replay stopped after seq " + previousSeq);
+                        replayTruncated = true;
+                        return entries;
+                    }
+                    previousSeq = entry.seq;
+                    lastReadSeq = Math.max(lastReadSeq, entry.seq);
+                    if (entry.seq > afterSeq) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean onlyBlankLinesLeft(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized long getLastReadSeq() {
+        return lastReadSeq;
+    }
+
+    /**
+     * 若上次重播因損壞而停止，把所有區段改名為 .corrupt 以便人工檢查 (在 open 之前呼叫)，
+     * 新的紀錄不會接在損壞的行後面。
+     */
+    synchronized void quarantineIfTruncated() throws IOException {
+        if (!replayTruncated) {
+            return;
+        }
+        for (Path segment : listSegments()) {
+            Files.move(segment, segment.resolveSibling(segment.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // 開新的區段開始寫入，lastSeq 為快照與重播後的最後序號
+    synchronized void open(long lastSeq) throws IOException {
+        Files.createDirectories(directory);
+        this.lastSeq = lastSeq;
+        startSegment();
+    }
+
+    /**
+     * 追加一筆紀錄。寫入失敗時把區段截回寫入前的長度並改用新的區段，失敗的序號視為已用掉不再重用，
+     * 區段中間不會留下殘缺的行 (否則重播會停在那裡，之後的紀錄全部遺失)。
+     */
+    synchronized Entry append(Type type, UUID player, Symbol symbol, int shares, double price) throws IOException {
+        if (channel == null) {
+            if (!segmentAbandoned) {
+                throw new IOException("Journal is not open");
+            }
+            startSegment();
+        }
+        Entry entry = new Entry(lastSeq + 1, type, player, symbol, shares, price, System.currentTimeMillis());
+        ByteBuffer line = ByteBuffer.wrap((format(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        long sizeBefore = channel.size();
+        try {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            abandonSegment(sizeBefore, entry.seq);
+            throw e;
+        }
+        lastSeq = entry.seq;
+        recordsSinceRoll++;
+        return entry;
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    synchronized int getRecordsSinceRoll() {
+        return recordsSinceRoll;
+    }
+
+    /**
+     * 關閉目前的區段並開始新的區段，回傳舊區段的最後序號。
+     * 之後的紀錄都會寫在新區段，舊區段可以在包含這些紀錄的快照寫入成功後刪除。
+     */
+    synchronized long roll() throws IOException {
+        if (recordsSinceRoll == 0) {
+            return lastSeq;
+        }
+        closeChannel();
+        startSegment();
+        return lastSeq;
+    }
+
+    // 刪除目前區段以外、內容都已包含在快照 (序號 <= snapshotSeq) 中的區段
+    synchronized int deleteCompacted(long snapshotSeq) throws IOException {
+        int deleted = 0;
+        for (Path segment : listSegments()) {
+            if (segment.equals(currentSegment) || startSeqOf(segment) > snapshotSeq) {
+                continue;
+            }
+            Files.deleteIfExists(segment);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    synchronized void sync() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    synchronized void close() throws IOException {
+        closeChannel();
+    }
+
+    private void startSegment() throws IOException {
+        currentSegment = directory.resolve(String.format("%020d", lastSeq + 1) + SEGMENT_SUFFIX);
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsSinceRoll = 0;
+        segmentAbandoned = false;
+    }
+
+    /**
+     * 寫入失敗後：截掉可能寫了一半的行並關閉區段，失敗的序號用掉，下一筆紀錄寫在從下一個序號開始的新區段。
+     * 截斷也失敗時殘缺的行會留在區段最後，重播時略過。
+     */
+    private void abandonSegment(long sizeBefore, long failedSeq) {
+        try {
+            channel.truncate(sizeBefore);
+            channel.force(false);
+        } catch (IOException e) {
+            logger.warning("Could not truncate transaction journal " + currentSegment.getFileName() + " after a failed write: " + e.getMessage());
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Could not close transaction journal " + currentSegment.getFileName() + ": " + e.getMessage());
+        }
+        channel = null;
+        lastSeq = failedSeq;
+        segmentAbandoned = true;
+        // 舊區段的紀錄仍然等待壓縮，筆數延續到新區段
+        int records = recordsSinceRoll;
+        try {
+            startSegment();
+        } catch (IOException e) {
+            logger.warning("Could not start a new transaction journal segment: " + e.getMessage());
+        }
+        recordsSinceRoll = records;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // 依起始序號排序 (檔名固定 20 位數，字串順序即數字順序)
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long startSeqOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE; // 不是日誌區段，不刪除
+        }
+    }
+
+    private static String format(Entry entry) {
+        StringBuilder line = new StringBuilder(128)
+                .append("{\"seq\":").append(entry.seq)
+                .append(",\"type\":\"").append(entry.type.name())
+                .append("\",\"player\":\"").append(entry.player)
+                .append("\",\"symbol\":\"").append(JSONObject.escape(entry.symbol.key()))
+                .append("\",\"shares\":").append(entry.shares);
+        if (entry.hasPrice()) {
+            line.append(",\"price\":").append(entry.price);
+        }
+        if (entry.time != 0) {
+            line.append(",\"time\":").append(entry.time);
+        }
+        return line.append(",\"crc\":\"").append(checksum(entry)).append("\"}").toString();
+    }
+
+    // 解析失敗或檢查碼不符時回傳 null
+    private static Entry parse(String line) {
+        try {
+            JSONObject json = (JSONObject) new JSONParser().parse(line);
+            Object price = json.get("price");
+            Object time = json.get("time");
+            Entry entry = new Entry(
+                    ((Number) json.get("seq")).longValue(),
+                    Type.valueOf((String) json.get("type")),
+                    UUID.fromString((String) json.get("player")),
+                    Symbol.of((String) json.get("symbol")),
+                    ((Number) json.get("shares")).intValue(),
+                    price instanceof Number ? ((Number) price).doubleValue() : Double.NaN,
+                    time instanceof Number ? ((Number) time).longValue() : 0);
+            return checksum(entry).equals(json.get("crc")) ? entry : null;
+        } catch (ParseException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // CRC32 以固定格式的欄位計算，不依賴 JSON 欄位順序 (沒有時間的舊紀錄格式不變)
+    private static String checksum(Entry entry) {
+        String canonical = entry.seq + "|" + entry.type.name() + "|" + entry.player + "|" + entry.symbol.key() +
+                "|" + entry.shares + "|" + (entry.hasPrice() ? Double.toString(entry.price) : "") +
+                (entry.time != 0 ? "|" + entry.time : "");
+        CRC32 crc = new CRC32();
+        crc.update(canonical.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+}
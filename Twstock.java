@@ -5,45 +5,51 @@ import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
-import java.util.Map;
-import java.util.Properties;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class Twstock extends JavaPlugin {
 
     // Yahoo Finance API URL (保持舊版設定)
     private static final String YAHOO_API_URL = "https://query1.finance.yahoo.com/v8/finance/chart/%s?interval=1d";
-    // TWSE ISIN URL for fetching stock Chinese names
-    private static final String TWSE_ISIN_URL = "https://isin.twse.com.tw/isin/C_public.jsp?strMode=2"; // 上市公司
-    private static final String TPEX_ISIN_URL = "https://isin.twse.com.tw/isin/C_public.jsp?strMode=4"; // 上櫃公司
-    private static final String STOCK_NAMES_FILE = "stock_names.properties";
-    private File stockNamesFile;
+    // Yahoo Finance 多檔走勢 API (spark)，一次請求可查詢多個代碼，不需要 cookie/crumb
+    // (v7 quote API 沒有 crumb 會回 401)；每個結果的 meta 與 chart API 相同
+    private static final String YAHOO_QUOTE_API_URL = "https://query1.finance.yahoo.com/v7/finance/spark?symbols=%s&range=1d&interval=1d";
+    // spark API 每次最多 20 個代碼
+    private static final int YAHOO_QUOTE_BATCH_SIZE = 20;
+    // 批次 API 失敗後改用逐檔查詢的時間，期間不再嘗試批次請求
+    private static final long YAHOO_QUOTE_BATCH_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private volatile long batchQuoteRetryAtMillis = 0L;
     private final DecimalFormat decimalFormat = new DecimalFormat("#,##0.00");
-    // 台灣股票中文名稱對應表 (使用 ConcurrentHashMap 提高執行緒安全)
-    private final Map<String, String> twStockChineseNames = new ConcurrentHashMap<>();
-
-    // Flag to track if Chinese names initialization has been ATTEMPTED
-    private final AtomicBoolean chineseNamesInitializationAttempted = new AtomicBoolean(false);
-    // Flag to track if Chinese names are considered successfully INITIALIZED (e.g., loaded from file or fetched)
-    private final AtomicBoolean chineseNamesReady = new AtomicBoolean(false);
-    private CompletableFuture<Void> initialNameFetchFuture = null;
+    // 台灣股票中文名稱目錄 (背景載入，完成後一次替換)
+    private StockNameDirectory stockNameDirectory;
+    // 代碼/名稱搜尋索引，隨目錄變更逐筆更新
+    private final StockSearchIndex stockSearchIndex = new StockSearchIndex();
+    private static final int TAB_COMPLETE_LIMIT = 20;
+
+    // 股價快取 (TTL 與並發請求合併)
+    private static final long DEFAULT_QUOTE_CACHE_TTL_SECONDS = 30;
+    private QuoteCache quoteCache;
+    private ValuationEngine valuationEngine;
+    private OrderEngine orderEngine;
+    // 共用的非同步 HTTP 連線 (keep-alive、HTTP/2、gzip)
+    private HttpTransport httpTransport;
+    // 所有網路與檔案 I/O 使用的虛擬執行緒執行器
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 8;
+    private IoExecutor ioExecutor;
 
     private MyStockGUI myStockGUI;
     private Economy economy;
@@ -52,9 +58,16 @@ public class Twstock extends JavaPlugin {
 
     @Override
     public void onEnable() {
-        this.getCommand("stock").setExecutor(new StockCommandExecutor());
-
-        stockNamesFile = new File(getDataFolder(), STOCK_NAMES_FILE);
+        StockCommandExecutor stockCommand = new StockCommandExecutor();
+        this.getCommand("stock").setExecutor(stockCommand);
+        this.getCommand("stock").setTabCompleter(stockCommand);
+
+        stockNameDirectory = new StockNameDirectory(this);
+        stockNameDirectory.addListener(stockSearchIndex);
+        ioExecutor = new IoExecutor(this, getConfig().getInt("io.max-requests-per-host", DEFAULT_MAX_REQUESTS_PER_HOST));
+        httpTransport = new HttpTransport(this, ioExecutor);
+        quoteCache = new QuoteCache(this, getQuoteCacheTtlSeconds(),
+                this::fetchYahooStockDataAsync, this::fetchYahooQuotesBatchAsync);
         if (!setupEconomy()) {
             getLogger().warning("Vault未找到或經濟插件不可用，股票交易功能將被禁用！");
         } else {
@@ -63,36 +76,42 @@ public class Twstock extends JavaPlugin {
         }
         File playerHoldingsFile = new File(getDataFolder(), "player_holdings.yml");
         if (playerHoldingsFile.exists()) {
-            getLogger().info("Found existing player_holdings.yml file, loading data...");
+            getLogger().info("Found existing player_holdings.yml file, converting to per-player files...");
         }
         // 先初始化玩家股票管理器
         playerStockManager = new PlayerStockManager(this);
+        // 交易寫入日誌，由 I/O 執行緒定期壓縮成快照
+        playerStockManager.startWriteBehind();
+        // 全伺服器共用的估值，必須在 GUI 之前註冊報價監聽 (GUI 更新時讀取已算好的總計)
+        valuationEngine = new ValuationEngine(quoteCache);
+        quoteCache.addListener(valuationEngine);
+        playerStockManager.addListener(valuationEngine);
+        // 有玩家持有的代碼保留最後價格，其餘過期很久的報價定期清除
+        quoteCache.setPinned(valuationEngine::isHeld);
+        quoteCache.startEvictor();
+        // 買賣單以 tick 為單位批次報價與結算
+        orderEngine = new OrderEngine(this, playerStockManager);
 
         // 然后再初始化和註冊 MyStockGUI 相關功能
         myStockGUI = new MyStockGUI(this, playerStockManager);
-        this.getCommand("mystock").setExecutor(new MyStockCommand(this, myStockGUI));
+        // 開啟中的投資組合介面定期更新報價
+        myStockGUI.startLiveUpdates();
+        myStockGUI.startInputSweep();
+        MyStockCommand myStockCommand = new MyStockCommand(this, myStockGUI);
+        this.getCommand("mystock").setExecutor(myStockCommand);
+        this.getCommand("mystock").setTabCompleter(myStockCommand);
         getServer().getPluginManager().registerEvents(new MyStockListener(myStockGUI, this), this);
-        loadStockNamesFromFile(); // 首先嘗試從檔案加載
+        stockNameDirectory.loadFromFile(); // 首先嘗試從檔案加載
 
-        // 如果檔案中沒有加載到任何名稱 (map為空) 且尚未嘗試過初始化
-        if (twStockChineseNames.isEmpty() && chineseNamesInitializationAttempted.compareAndSet(false, true)) {
+        // 如果檔案中沒有加載到任何名稱，在背景從 ISIN 網站下載；載入完成前 /stock 只顯示代碼
+        if (stockNameDirectory.isEmpty()) {
             getLogger().info("Stock names cache is empty. Initiating fetch from ISIN websites in the background...");
-            initialNameFetchFuture = CompletableFuture.runAsync(() -> {
-                fetchStockChineseNamesFromWebsites(); // 從網站獲取並保存
-                if (!twStockChineseNames.isEmpty()) {
-                    chineseNamesReady.set(true);
-                }
-                getLogger().info("Initial stock name fetching from ISIN websites complete. Total names in cache: " + twStockChineseNames.size());
-            }, getServer().getScheduler().getMainThreadExecutor(this)); // 使用 Bukkit 的異步執行緒池
-        } else if (!twStockChineseNames.isEmpty()) {
-            getLogger().info("Stock names loaded from file. Total names: " + twStockChineseNames.size());
-            chineseNamesReady.set(true); // 從檔案加載成功，標記為就緒
-            chineseNamesInitializationAttempted.set(true); // 既然從檔案加載了，也算嘗試過了
+            stockNameDirectory.bootstrapAsync();
         } else {
-            // Map 為空，但之前可能已嘗試過初始化 (例如，上次獲取失敗或檔案就是空的)
-            getLogger().info("Stock names cache is empty, and an initialization attempt might have occurred previously or failed.");
-            // 如果 chineseNamesInitializationAttempted 為 true 但 chineseNamesReady 為 false，可以考慮重試邏輯
+            getLogger().info("Stock names loaded from file. Total names: " + stockNameDirectory.size());
         }
+        // 定期在背景比對 ISIN 清單，套用新上市、改名與下市的差異
+        stockNameDirectory.startRefresher();
 
         getLogger().info("TwStock plugin has been enabled!");
     }
@@ -100,6 +119,24 @@ public class Twstock extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (stockNameDirectory != null) {
+            stockNameDirectory.stopRefresher();
+            stockNameDirectory.flush();
+        }
+        if (quoteCache != null) {
+            quoteCache.stopEvictor();
+        }
+        if (playerStockManager != null) {
+            // 停止定期壓縮後，在關閉執行緒池前同步寫出快照並關閉日誌
+            playerStockManager.stopWriteBehind();
+            playerStockManager.close();
+        }
+        if (httpTransport != null) {
+            httpTransport.close();
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown(5, TimeUnit.SECONDS);
+        }
         getLogger().info("TwStock plugin has been disabled!");
     }
 
@@ -114,26 +151,50 @@ public class Twstock extends JavaPlugin {
         economy = rsp.getProvider();
         return economy != null;
     }
-    public boolean reloadPlugin() {
+    // 持股在 I/O 執行緒上寫出後才重新載入，完成值在主執行緒上交付
+    public CompletableFuture<Boolean> reloadPlugin() {
         getLogger().info("Reloading TwStock plugin configuration...");
 
         // Reload player holdings
+        CompletableFuture<Void> holdingsReloaded = CompletableFuture.completedFuture(null);
         if (playerStockManager != null) {
-            playerStockManager.reloadHoldings();
+            holdingsReloaded = playerStockManager.reloadHoldings();
+            playerStockManager.startWriteBehind();
         }
 
         // Reload stock names
-        loadStockNamesFromFile();
+        stockNameDirectory.loadFromFile();
+
+        // Reload quote cache TTL
+        reloadConfig();
+        quoteCache.setTtlSeconds(getQuoteCacheTtlSeconds());
+        quoteCache.clear();
+        quoteCache.startEvictor();
+        stockNameDirectory.startRefresher();
+        if (myStockGUI != null) {
+            myStockGUI.startLiveUpdates();
+            myStockGUI.startInputSweep();
+        }
 
         // Reload other configurations if needed
 
-        getLogger().info("TwStock plugin configuration reloaded successfully!");
-        return true;
+        return holdingsReloaded.handle((ignored, error) -> {
+            if (error != null) {
+                getLogger().severe("Could not reload player holdings: " + error.getMessage());
+                return false;
+            }
+            getLogger().info("TwStock plugin configuration reloaded successfully!");
+            return true;
+        });
     }
     public Economy getEconomy() {
         return economy;
     }
 
+    public OrderEngine getOrderEngine() {
+        return orderEngine;
+    }
+
     public PlayerStockManager getPlayerStockManager() {
         return playerStockManager;
     }
@@ -142,25 +203,91 @@ public class Twstock extends JavaPlugin {
         return vaultEnabled;
     }
 
-    // 提供訪問中文名稱 Map 的方法
+    public QuoteCache getQuoteCache() {
+        return quoteCache;
+    }
+
+    public ValuationEngine getValuationEngine() {
+        return valuationEngine;
+    }
+
+    public IoExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    private long getQuoteCacheTtlSeconds() {
+        return getConfig().getLong("quote-cache.ttl-seconds", DEFAULT_QUOTE_CACHE_TTL_SECONDS);
+    }
+
+    // 提供訪問中文名稱 Map 的方法 (唯讀)
     public Map<String, String> getTwStockChineseNames() {
-        return twStockChineseNames;
+        return stockNameDirectory.asMap();
+    }
+
+    public StockNameDirectory getStockNameDirectory() {
+        return stockNameDirectory;
+    }
+
+    public StockSearchIndex getStockSearchIndex() {
+        return stockSearchIndex;
+    }
+
+    // 股票代碼/名稱的 Tab 補全建議
+    public List<String> suggestStocks(String input) {
+        return stockSearchIndex.suggest(input, TAB_COMPLETE_LIMIT);
+    }
+
+    /**
+     * 將玩家輸入解析為標準化代碼。含中文時視為名稱並從搜尋索引查找 (無法唯一對應時回傳 null)，
+     * 否則視為代碼；純數字代碼只在上櫃清單中時才補 .TWO，其餘維持預設的 .TW。
+     */
+    public Symbol resolveStockInput(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = input.trim();
+        if (!StockSearchIndex.isAsciiOnly(trimmed)) {
+            String resolved = stockSearchIndex.resolveName(trimmed);
+            return resolved != null ? Symbol.of(resolved) : null;
+        }
+        Symbol symbol = Symbol.of(trimmed);
+        if (symbol.market() == StockNameDirectory.Market.TWSE && symbol.code().equals(trimmed)
+                && stockNameDirectory.get(symbol.key()) == null && stockNameDirectory.get(trimmed + ".TWO") != null) {
+            return Symbol.of(trimmed + ".TWO");
+        }
+        return symbol;
     }
 
     // 提供訪問中文名就緒狀態的方法
     public boolean areChineseNamesReady() {
-        return chineseNamesReady.get();
+        return stockNameDirectory.isReady();
     }
 
-    public CompletableFuture<Void> getInitialNameFetchFuture() { // 確保這個 getter 存在
-        return initialNameFetchFuture;
+    public CompletableFuture<Integer> getInitialNameFetchFuture() {
+        return stockNameDirectory.getBootstrapFuture();
     }
 
-    public StockData fetchYahooStockDataForGUI(String normalizedSymbol) {
-        return fetchYahooStockData(normalizedSymbol);
+    /**
+     * 批次取得多檔股票報價，盡量合併成最少的上游請求。
+     * 每個代碼都有對應的 QuoteResult (含失敗狀態)。
+     */
+    public CompletableFuture<Map<Symbol, QuoteResult>> fetchQuotesAsync(Collection<Symbol> symbols) {
+        return quoteCache.getAllAsync(symbols);
     }
 
-    private class StockCommandExecutor implements CommandExecutor {
+    private class StockCommandExecutor implements CommandExecutor, TabCompleter {
+        @Override
+        public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+            if (args.length == 1) {
+                return suggestStocks(args[0]);
+            }
+            return Collections.emptyList();
+        }
+
         @Override
         public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
             if (!(sender instanceof Player)) {
@@ -170,54 +297,57 @@ public class Twstock extends JavaPlugin {
             Player player = (Player) sender;
 
             if (args.length != 1) {
-                player.sendMessage(ChatColor.RED + "使用方法: /stock <股票代碼>");
-                player.sendMessage(ChatColor.GRAY + "例如: /stock 2330 或 /stock 2330.TW 或 /stock 6446.TWO");
+                player.sendMessage(ChatColor.RED + "使用方法: /stock <股票代碼或名稱>");
+                player.sendMessage(ChatColor.GRAY + "例如: /stock 2330 或 /stock 2330.TW 或 /stock 6446.TWO 或 /stock 台積電");
                 return true;
             }
 
             String stockSymbolArg = args[0];
-            String normalizedSymbol = normalizeStockSymbol(stockSymbolArg); // 標準化輸入
+            Symbol symbol = resolveStockInput(stockSymbolArg); // 標準化輸入 (名稱會轉為代碼)
+            if (symbol == null) {
+                sendNameCandidates(player, stockSymbolArg);
+                return true;
+            }
+            String normalizedSymbol = symbol.key();
 
             getLogger().info("Player " + player.getName() + " querying: " + stockSymbolArg + " (Normalized: " + normalizedSymbol + ")");
 
-            // 檢查中文名稱初始化狀態
-            if (initialNameFetchFuture != null && !initialNameFetchFuture.isDone()) {
-                player.sendMessage(ChatColor.YELLOW + "系統正在初始化股票名稱列表，請稍候幾秒鐘再試...");
-                return true;
-            }
-            // 如果嘗試過初始化但列表仍為空 (可能獲取失敗)，也提示一下
-            if (chineseNamesInitializationAttempted.get() && !chineseNamesReady.get() && isTaiwanStock(normalizedSymbol)) {
+            // 檢查中文名稱初始化狀態：載入中仍照常查詢，只是先顯示代碼
+            boolean namesLoading = stockNameDirectory.isLoading();
+            if (namesLoading && symbol.isTaiwan()) {
+                player.sendMessage(ChatColor.YELLOW + "股票名稱列表仍在背景載入中 (" + stockNameDirectory.describeProgress() + ")，暫時只顯示股票代碼。");
+            } else if (stockNameDirectory.getState() == StockNameDirectory.State.FAILED && symbol.isTaiwan()) {
+                // 如果嘗試過初始化但列表仍為空 (可能獲取失敗)，也提示一下
                 player.sendMessage(ChatColor.YELLOW + "股票中文名稱列表可能正在更新或初始化失敗，部分名稱可能無法顯示。將嘗試直接查詢...");
             }
 
-
-            String chineseName = twStockChineseNames.get(normalizedSymbol);
+            String chineseName = stockNameDirectory.get(normalizedSymbol);
 
             player.sendMessage(ChatColor.YELLOW + "正在查詢 " +
                     (chineseName != null ? chineseName + " (" + normalizedSymbol + ")" : normalizedSymbol) +
                     " 的股票資訊...");
 
-            CompletableFuture.runAsync(() -> {
+            ioExecutor.run(() -> {
                 try {
-                    StockData stockData = fetchYahooStockData(normalizedSymbol);
+                    StockData stockData = quoteCache.get(symbol);
 
                     if (stockData != null) {
                         String displayName = chineseName; // 優先使用快取的中文名
 
                         // 如果快取中沒有，並且是台灣股票，嘗試從 Yahoo 返回的名稱或再次從 ISIN 獲取
-                        if (displayName == null) {
-                            if (isTaiwanStock(normalizedSymbol)) {
+                        // (名稱列表仍在載入中時跳過，避免重複下載 ISIN 頁面)
+                        if (displayName == null && !namesLoading) {
+                            if (symbol.isTaiwan()) {
                                 // 嘗試使用 Yahoo API 返回的 shortName
                                 if (stockData.shortName != null && !stockData.shortName.equalsIgnoreCase(normalizedSymbol) && !stockData.shortName.isEmpty()) {
                                     displayName = stockData.shortName;
                                     getLogger().info("Using Yahoo's name for " + normalizedSymbol + ": " + displayName + ". Caching it.");
-                                    addStockName(normalizedSymbol, displayName); // 添加到我們的快取
+                                    stockNameDirectory.put(normalizedSymbol, displayName); // 添加到我們的快取
                                 } else {
-                                    // 如果 Yahoo 的名字也不好，最後嘗試一次單獨從 ISIN 抓取
-                                    String fetchedNameOnline = fetchSingleStockChineseNameFromWeb(normalizedSymbol);
+                                    // 如果 Yahoo 的名字也不好，最後透過 ISIN 清單索引查詢 (含查無快取)
+                                    String fetchedNameOnline = stockNameDirectory.lookupAsync(normalizedSymbol).join();
                                     if (fetchedNameOnline != null) {
                                         displayName = fetchedNameOnline;
-                                        addStockName(normalizedSymbol, fetchedNameOnline);
                                     }
                                 }
                             }
@@ -225,6 +355,8 @@ public class Twstock extends JavaPlugin {
                             if (displayName == null) {
                                 displayName = stockData.shortName;
                             }
+                        } else if (displayName == null && !symbol.isTaiwan()) {
+                            displayName = stockData.shortName;
                         }
                         // 最後的保障，如果 displayName 還是 null，就用 normalizedSymbol
                         if (displayName == null || displayName.isEmpty()) {
@@ -272,34 +404,17 @@ public class Twstock extends JavaPlugin {
         }
     }
 
-    // 標準化股票代碼輸入
-    String normalizeStockSymbol(String symbol) {
-        String upperSymbol = symbol.toUpperCase();
-        // 處理純數字輸入 (例如 "2330")，預設為 .TW
-        if (upperSymbol.matches("^\\d{4,6}$") && !upperSymbol.contains(".")) {
-            getLogger().info("Input '" + symbol + "' is numeric, normalizing to " + upperSymbol + ".TW");
-            return upperSymbol + ".TW";
-        }
-        // 如果以 .tw 或 .two 結尾 (不區分大小寫)，則標準化為大寫後綴
-        if (upperSymbol.endsWith(".TW")) {
-            return upperSymbol;
-        }
-        if (upperSymbol.endsWith(".TWO")) { // 內部統一使用 .TWO 代表上櫃
-            return upperSymbol;
+    // 名稱無法唯一對應到代碼時，列出候選股票
+    void sendNameCandidates(Player player, String input) {
+        List<StockSearchIndex.Match> matches = stockSearchIndex.search(input, 8);
+        if (matches.isEmpty()) {
+            player.sendMessage(ChatColor.RED + "找不到名稱符合「" + input + "」的股票，請改用股票代碼。");
+            return;
         }
-        // 允許 .OOTC 輸入，並將其視為 .TWO 類型進行中文名查找，但查詢 Yahoo 時會用 .OOTC
-        if (upperSymbol.endsWith(".OOTC")) {
-            // 為了中文名稱查找，我們可能需要一個映射，或者讓 fetchSingleStockChineseNameFromWeb 也能處理 .OOTC
-            // 簡單起見，如果中文名是以 .TWO 存儲的，這裡可以先正規劃成 .TWO 查找中文名，查詢 Yahoo 時再轉回 .OOTC
-            // 但更一致的做法是，如果用戶輸入.OOTC，我們就認可它是一種TPEX的表示
-            return upperSymbol; // 保持 .OOTC
+        player.sendMessage(ChatColor.YELLOW + "符合「" + input + "」的股票有多檔，請輸入股票代碼：");
+        for (StockSearchIndex.Match match : matches) {
+            player.sendMessage(ChatColor.GRAY + " - " + ChatColor.WHITE + match.symbol + ChatColor.GRAY + " " + match.name);
         }
-        // 其他國際代碼直接返回大寫
-        return upperSymbol;
-    }
-
-    private boolean isTaiwanStock(String normalizedSymbol) {
-        return normalizedSymbol.endsWith(".TW") || normalizedSymbol.endsWith(".TWO") || normalizedSymbol.endsWith(".OOTC");
     }
 
     private String getCurrencySymbol(String currencyCode) {
@@ -314,48 +429,6 @@ public class Twstock extends JavaPlugin {
         }
     }
 
-    private void loadStockNamesFromFile() {
-        if (!getDataFolder().exists()) {
-            getDataFolder().mkdirs();
-        }
-        if (stockNamesFile.exists()) {
-            Properties props = new Properties();
-            // 使用 UTF-8 讀取，避免中文亂碼
-            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(stockNamesFile), StandardCharsets.UTF_8)) {
-                props.load(reader);
-                int count = 0;
-                for (String key : props.stringPropertyNames()) {
-                    twStockChineseNames.put(key.toUpperCase(), props.getProperty(key)); // 鍵名也統一為大寫
-                    count++;
-                }
-                getLogger().info("Loaded " + count + " stock names from " + STOCK_NAMES_FILE);
-                if (count > 0) {
-                    chineseNamesReady.set(true); // 從檔案加載了內容，標記為就緒
-                }
-            } catch (IOException e) {
-                getLogger().warning("Error loading stock names from " + STOCK_NAMES_FILE + ": " + e.getMessage());
-            }
-        } else {
-            getLogger().info(STOCK_NAMES_FILE + " does not exist. Will attempt to fetch from web if needed.");
-        }
-    }
-
-    private synchronized void saveStockNamesToFile() {
-        if (!getDataFolder().exists()) {
-            getDataFolder().mkdirs();
-        }
-        Properties props = new Properties();
-        twStockChineseNames.forEach(props::setProperty);
-
-        // 使用 UTF-8 寫入
-        try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(stockNamesFile), StandardCharsets.UTF_8)) {
-            props.store(writer, "Taiwan Stock Chinese Names (TWSE & TPEX)");
-            getLogger().info("Saved " + twStockChineseNames.size() + " stock names to " + STOCK_NAMES_FILE);
-        } catch (IOException e) {
-            getLogger().warning("Error saving stock names to " + STOCK_NAMES_FILE + ": " + e.getMessage());
-        }
-    }
-
     private String formatVolume(long volume) {
         if (volume == 0) return "N/A"; // 舊版沒有這個，但通常交易量為0會顯示N/A
         if (volume >= 1_000_000_000) {
@@ -408,41 +481,7 @@ public class Twstock extends JavaPlugin {
             // 打印 meta object 以便調試 (可以根據需要開關)
             // getLogger().info("Yahoo 'meta' object for " + originalSymbolForLog + ": " + meta.toJSONString());
 
-            StockData data = new StockData();
-            data.currency = getStringValue(meta, "currency", "Unknown");
-            data.exchange = getStringValue(meta, "exchangeName", "Unknown");
-            // Yahoo 返回的名稱，如果 meta 中有 symbol 欄位，優先使用，否則用 shortName
-            data.shortName = getStringValue(meta, "symbol", getStringValue(meta, "shortName", originalSymbolForLog));
-
-
-            data.currentPrice = getDoubleValue(meta, "regularMarketPrice", 0.0);
-            data.dayHigh = getDoubleValue(meta, "regularMarketDayHigh", data.currentPrice);
-            data.dayLow = getDoubleValue(meta, "regularMarketDayLow", data.currentPrice);
-
-            // 價格變動計算邏輯 (與舊版類似，但更健壯)
-            double previousClose = getDoubleValue(meta, "chartPreviousClose", 0.0);
-            if (previousClose == 0.0 && meta.containsKey("previousClose")) { // 備援
-                previousClose = getDoubleValue(meta, "previousClose", data.currentPrice);
-            }
-            if (previousClose == 0.0 && data.currentPrice != 0.0 && meta.containsKey("regularMarketChange")) {
-                double marketChange = getDoubleValue(meta, "regularMarketChange", 0.0);
-                previousClose = data.currentPrice - marketChange;
-            }
-
-            // 優先使用 Yahoo API 直接提供的漲跌幅
-            if (meta.containsKey("regularMarketChange") && meta.containsKey("regularMarketChangePercent")) {
-                data.change = getDoubleValue(meta, "regularMarketChange", 0.0);
-                data.percentChange = getDoubleValue(meta, "regularMarketChangePercent", 0.0) * 100; // Yahoo 的百分比是小數
-            } else if (previousClose > 0) { // 舊版計算方式
-                data.change = data.currentPrice - previousClose;
-                data.percentChange = (data.change / previousClose) * 100.0;
-            } else {
-                data.change = 0.0;
-                data.percentChange = 0.0;
-            }
-
-            data.volume = getLongValue(meta, "regularMarketVolume", 0L);
-
+            StockData data = parseChartMeta(meta, originalSymbolForLog);
             getLogger().info("Parsed StockData for " + originalSymbolForLog + ": Price=" + data.currentPrice + ", Change=" + data.change + ", %Change=" + data.percentChange);
             return data;
 
@@ -453,232 +492,208 @@ public class Twstock extends JavaPlugin {
         }
     }
 
+    // chart 與 spark API 共用的 meta 解析
+    private StockData parseChartMeta(JSONObject meta, String originalSymbolForLog) {
+        StockData data = new StockData();
+        data.currency = getStringValue(meta, "currency", "Unknown");
+        data.exchange = getStringValue(meta, "exchangeName", "Unknown");
+        // Yahoo 返回的名稱，如果 meta 中有 symbol 欄位，優先使用，否則用 shortName
+        data.shortName = getStringValue(meta, "symbol", getStringValue(meta, "shortName", originalSymbolForLog));
+
+        data.currentPrice = getDoubleValue(meta, "regularMarketPrice", 0.0);
+        data.dayHigh = getDoubleValue(meta, "regularMarketDayHigh", data.currentPrice);
+        data.dayLow = getDoubleValue(meta, "regularMarketDayLow", data.currentPrice);
+
+        // 價格變動計算邏輯 (與舊版類似，但更健壯)
+        double previousClose = getDoubleValue(meta, "chartPreviousClose", 0.0);
+        if (previousClose == 0.0 && meta.containsKey("previousClose")) { // 備援
+            previousClose = getDoubleValue(meta, "previousClose", data.currentPrice);
+        }
+        if (previousClose == 0.0 && data.currentPrice != 0.0 && meta.containsKey("regularMarketChange")) {
+            double marketChange = getDoubleValue(meta, "regularMarketChange", 0.0);
+            previousClose = data.currentPrice - marketChange;
+        }
 
-    // HTTP 請求輔助方法，用於獲取網頁內容 (ISIN 和 Yahoo 都會用到)
-    private String fetchHttpContent(String urlString, String charsetName, String userAgent, String context) throws IOException {
-        // First clean any potential Minecraft color codes that might have been added
-        urlString = ChatColor.stripColor(urlString);
-
-        // Log the cleaned URL for debugging
-        getLogger().info("Cleaned URL for HTTP request: " + urlString);
-
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty("User-Agent", userAgent);
-        connection.setConnectTimeout(8000);
-        connection.setReadTimeout(15000);
-
-        int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), charsetName))) {
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line).append(System.lineSeparator());
-                }
-                getLogger().fine("Successfully fetched HTTP content from " + urlString + " for " + context);
-                return response.toString();
-            }
+        // 優先使用 Yahoo API 直接提供的漲跌幅
+        if (meta.containsKey("regularMarketChange") && meta.containsKey("regularMarketChangePercent")) {
+            data.change = getDoubleValue(meta, "regularMarketChange", 0.0);
+            data.percentChange = getDoubleValue(meta, "regularMarketChangePercent", 0.0) * 100; // Yahoo 的百分比是小數
+        } else if (previousClose > 0) { // 舊版計算方式
+            data.change = data.currentPrice - previousClose;
+            data.percentChange = (data.change / previousClose) * 100.0;
         } else {
-            String errorDetails = "N/A";
-            try (InputStream errorStream = connection.getErrorStream()) {
-                if (errorStream != null) {
-                    try (BufferedReader errorReader = new BufferedReader(new InputStreamReader(errorStream, StandardCharsets.UTF_8))) {
-                        StringBuilder errorResponse = new StringBuilder();
-                        String line;
-                        while ((line = errorReader.readLine()) != null) {
-                            errorResponse.append(line);
-                        }
-                        errorDetails = errorResponse.toString();
-                    }
-                }
-            } catch (IOException ex) {
-                errorDetails = "Could not read error stream: " + ex.getMessage();
-            }
-
-            if (responseCode == 429) {
-                getLogger().severe("HTTP request to " + urlString + " for " + context + " failed with 429 (Too Many Requests). API limit reached. Details: " + errorDetails);
-                throw new IOException("API Rate Limit Exceeded (429) for " + urlString);
-            } else {
-                getLogger().warning("HTTP request to " + urlString + " for " + context + " failed with code: " + responseCode + ". Details: " + errorDetails);
-            }
-            return null;
+            data.change = 0.0;
+            data.percentChange = 0.0;
         }
+
+        data.volume = getLongValue(meta, "regularMarketVolume", 0L);
+        return data;
     }
 
-    // fetchYahooStockData 方法，與舊版相似，但調用了 fetchHttpContent 並處理 TPEX
-    private StockData fetchYahooStockData(String normalizedSymbol) {
-        // Clean any color codes from the symbol
-        normalizedSymbol = ChatColor.stripColor(normalizedSymbol);
 
-        String yahooQuerySymbol = normalizedSymbol;
-        if (normalizedSymbol.endsWith(".TWO")) {
-            yahooQuerySymbol = normalizedSymbol.substring(0, normalizedSymbol.length() - 4) + ".OOTC";
-            getLogger().info("Mapping internal symbol " + normalizedSymbol + " to " + yahooQuerySymbol + " for Yahoo API query.");
-        } else if (normalizedSymbol.endsWith(".OOTC")) {
-            yahooQuerySymbol = normalizedSymbol;
-        }
+    // HTTP 請求輔助方法，用於獲取網頁內容 (Yahoo 會用到)
+    // 非同步版本，透過共用的 HttpTransport 發送請求
+    CompletableFuture<String> fetchHttpContentAsync(String urlString, String charsetName, String userAgent, String context) {
+        // 代碼在建立 Symbol 時已經去除顏色碼，這裡不需要再清理
+        return httpTransport.getStringAsync(urlString, charsetName, userAgent, context);
+    }
 
+    // 非同步查詢單一股票 (處理上櫃 TPEX 代碼)，失敗時以 null 完成
+    private CompletableFuture<StockData> fetchYahooStockDataAsync(Symbol symbol) {
+        // Yahoo 查詢用代碼 (上櫃 .TWO -> .OOTC) 已在 Symbol 中算好
+        String yahooQuerySymbol = symbol.yahooSymbol();
         String apiUrl = String.format(YAHOO_API_URL, yahooQuerySymbol);
-        try {
-            getLogger().info("Attempting to fetch Yahoo data for: " + yahooQuerySymbol + " (Original input: " + normalizedSymbol + ") from URL: " + apiUrl);
-            String jsonResponse = fetchHttpContent(apiUrl, StandardCharsets.UTF_8.name(), "Mozilla/5.0", "Yahoo API for " + yahooQuerySymbol);
-
-            if (jsonResponse != null) {
-                return parseYahooData(jsonResponse, yahooQuerySymbol);
-            } else {
-                getLogger().warning("Received null JSON response from Yahoo API for " + yahooQuerySymbol + " (after HTTP fetch attempt).");
-            }
-        } catch (IOException e) {
-            if (e.getMessage() != null && e.getMessage().contains("API Rate Limit Exceeded")) {
-                getLogger().severe("YAHOO API RATE LIMIT HIT for " + yahooQuerySymbol + ". Please advise user to wait.");
-            } else {
-                getLogger().severe("IOException fetching/processing Yahoo stock data for " + yahooQuerySymbol + ": " + e.getMessage());
-            }
-        } catch (Exception e) {
-            getLogger().severe("Unexpected error fetching/processing Yahoo stock data for " + yahooQuerySymbol + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-        return null;
+        getLogger().info("Attempting to fetch Yahoo data for: " + yahooQuerySymbol + " (Internal symbol: " + symbol + ") from URL: " + apiUrl);
+        return fetchHttpContentAsync(apiUrl, StandardCharsets.UTF_8.name(), "Mozilla/5.0", "Yahoo API for " + yahooQuerySymbol)
+                .thenApply(jsonResponse -> {
+                    if (jsonResponse != null) {
+                        return parseYahooData(jsonResponse, yahooQuerySymbol);
+                    }
+                    getLogger().warning("Received null JSON response from Yahoo API for " + yahooQuerySymbol + " (after HTTP fetch attempt).");
+                    return null;
+                })
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof IOException && cause.getMessage() != null && cause.getMessage().contains("API Rate Limit Exceeded")) {
+                        getLogger().severe("YAHOO API RATE LIMIT HIT for " + yahooQuerySymbol + ". Please advise user to wait.");
+                    } else if (cause instanceof IOException) {
+                        getLogger().severe("IOException fetching/processing Yahoo stock data for " + yahooQuerySymbol + ": " + cause.getMessage());
+                    } else {
+                        getLogger().severe("Unexpected error fetching/processing Yahoo stock data for " + yahooQuerySymbol + ": " + cause.getMessage());
+                        cause.printStackTrace();
+                    }
+                    return null;
+                });
     }
 
-
-    // addStockName 方法，確保鍵值大寫，並在新增或變更時才保存
-    private void addStockName(String symbol, String name) {
-        if (symbol == null || name == null || symbol.trim().isEmpty() || name.trim().isEmpty()) {
-            return;
+    // 使用多檔報價 API 批次查詢，每 YAHOO_QUOTE_BATCH_SIZE 個代碼一個請求，各批次並行送出
+    private CompletableFuture<Map<Symbol, QuoteResult>> fetchYahooQuotesBatchAsync(List<Symbol> symbols) {
+        List<CompletableFuture<Map<Symbol, QuoteResult>>> chunks = new ArrayList<>();
+        for (int from = 0; from < symbols.size(); from += YAHOO_QUOTE_BATCH_SIZE) {
+            List<Symbol> chunk = symbols.subList(from, Math.min(from + YAHOO_QUOTE_BATCH_SIZE, symbols.size()));
+            chunks.add(fetchYahooQuoteChunkAsync(new ArrayList<>(chunk)));
         }
-        String normalizedKey = symbol.toUpperCase();
-        String existingName = twStockChineseNames.get(normalizedKey);
-        if (existingName == null || !existingName.equals(name)) {
-            twStockChineseNames.put(normalizedKey, name);
-            getLogger().info("Added/Updated stock name in cache: " + normalizedKey + " - " + name + ". Saving to file.");
-            saveStockNamesToFile(); // 保存到檔案
-        }
-    }
 
-    // 從 ISIN 網站獲取所有股票中文名稱
-    private void fetchStockChineseNamesFromWebsites() {
-        getLogger().info("Starting fetch of all Taiwanese stock names from ISIN websites...");
-        int initialSize = twStockChineseNames.size();
-
-        parseAndStoreStockNamesFromIsin(TWSE_ISIN_URL, ".TW", "BIG5", "TWSE Listed");
-        parseAndStoreStockNamesFromIsin(TPEX_ISIN_URL, ".TWO", "BIG5", "TPEX Listed"); // 內部統一存為 .TWO
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    Map<Symbol, QuoteResult> results = new HashMap<>();
+                    for (CompletableFuture<Map<Symbol, QuoteResult>> chunk : chunks) {
+                        results.putAll(chunk.join());
+                    }
+                    return results;
+                });
+    }
 
-        int newNamesCount = twStockChineseNames.size() - initialSize;
-        if (newNamesCount > 0) {
-            getLogger().info("Fetched " + newNamesCount + " new stock names from ISIN websites. Total cached: " + twStockChineseNames.size());
-            saveStockNamesToFile(); // 批量獲取後保存一次
-        } else {
-            getLogger().info("No new stock names fetched from ISIN, or all were already cached. Total cached: " + twStockChineseNames.size());
+    private CompletableFuture<Map<Symbol, QuoteResult>> fetchYahooQuoteChunkAsync(List<Symbol> chunk) {
+        // 批次 API 最近失敗過，冷卻期間直接逐檔查詢，不再多送一個注定失敗的請求
+        if (System.currentTimeMillis() < batchQuoteRetryAtMillis) {
+            return fetchYahooQuotesIndividuallyAsync(chunk);
         }
-    }
 
-    // 從 ISIN 網站獲取單個股票的中文名稱 (用於按需獲取)
-    private String fetchSingleStockChineseNameFromWeb(String fullStockSymbol) {
-        // 確保 fullStockSymbol 已經是標準化後的 (例如 2330.TW, 6446.TWO, 或 GOOG)
-        if (!isTaiwanStock(fullStockSymbol)) return null; // 只處理台灣股票
+        // Yahoo 代碼 -> 內部代碼
+        Map<String, Symbol> byYahooSymbol = new LinkedHashMap<>();
+        for (Symbol symbol : chunk) {
+            byYahooSymbol.put(symbol.yahooSymbol(), symbol);
+        }
 
-        String stockCode = fullStockSymbol.split("\\.")[0];
-        String urlToFetch;
-        String targetSuffixForCache; // 用於添加到快取時的後綴
-        String context;
+        String joined = URLEncoder.encode(String.join(",", byYahooSymbol.keySet()), StandardCharsets.UTF_8);
+        String apiUrl = String.format(YAHOO_QUOTE_API_URL, joined);
+        getLogger().info("Fetching batched Yahoo quotes for " + byYahooSymbol.size() + " symbols");
+
+        return fetchHttpContentAsync(apiUrl, StandardCharsets.UTF_8.name(), "Mozilla/5.0",
+                "Yahoo spark API for " + byYahooSymbol.size() + " symbols")
+                .thenCompose(jsonResponse -> {
+                    Map<String, StockData> parsed = jsonResponse != null ? parseYahooSparkData(jsonResponse) : null;
+                    if (parsed == null) {
+                        // 批次 API 不可用時，退回逐檔查詢，並在冷卻期間內不再嘗試
+                        backOffBatchQuotes();
+                        return fetchYahooQuotesIndividuallyAsync(chunk);
+                    }
+                    batchQuoteRetryAtMillis = 0L;
+
+                    Map<Symbol, QuoteResult> results = new HashMap<>();
+                    for (Map.Entry<String, Symbol> entry : byYahooSymbol.entrySet()) {
+                        StockData data = parsed.get(entry.getKey().toUpperCase());
+                        results.put(entry.getValue(), data != null
+                                ? QuoteResult.ok(entry.getValue(), data)
+                                : QuoteResult.failed(entry.getValue(), QuoteResult.Status.NOT_FOUND));
+                    }
+                    return CompletableFuture.completedFuture(results);
+                })
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    QuoteResult.Status status = cause.getMessage() != null && cause.getMessage().contains("API Rate Limit Exceeded")
+                            ? QuoteResult.Status.RATE_LIMITED : QuoteResult.Status.ERROR;
+                    getLogger().severe("Error fetching batched Yahoo quotes: " + cause.getMessage());
+                    Map<Symbol, QuoteResult> results = new HashMap<>();
+                    for (Symbol symbol : chunk) {
+                        results.put(symbol, QuoteResult.failed(symbol, status));
+                    }
+                    return results;
+                });
+    }
 
-        if (fullStockSymbol.endsWith(".TW")) {
-            urlToFetch = TWSE_ISIN_URL;
-            targetSuffixForCache = ".TW";
-            context = "Single TWSE stock " + stockCode;
-        } else if (fullStockSymbol.endsWith(".TWO") || fullStockSymbol.endsWith(".OOTC")) { // 兩者都視為查詢 TPEX
-            urlToFetch = TPEX_ISIN_URL;
-            targetSuffixForCache = ".TWO"; // 我們快取中 TPEX 統一用 .TWO
-            context = "Single TPEX stock " + stockCode;
+    // 只在批次 API 由可用轉為失敗時記錄 WARNING，冷卻期間重試仍失敗只記錄 fine
+    private void backOffBatchQuotes() {
+        boolean wasAvailable = batchQuoteRetryAtMillis == 0L;
+        batchQuoteRetryAtMillis = System.currentTimeMillis() + YAHOO_QUOTE_BATCH_RETRY_MILLIS;
+        if (wasAvailable) {
+            getLogger().warning("Batched Yahoo quote request failed, using per-symbol chart requests for the next "
+                    + TimeUnit.MILLISECONDS.toMinutes(YAHOO_QUOTE_BATCH_RETRY_MILLIS) + " minutes");
         } else {
-            return null; // 不支持的格式
+            getLogger().fine("Batched Yahoo quote request still failing, staying on per-symbol chart requests");
         }
+    }
 
-        getLogger().info("Attempting to fetch single stock name for: " + stockCode + " (" + fullStockSymbol + ") from " + urlToFetch);
-        try {
-            // ISIN 網站使用舊版 User-Agent
-            String htmlContent = fetchHttpContent(urlToFetch, "BIG5", "Mozilla/5.0", context);
-            if (htmlContent != null) {
-                Document doc = Jsoup.parse(htmlContent);
-                Elements rows = doc.select("table.h4 tr, table tr"); // Jsoup 選擇器
-                for (Element row : rows) {
-                    Elements cells = row.select("td");
-                    if (cells.size() >= 1) { // ISIN 的代碼和名稱在第一個 td
-                        String cellText = cells.get(0).text(); // 例如："2330　台積電"
-                        if (cellText.contains("　")) { // 使用全形空格分隔
-                            String[] parts = cellText.split("　", 2);
-                            if (parts.length == 2 && parts[0].trim().equals(stockCode)) {
-                                String name = parts[1].trim();
-                                getLogger().info("Found name via single fetch for " + stockCode + targetSuffixForCache + ": " + name);
-                                return name; // 返回找到的名稱
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            getLogger().warning("IOException fetching single stock name for " + stockCode + targetSuffixForCache + ": " + e.getMessage());
-        } catch (Exception e) { // 其他解析錯誤等
-            getLogger().warning("Error parsing single stock name for " + stockCode + targetSuffixForCache + ": " + e.getMessage());
-            e.printStackTrace();
+    private CompletableFuture<Map<Symbol, QuoteResult>> fetchYahooQuotesIndividuallyAsync(List<Symbol> symbols) {
+        Map<Symbol, CompletableFuture<StockData>> futures = new LinkedHashMap<>();
+        for (Symbol symbol : symbols) {
+            futures.put(symbol, fetchYahooStockDataAsync(symbol));
         }
-        getLogger().info("Could not find name for " + stockCode + targetSuffixForCache + " from ISIN website via single fetch.");
-        return null;
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    Map<Symbol, QuoteResult> results = new HashMap<>();
+                    futures.forEach((symbol, future) -> {
+                        StockData data = future.join();
+                        results.put(symbol, data != null ? QuoteResult.ok(symbol, data) : QuoteResult.failed(symbol, QuoteResult.Status.ERROR));
+                    });
+                    return results;
+                });
     }
 
-    // 解析 ISIN 網頁並存儲股票名稱
-    private void parseAndStoreStockNamesFromIsin(String urlString, String suffixForCache, String charset, String context) {
-        getLogger().info("Parsing stock names from " + urlString + " for " + context + " with suffix " + suffixForCache);
+    // 解析 spark API 的回應，回傳 Yahoo 代碼 (大寫) -> StockData；回應格式不符時回傳 null
+    private Map<String, StockData> parseYahooSparkData(String jsonString) {
+        Map<String, StockData> parsed = new HashMap<>();
         try {
-            // ISIN 網站使用舊版 User-Agent
-            String htmlContent = fetchHttpContent(urlString, charset, "Mozilla/5.0", "Bulk ISIN " + context);
-            if (htmlContent == null) {
-                getLogger().warning("Failed to fetch content from " + urlString + " for " + context);
-                return;
+            JSONParser parser = new JSONParser();
+            JSONObject root = (JSONObject) parser.parse(jsonString);
+            JSONObject spark = (JSONObject) root.get("spark");
+            if (spark == null) {
+                getLogger().fine("Yahoo spark API response missing 'spark' object.");
+                return null;
             }
-
-            Document doc = Jsoup.parse(htmlContent);
-            // 舊版選擇器：doc.select("tr")。可以嘗試更精確的，如果知道表格結構的話。
-            // 例如，如果表格有特定 class "h4": doc.select("table.h4 tr")
-            // 為了兼容，先用寬泛的，如果不行再調整。
-            Elements rows = doc.select("tr"); // 與舊版 fetchCompanyListWithJsoup 的選擇器一致
-
-            int foundCount = 0;
-            int processedRows = 0;
-            for (Element row : rows) {
-                processedRows++;
-                Elements cells = row.select("td");
-                // 舊版的邏輯是 if (tds.size() == 7)，這裡我們只關心第一個 td 是否包含 "代碼　名稱"
-                if (!cells.isEmpty()) {
-                    String firstCellText = cells.first().text();
-                    if (firstCellText.contains("　")) {
-                        String[] parts = firstCellText.split("　", 2);
-                        if (parts.length == 2) {
-                            String stockCode = parts[0].trim();
-                            String stockName = parts[1].trim();
-                            // 舊版檢查了 stockCode.length() == 4，可以保留或修改
-                            if (stockCode.matches("^\\d{4,6}$")) { // 匹配4到6位數字的代碼
-                                addStockName(stockCode + suffixForCache, stockName);
-                                foundCount++;
-                                if (foundCount % 200 == 0) { // 每處理200個日誌一次進度
-                                    getLogger().info("Processed " + foundCount + " valid entries from " + urlString + " (last: " + stockCode + ")");
-                                }
-                            }
-                        }
-                    }
-                }
+            org.json.simple.JSONArray resultArray = (org.json.simple.JSONArray) spark.get("result");
+            if (resultArray == null) {
+                return parsed;
             }
-            getLogger().info("Finished parsing " + urlString + " for " + context + ". Processed " + processedRows + " rows, added/updated " + foundCount + " names with suffix " + suffixForCache);
 
-        } catch (IOException e) {
-            getLogger().warning("IOException while parsing stock names from " + urlString + " (" + context + "): " + e.getMessage());
+            for (Object item : resultArray) {
+                JSONObject result = (JSONObject) item;
+                String yahooSymbol = getStringValue(result, "symbol", null);
+                org.json.simple.JSONArray responses = (org.json.simple.JSONArray) result.get("response");
+                if (yahooSymbol == null || responses == null || responses.isEmpty()) continue;
+
+                JSONObject meta = (JSONObject) ((JSONObject) responses.get(0)).get("meta");
+                if (meta == null) continue;
+                StockData data = parseChartMeta(meta, yahooSymbol);
+                if (data.currentPrice <= 0.0) continue; // 查無此代碼時 Yahoo 仍會回傳空的 meta
+                parsed.put(yahooSymbol.toUpperCase(), data);
+            }
         } catch (Exception e) {
-            getLogger().severe("Unexpected error parsing stock names from " + urlString + " (" + context + "): " + e.getMessage());
-            e.printStackTrace();
+            getLogger().warning("處理 Yahoo 多檔報價數據時意外錯誤: " + e.getMessage());
+            return null;
         }
+        return parsed;
     }
 
     // --- 安全獲取 JSON 值的輔助方法 (與舊版類似) ---
@@ -0,0 +1,245 @@
+package me.ninepin.twstock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 全伺服器共用的投資組合估值：以「股票 -> 持有的玩家」反向索引，
+ * 報價變動時只重新計算持有該股票的玩家，交易時只更新該玩家的一檔股票，總計都以差額累加。
+ * GUI、排行榜與管理指令直接讀取算好的結果 (O(1))，不需要再逐檔查詢報價與成本。
+ * 只追蹤已載入記憶體的玩家 (線上或尚未寫檔)，價格使用報價快取中上次取得的報價。
+ */
+public class ValuationEngine implements QuoteCache.UpdateListener, PlayerStockManager.HoldingsListener {
+
+    /**
+     * 玩家投資組合的估值 (不可變)。成本與市值只計入已有報價的股票。
+     */
+    public static final class Summary {
+        static final Summary EMPTY = new Summary(0, 0, 0.0, 0.0);
+
+        public final int holdings;
+        public final int pricedHoldings;
+        public final double totalCost;
+        public final double marketValue;
+
+        Summary(int holdings, int pricedHoldings, double totalCost, double marketValue) {
+            this.holdings = holdings;
+            this.pricedHoldings = pricedHoldings;
+            this.totalCost = totalCost;
+            this.marketValue = marketValue;
+        }
+
+        public double getProfit() {
+            return marketValue - totalCost;
+        }
+
+        public double getProfitPercentage() {
+            return totalCost > 0 ? getProfit() / totalCost * 100 : 0.0;
+        }
+    }
+
+    // 單一玩家的各檔持股與累計的總計，修改時以物件本身同步
+    private static final class Portfolio {
+        private final Map<Symbol, Line> lines = new HashMap<>();
+        private int pricedHoldings;
+        private double totalCost;
+        private double marketValue;
+        private volatile Summary summary = Summary.EMPTY;
+
+        synchronized void update(Symbol symbol, int shares, double cost, double price) {
+            Line old = lines.remove(symbol);
+            if (old != null) {
+                subtract(old);
+            }
+            if (shares > 0) {
+                Line line = new Line(shares, cost, price);
+                lines.put(symbol, line);
+                add(line);
+            }
+            publish();
+        }
+
+        synchronized void reprice(Symbol symbol, double price) {
+            Line old = lines.get(symbol);
+            if (old == null) return;
+            Line line = new Line(old.shares, old.cost, price);
+            subtract(old);
+            lines.put(symbol, line);
+            add(line);
+            publish();
+        }
+
+        synchronized double marketValueOf(Symbol symbol) {
+            Line line = lines.get(symbol);
+            return line != null && line.isPriced() ? line.value() : 0.0;
+        }
+
+        private void add(Line line) {
+            if (line.isPriced()) {
+                pricedHoldings++;
+                totalCost += line.cost;
+                marketValue += line.value();
+            }
+        }
+
+        private void subtract(Line line) {
+            if (line.isPriced()) {
+                pricedHoldings--;
+                totalCost -= line.cost;
+                marketValue -= line.value();
+            }
+        }
+
+        private void publish() {
+            summary = new Summary(lines.size(), pricedHoldings, totalCost, marketValue);
+        }
+    }
+
+    private static final class Line {
+        final int shares;
+        final double cost;
+        // 沒有報價時為 NaN
+        final double price;
+
+        Line(int shares, double cost, double price) {
+            this.shares = shares;
+            this.cost = cost;
+            this.price = price;
+        }
+
+        boolean isPriced() {
+            return !Double.isNaN(price);
+        }
+
+        double value() {
+            return price * shares;
+        }
+    }
+
+    private final QuoteCache quoteCache;
+    private final Map<UUID, Portfolio> portfolios = new ConcurrentHashMap<>();
+    // 反向索引：股票 -> 持有的玩家
+    private final Map<Symbol, Set<UUID>> holders = new ConcurrentHashMap<>();
+
+    public ValuationEngine(QuoteCache quoteCache) {
+        this.quoteCache = quoteCache;
+    }
+
+    @Override
+    public void onPlayerLoaded(UUID player, Map<Symbol, Integer> holdings, Map<Symbol, Position> positions) {
+        // 先登記再讀取價格：之後的報價變動一定找得到這位玩家，不會漏掉
+        Portfolio portfolio = new Portfolio();
+        portfolios.put(player, portfolio);
+        for (Map.Entry<Symbol, Integer> entry : holdings.entrySet()) {
+            index(entry.getKey(), player, entry.getValue());
+            Position position = positions.get(entry.getKey());
+            portfolio.update(entry.getKey(), entry.getValue(), position != null ? position.getTotalCost() : 0.0,
+                    priceOf(entry.getKey()));
+        }
+    }
+
+    @Override
+    public void onPositionChanged(UUID player, Symbol symbol, int shares, double totalCost) {
+        Portfolio portfolio = portfolios.get(player);
+        if (portfolio == null) return;
+        if (shares > 0) {
+            index(symbol, player, shares);
+        }
+        portfolio.update(symbol, shares, totalCost, priceOf(symbol));
+        if (shares <= 0) {
+            index(symbol, player, shares);
+        }
+    }
+
+    @Override
+    public void onPlayerUnloaded(UUID player) {
+        Portfolio portfolio = portfolios.remove(player);
+        if (portfolio == null) return;
+        List<Symbol> symbols;
+        synchronized (portfolio) {
+            symbols = new ArrayList<>(portfolio.lines.keySet());
+        }
+        for (Symbol symbol : symbols) {
+            index(symbol, player, 0);
+        }
+    }
+
+    // 報價變動：只重新估算持有這檔股票的玩家
+    @Override
+    public void onQuoteChanged(Symbol symbol, Twstock.StockData data) {
+        Set<UUID> players = holders.get(symbol);
+        if (players == null) return;
+        // 讀取快取中最新的價格，兩個查詢的通知順序顛倒時也不會留下舊價格
+        double price = priceOf(symbol);
+        for (UUID player : players) {
+            Portfolio portfolio = portfolios.get(player);
+            if (portfolio != null) {
+                portfolio.reprice(symbol, price);
+            }
+        }
+    }
+
+    private void index(Symbol symbol, UUID player, int shares) {
+        if (shares > 0) {
+            holders.computeIfAbsent(symbol, key -> ConcurrentHashMap.newKeySet()).add(player);
+        } else {
+            holders.computeIfPresent(symbol, (key, players) -> {
+                players.remove(player);
+                return players.isEmpty() ? null : players;
+            });
+        }
+    }
+
+    // 是否有已載入的玩家持有這檔股票 (報價快取不清除這些代碼的最後價格)
+    public boolean isHeld(Symbol symbol) {
+        return holders.containsKey(symbol);
+    }
+
+    private double priceOf(Symbol symbol) {
+        Twstock.StockData data = quoteCache.getLastKnown(symbol);
+        return data != null ? data.currentPrice : Double.NaN;
+    }
+
+    // 玩家投資組合的估值，未載入的玩家回傳 null
+    public Summary getSummary(UUID player) {
+        Portfolio portfolio = portfolios.get(player);
+        return portfolio != null ? portfolio.summary : null;
+    }
+
+    // 玩家一檔股票的市值，沒有報價時為 0
+    public double getMarketValue(UUID player, Symbol symbol) {
+        Portfolio portfolio = portfolios.get(player);
+        return portfolio != null ? portfolio.marketValueOf(symbol) : 0.0;
+    }
+
+    public int getHolderCount(Symbol symbol) {
+        Set<UUID> players = holders.get(symbol);
+        return players != null ? players.size() : 0;
+    }
+
+    public int getTrackedPlayerCount() {
+        return portfolios.size();
+    }
+
+    public int getIndexedSymbolCount() {
+        return holders.size();
+    }
+
+    /**
+     * 依估值排序的前幾名 (排行榜)，只讀取算好的結果。
+     */
+    public List<Map.Entry<UUID, Summary>> top(int limit, Comparator<Summary> order) {
+        List<Map.Entry<UUID, Summary>> ranked = new ArrayList<>(portfolios.size());
+        for (Map.Entry<UUID, Portfolio> entry : portfolios.entrySet()) {
+            ranked.add(Map.entry(entry.getKey(), entry.getValue().summary));
+        }
+        ranked.sort(Map.Entry.comparingByValue(order));
+        return ranked.subList(0, Math.min(limit, ranked.size()));
+    }
+}
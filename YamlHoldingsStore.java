@@ -0,0 +1,196 @@
+package me.ninepin.twstock;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 每位玩家一個 YAML 檔 (players/&lt;uuid&gt;.yml)：
+ * <pre>
+ * journal-seq: 123
+ * holdings:
+ *   2330_DOT_TW: 10
+ * transactions:
+ *   2330_DOT_TW:
+ *     prices: [600.0]
+ *     shares: [10]
+ * </pre>
+ * 交易記錄只保存合併後的 lot，不保存完整歷史。
+ */
+final class YamlHoldingsStore implements HoldingsStore {
+    private static final String JOURNAL_SEQ_PATH = "journal-seq";
+
+    private final File playersFolder;
+    private final Logger logger;
+
+    YamlHoldingsStore(File playersFolder, Logger logger) {
+        this.playersFolder = playersFolder;
+        this.logger = logger;
+        if (!playersFolder.exists()) {
+            playersFolder.mkdirs();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "yaml";
+    }
+
+    @Override
+    public PlayerSnapshot load(UUID player) throws IOException {
+        File file = shardFile(player);
+        if (!file.exists()) {
+            return new PlayerSnapshot(player, 0, new HashMap<>(), new HashMap<>(), false);
+        }
+        // 不使用 loadConfiguration：它會吞掉格式錯誤並回傳空設定，損壞的檔案會被當成空的投資組合，之後寫檔時覆蓋掉原本的持股
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("Corrupt holdings file " + file.getName() + ": " + e.getMessage(), e);
+        }
+        return parse(player, config, logger);
+    }
+
+    @Override
+    public void save(Collection<PlayerSnapshot> players, List<TransactionJournal.Entry> trades) throws IOException {
+        IOException failure = null;
+        for (PlayerSnapshot snapshot : players) {
+            try {
+                writeAtomically(shardFile(snapshot.player), serialize(snapshot));
+            } catch (IOException e) {
+                logger.severe("Could not save holdings for " + snapshot.player + ": " + e.getMessage());
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean keepsHistory() {
+        return false;
+    }
+
+    @Override
+    public List<TransactionJournal.Entry> loadHistory(UUID player, int limit) {
+        return List.of();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private File shardFile(UUID player) {
+        return new File(playersFolder, player + ".yml");
+    }
+
+    /**
+     * 從玩家檔 (或舊版 player_holdings.yml 中的玩家部分) 讀出快照，
+     * 順便把舊鍵名 (例如 .OOTC 或小寫代碼) 下的持股與交易記錄合併到標準代碼。
+     */
+    static PlayerSnapshot parse(UUID player, ConfigurationSection config, Logger logger) {
+        Map<Symbol, Integer> holdings = new HashMap<>();
+        Map<Symbol, List<Double>> prices = new HashMap<>();
+        Map<Symbol, List<Integer>> shares = new HashMap<>();
+        boolean migrated = false;
+
+        ConfigurationSection holdingsSection = config.getConfigurationSection("holdings");
+        if (holdingsSection != null) {
+            for (String encodedStockSymbol : holdingsSection.getKeys(false)) {
+                int count = holdingsSection.getInt(encodedStockSymbol);
+                if (count > 0) {
+                    Symbol stockSymbol = Symbol.fromStorageKey(encodedStockSymbol);
+                    holdings.merge(stockSymbol, count, Integer::sum);
+                    migrated |= !encodedStockSymbol.equals(stockSymbol.storageKey());
+                }
+            }
+        }
+
+        ConfigurationSection transactionsSection = config.getConfigurationSection("transactions");
+        if (transactionsSection != null) {
+            for (String encodedStockSymbol : transactionsSection.getKeys(false)) {
+                Symbol stockSymbol = Symbol.fromStorageKey(encodedStockSymbol);
+                migrated |= !encodedStockSymbol.equals(stockSymbol.storageKey());
+                prices.computeIfAbsent(stockSymbol, key -> new ArrayList<>())
+                        .addAll(transactionsSection.getDoubleList(encodedStockSymbol + ".prices"));
+                shares.computeIfAbsent(stockSymbol, key -> new ArrayList<>())
+                        .addAll(transactionsSection.getIntegerList(encodedStockSymbol + ".shares"));
+            }
+        }
+        if (migrated) {
+            logger.info("Migrated legacy stock symbols for player " + player);
+        }
+
+        // 以 Position 合併同價格的 lot；兩個清單長度不一致時視為沒有成本資料
+        Map<Symbol, List<Position.Lot>> lots = new HashMap<>();
+        for (Map.Entry<Symbol, List<Double>> entry : prices.entrySet()) {
+            Position position = Position.fromLists(entry.getValue(), shares.get(entry.getKey()));
+            if (!position.isEmpty()) {
+                lots.put(entry.getKey(), position.getLots());
+            }
+        }
+        return new PlayerSnapshot(player, config.getLong(JOURNAL_SEQ_PATH, 0), holdings, lots, migrated);
+    }
+
+    private static String serialize(PlayerSnapshot snapshot) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set(JOURNAL_SEQ_PATH, snapshot.journalSeq);
+        ConfigurationSection holdingsSection = config.createSection("holdings");
+        for (Map.Entry<Symbol, Integer> entry : snapshot.holdings.entrySet()) {
+            // 只保存股數大於0的股票
+            if (entry.getValue() > 0) {
+                holdingsSection.set(entry.getKey().storageKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<Symbol, List<Position.Lot>> entry : snapshot.lots.entrySet()) {
+            List<Double> prices = new ArrayList<>(entry.getValue().size());
+            List<Integer> shares = new ArrayList<>(entry.getValue().size());
+            for (Position.Lot lot : entry.getValue()) {
+                prices.add(lot.price);
+                shares.add(lot.shares);
+            }
+            String transactionsPath = "transactions." + entry.getKey().storageKey();
+            config.set(transactionsPath + ".prices", prices);
+            config.set(transactionsPath + ".shares", shares);
+        }
+        return config.saveToString();
+    }
+
+    // 寫入暫存檔、落盤後原子替換，寫到一半當機也不會損壞原檔
+    private static void writeAtomically(File file, String content) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // 玩家檔落盤後才能刪除舊的日誌區段
+            channel.force(true);
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package me.ninepin.twstock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 儲存後端的負載測試 (測試原始碼，不會打包進外掛；不需要伺服器，test classpath 上的 Bukkit API 與 SQLite 驅動程式即可)：
+ * 以固定亂數產生 N 筆交易，依 PlayerStockManager 壓縮的方式每 batch 筆交給 save (有變更的玩家快照 + 交易紀錄)，
+ * 量測寫入吞吐量；之後重新開啟後端量測冷載入 (逐一 load 所有玩家) 與讀取交易歷史的時間。
+ *
+ * <pre>mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) me.ninepin.twstock.HoldingsStoreBenchmark
+ *     [yaml,sqlite] [10000,100000,1000000] [players] [batch]</pre>
+ *
+ * 結果 (JDK 21、1000 位玩家、每批 1000 筆)：
+ * <pre>
+ * 後端     交易數   寫入 筆/s  冷載入/人  磁碟
+ * sqlite   10k      11,475     0.3 ms     3.3 MiB
+ * sqlite   100k     11,206     0.8 ms    22.7 MiB
+ * sqlite   1M        7,788     2.0 ms   196.3 MiB
+ * yaml     10k       1,395     1.4 ms     0.5 MiB
+ * yaml     100k      2,393     1.5 ms     2.0 MiB
+ * yaml     1M        1,019     5.0 ms    11.6 MiB
+ * </pre>
+ * SQLite 只寫入有變更的 lot (比對 positions.lots_hash)；改寫前每批重寫有變更玩家的全部 lot，
+ * 同樣的負載 100k 筆 4,817 筆/s、1M 筆 859 筆/s。YAML 每批重寫有變更玩家的整個檔案且不保存交易歷史，
+ * 這裡的數字是以 SnakeYAML 2.2 (Bukkit 使用的版本，區塊格式、縮排 2) 序列化的 YamlConfiguration 替身量測的，
+ * 實際 Bukkit 的 MemorySection 轉換會再慢一些。
+ */
+final class HoldingsStoreBenchmark {
+
+    private static final Symbol[] SYMBOLS = {
+            Symbol.of("2330"), Symbol.of("2317"), Symbol.of("2454"), Symbol.of("2412"),
+            Symbol.of("2882"), Symbol.of("0050"), Symbol.of("0056"), Symbol.of("3008")
+    };
+    private static final int HISTORY_SAMPLE = 100;
+    private static final int HISTORY_LIMIT = 50;
+
+    // 記憶體中的玩家資料，與 PlayerStockManager 相同以 Position 累加 lot
+    private static final class Account {
+        final Map<Symbol, Integer> holdings = new HashMap<>();
+        final Map<Symbol, Position> positions = new HashMap<>();
+
+        HoldingsStore.PlayerSnapshot snapshot(UUID player, long journalSeq) {
+            Map<Symbol, List<Position.Lot>> lots = new HashMap<>();
+            positions.forEach((symbol, position) -> lots.put(symbol, position.getLots()));
+            return new HoldingsStore.PlayerSnapshot(player, journalSeq, new HashMap<>(holdings), lots, false);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] backends = (args.length > 0 ? args[0] : "yaml,sqlite").split(",");
+        String[] sizes = (args.length > 1 ? args[1] : "10000,100000,1000000").split(",");
+        int players = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        Logger logger = Logger.getLogger("HoldingsStoreBenchmark");
+
+        System.out.printf("%-7s %9s %7s %10s %10s %12s %12s %12s %10s%n", "backend", "trades", "players",
+                "write ms", "trades/s", "cold load ms", "per player", "history ms", "disk MiB");
+        for (String backend : backends) {
+            for (String size : sizes) {
+                run(backend.trim(), Integer.parseInt(size.trim()), players, batch, logger);
+            }
+        }
+    }
+
+    private static void run(String backend, int tradeCount, int playerCount, int batch, Logger logger) throws IOException {
+        Path directory = Files.createTempDirectory("twstock-bench-" + backend);
+        try {
+            HoldingsStore store;
+            try {
+                store = open(backend, directory, logger);
+            } catch (IOException e) {
+                System.out.printf("%-7s %9d skipped: %s%n", backend, tradeCount, e.getMessage());
+                return;
+            }
+
+            List<UUID> players = new ArrayList<>(playerCount);
+            for (int i = 0; i < playerCount; i++) {
+                players.add(new UUID(0xBE4C, i));
+            }
+            Map<UUID, Account> accounts = new HashMap<>();
+            Random random = new Random(42);
+            Set<UUID> dirty = new LinkedHashSet<>();
+            List<TransactionJournal.Entry> trades = new ArrayList<>(batch);
+            long writeNanos = 0;
+            long time = System.currentTimeMillis();
+
+            for (long seq = 1; seq <= tradeCount; seq++) {
+                UUID player = players.get(random.nextInt(playerCount));
+                Symbol symbol = SYMBOLS[random.nextInt(SYMBOLS.length)];
+                Account account = accounts.computeIfAbsent(player, key -> new Account());
+                int held = account.holdings.getOrDefault(symbol, 0);
+                TransactionJournal.Entry trade;
+                if (held > 0 && random.nextInt(10) < 3) {
+                    int shares = 1 + random.nextInt(held);
+                    trade = new TransactionJournal.Entry(seq, TransactionJournal.Type.SELL, player, symbol, shares, Double.NaN, time + seq);
+                    if (shares == held) {
+                        account.holdings.remove(symbol);
+                        account.positions.remove(symbol);
+                    } else {
+                        account.holdings.put(symbol, held - shares);
+                    }
+                } else {
+                    int shares = 1 + random.nextInt(1000);
+                    // 價格以 0.5 元為單位，同價格的 lot 會合併
+                    double price = 500.0 + random.nextInt(200) * 0.5;
+                    trade = new TransactionJournal.Entry(seq, TransactionJournal.Type.BUY, player, symbol, shares, price, time + seq);
+                    account.holdings.merge(symbol, shares, Integer::sum);
+                    account.positions.put(symbol, account.positions.getOrDefault(symbol, Position.EMPTY).withLot(price, shares));
+                }
+                dirty.add(player);
+                if (store.keepsHistory()) {
+                    trades.add(trade);
+                }
+
+                if (seq % batch == 0 || seq == tradeCount) {
+                    List<HoldingsStore.PlayerSnapshot> snapshots = new ArrayList<>(dirty.size());
+                    for (UUID uuid : dirty) {
+                        snapshots.add(accounts.get(uuid).snapshot(uuid, seq));
+                    }
+                    long startedAt = System.nanoTime();
+                    store.save(snapshots, trades);
+                    writeNanos += System.nanoTime() - startedAt;
+                    dirty.clear();
+                    trades = new ArrayList<>(batch);
+                }
+            }
+            store.close();
+
+            // 冷載入：重新開啟後端，逐一讀取每位玩家並核對持股與 lot
+            HoldingsStore reopened = open(backend, directory, logger);
+            long loadStartedAt = System.nanoTime();
+            int mismatches = 0;
+            for (UUID player : players) {
+                HoldingsStore.PlayerSnapshot snapshot = reopened.load(player);
+                Account account = accounts.get(player);
+                HoldingsStore.PlayerSnapshot expected = account != null ? account.snapshot(player, 0) : null;
+                if (!snapshot.holdings.equals(expected != null ? expected.holdings : Map.of())
+                        || !lotsByPrice(snapshot.lots).equals(expected != null ? lotsByPrice(expected.lots) : Map.of())) {
+                    mismatches++;
+                }
+            }
+            long loadNanos = System.nanoTime() - loadStartedAt;
+
+            long historyStartedAt = System.nanoTime();
+            for (int i = 0; i < Math.min(HISTORY_SAMPLE, playerCount); i++) {
+                reopened.loadHistory(players.get(i), HISTORY_LIMIT);
+            }
+            long historyNanos = System.nanoTime() - historyStartedAt;
+            reopened.close();
+
+            System.out.printf("%-7s %9d %7d %10.0f %10.0f %12.1f %10.1f us %12.1f %10.1f%n", backend, tradeCount, playerCount,
+                    writeNanos / 1e6, tradeCount / (writeNanos / 1e9), loadNanos / 1e6, loadNanos / 1e3 / playerCount,
+                    historyNanos / 1e6, sizeOf(directory) / (1024.0 * 1024.0));
+            if (mismatches > 0) {
+                System.out.println("  " + mismatches + " players loaded with different holdings or lots");
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    // symbol -> (成交價 -> 股數)，Lot 沒有 equals
+    private static Map<Symbol, Map<Double, Integer>> lotsByPrice(Map<Symbol, List<Position.Lot>> lots) {
+        Map<Symbol, Map<Double, Integer>> byPrice = new HashMap<>();
+        lots.forEach((symbol, symbolLots) -> {
+            if (symbolLots.isEmpty()) return;
+            Map<Double, Integer> prices = new HashMap<>();
+            for (Position.Lot lot : symbolLots) {
+                prices.merge(lot.price, lot.shares, Integer::sum);
+            }
+            byPrice.put(symbol, prices);
+        });
+        return byPrice;
+    }
+
+    private static HoldingsStore open(String backend, Path directory, Logger logger) throws IOException {
+        if (backend.equalsIgnoreCase("sqlite")) {
+            return new SqliteHoldingsStore(directory.resolve("holdings.db").toFile(), logger);
+        }
+        return new YamlHoldingsStore(new File(directory.toFile(), "players"), logger);
+    }
+
+    private static long sizeOf(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package me.ninepin.twstock;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * PlayerStockManager 的多執行緒壓力測試 (測試原始碼，不會打包進外掛；不需要伺服器，test classpath 即可)：
+ * 少數玩家由多個執行緒同時 buyShares / removeShares，另有執行緒不斷壓縮寫檔與讀取快照。
+ * 檢查項目：持股不會變成負數、Position 的 lot 總和與 O(1) 的成本資料一致、最後的持股等於成功交易的總和，
+ * 以及關閉後重新開啟 (後端 + 日誌重播) 的結果相同。
+ *
+ * <pre>java -cp target/test-classes:target/classes:$(cat cp.txt) me.ninepin.twstock.HoldingsStressHarness
+ *     [yaml|sqlite] [threads] [players] [seconds]</pre>
+ * (cp.txt 由 mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt 產生)
+ */
+final class HoldingsStressHarness {
+
+    private static final Symbol[] SYMBOLS = {
+            Symbol.of("2330"), Symbol.of("2317"), Symbol.of("2454"), Symbol.of("0050")
+    };
+    private static final double[] PRICES = {580.0, 581.5, 590.0, 602.25};
+
+    private final String backend;
+    private final int threads;
+    private final List<Player> players = new ArrayList<>();
+    private final long durationNanos;
+    // 玩家:股票 -> 成功交易後應有的股數
+    private final Map<String, LongAdder> expected = new ConcurrentHashMap<>();
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong buys = new AtomicLong();
+    private final AtomicLong sells = new AtomicLong();
+    private final AtomicLong rejectedSells = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+
+    private HoldingsStressHarness(String backend, int threads, int playerCount, int seconds) {
+        this.backend = backend;
+        this.threads = threads;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < playerCount; i++) {
+            players.add(player(new UUID(0x5EED, i), "stress" + i));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "yaml";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        int playerCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        boolean passed = new HoldingsStressHarness(backend, threads, playerCount, seconds).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        Path dataFolder = Files.createTempDirectory("twstock-stress");
+        Logger logger = Logger.getLogger("HoldingsStress");
+        // 賣光時的 info 訊息太多
+        logger.setLevel(Level.WARNING);
+        try {
+            PlayerStockManager manager = open(dataFolder.toFile(), logger);
+            long startedAt = System.nanoTime();
+
+            List<Thread> workers = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int i = 0; i < threads; i++) {
+                workers.add(Thread.ofPlatform().name("stress-trader-" + i).start(() -> trade(manager, start)));
+            }
+            Thread flusher = Thread.ofPlatform().name("stress-flusher").start(() -> flush(manager, start));
+            Thread reader = Thread.ofPlatform().name("stress-reader").start(() -> read(manager, start));
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            running.set(false);
+            flusher.join();
+            reader.join();
+            long elapsed = System.nanoTime() - startedAt;
+
+            Map<String, Integer> live = collect(manager, "after run");
+            manager.close();
+            // 重新開啟：後端的資料加上日誌重播應該得到相同的持股與成本
+            PlayerStockManager reopened = open(dataFolder.toFile(), logger);
+            Map<String, Integer> reloaded = collect(reopened, "after reopen");
+            if (!reloaded.equals(live)) {
+                failures.add("reopened holdings " + reloaded + " != " + live);
+            }
+            reopened.close();
+
+            double seconds = elapsed / 1e9;
+            System.out.printf("backend=%s threads=%d players=%d: %d buys, %d sells (%d rejected), %d flushes, %d reads in %.1f s (%.0f trades/s)%n",
+                    backend, threads, players.size(), buys.get(), sells.get(), rejectedSells.get(), flushes.get(),
+                    reads.get(), seconds, (buys.get() + sells.get()) / seconds);
+        } finally {
+            deleteRecursively(dataFolder);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS");
+            return true;
+        }
+        System.out.println("FAIL (" + failures.size() + " problems)");
+        failures.stream().limit(20).forEach(failure -> System.out.println("  " + failure));
+        return false;
+    }
+
+    private PlayerStockManager open(File dataFolder, Logger logger) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.backend", backend);
+        // 壓縮由 flusher 執行緒進行，不使用 IoExecutor
+        config.set("storage.compact-after-records", Integer.MAX_VALUE);
+        return new PlayerStockManager(dataFolder, logger, config, () -> {
+            throw new IllegalStateException("HoldingsStressHarness does not provide an IoExecutor");
+        });
+    }
+
+    private void trade(PlayerStockManager manager, CountDownLatch start) {
+        await(start);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long deadline = System.nanoTime() + durationNanos;
+        while (System.nanoTime() < deadline) {
+            Player player = players.get(random.nextInt(players.size()));
+            Symbol symbol = SYMBOLS[random.nextInt(SYMBOLS.length)];
+            int shares = 1 + random.nextInt(100);
+            LongAdder tally = expected.computeIfAbsent(key(player, symbol), key -> new LongAdder());
+            if (random.nextInt(5) < 3) {
+                manager.buyShares(player, symbol, shares, PRICES[random.nextInt(PRICES.length)]);
+                tally.add(shares);
+                buys.incrementAndGet();
+            } else if (manager.removeShares(player, symbol, shares)) {
+                tally.add(-shares);
+                sells.incrementAndGet();
+            } else {
+                rejectedSells.incrementAndGet();
+            }
+        }
+    }
+
+    private void flush(PlayerStockManager manager, CountDownLatch start) {
+        await(start);
+        while (running.get()) {
+            manager.flush();
+            flushes.incrementAndGet();
+            sleep(5);
+        }
+    }
+
+    // 不加鎖讀取快照與 Position，檢查看到的資料是一致的
+    private void read(PlayerStockManager manager, CountDownLatch start) {
+        await(start);
+        while (running.get()) {
+            for (Player player : players) {
+                for (Map.Entry<Symbol, Integer> entry : manager.getPlayerHoldings(player).entrySet()) {
+                    if (entry.getValue() <= 0) {
+                        failures.add("snapshot of " + key(player, entry.getKey()) + " has " + entry.getValue() + " shares");
+                    }
+                }
+                for (Symbol symbol : SYMBOLS) {
+                    if (manager.getShareCount(player, symbol) < 0) {
+                        failures.add(key(player, symbol) + " went negative");
+                    }
+                    checkPosition(manager.getPosition(player, symbol), key(player, symbol));
+                }
+                reads.incrementAndGet();
+            }
+        }
+    }
+
+    private Map<String, Integer> collect(PlayerStockManager manager, String phase) {
+        Map<String, Integer> result = new HashMap<>();
+        for (Player player : players) {
+            Map<Symbol, Integer> holdings = manager.getPlayerHoldings(player);
+            for (Symbol symbol : SYMBOLS) {
+                String key = key(player, symbol);
+                int shares = holdings.getOrDefault(symbol, 0);
+                LongAdder tally = expected.get(key);
+                long want = tally != null ? tally.sum() : 0;
+                if (shares != want) {
+                    failures.add(phase + ": " + key + " has " + shares + " shares, expected " + want);
+                }
+                Position position = manager.getPosition(player, symbol);
+                if (shares == 0 && position != null) {
+                    failures.add(phase + ": " + key + " sold out but still has a position");
+                }
+                checkPosition(position, key);
+                result.put(key, shares);
+                if (position != null) {
+                    result.put(key + ":cost", (int) Math.round(position.getTotalCost()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private void checkPosition(Position position, String key) {
+        if (position == null) return;
+        long lotShares = 0;
+        double lotCost = 0.0;
+        for (Position.Lot lot : position.getLots()) {
+            lotShares += lot.shares;
+            lotCost += lot.price * lot.shares;
+        }
+        if (lotShares != position.getCostShares() || Math.abs(lotCost - position.getTotalCost()) > 1e-6 * Math.max(1.0, lotCost)) {
+            failures.add(key + " lots (" + lotShares + " shares, " + lotCost + ") disagree with position (" +
+                    position.getCostShares() + " shares, " + position.getTotalCost() + ")");
+        }
+    }
+
+    private static String key(Player player, Symbol symbol) {
+        return player.getName() + ":" + symbol;
+    }
+
+    // 只回答 PlayerStockManager 會用到的方法
+    private static Player player(UUID uuid, String name) {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "getName", "toString" -> name;
+                    case "isOnline" -> true;
+                    case "hashCode" -> uuid.hashCode();
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package me.ninepin.twstock;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * ISIN 頁面解析的比較：IsinPageParser (串流) 與舊的 Jsoup 路徑 (整頁讀成字串、Jsoup.parse、select("tr") / select("td"))，
+ * 在同一份錄下來的頁面上量測解析時間、配置量與 heap 峰值，並核對兩者得到的 (代碼, 名稱) 完全相同。
+ * 測試原始碼，不會打包進外掛；Jsoup 只是 test 範圍的相依套件。
+ *
+ * <pre>curl -o isin2.html "https://isin.twse.com.tw/isin/C_public.jsp?strMode=2"
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -XX:+UseSerialGC -Xmx512m -cp target/test-classes:target/classes:$(cat cp.txt) \
+ *     me.ninepin.twstock.IsinParseBenchmark isin2.html [stream|jsoup|both]
+ * java -cp target/test-classes:target/classes me.ninepin.twstock.IsinParseBenchmark --generate synthetic.html [rows]</pre>
+ *
+ * heap 峰值為解析期間各 heap 區域峰值的總和減去解析前 (GC 後) 的使用量，建議以 Serial GC 與固定的 -Xmx 執行，
+ * 並把兩種解析分開在不同的 JVM 執行。
+ *
+ * 以 --generate 產生的 40,000 列 (9.3 MiB) 頁面、Jsoup 1.17.2、-XX:+UseSerialGC -Xmx512m 的結果：
+ * 串流 186.6 ms、配置 65.3 MiB、heap 峰值 +28.8 MiB；Jsoup 610.2 ms、配置 195.7 MiB、heap 峰值 +169.4 MiB。
+ */
+final class IsinParseBenchmark {
+
+    private static final Charset BIG5 = Charset.forName("Big5");
+    private static final char FULL_WIDTH_SPACE = '\u3000'; // 全形空格
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args[0].equals("--generate")) {
+            int rows = args.length > 2 ? Integer.parseInt(args[2]) : 40000;
+            Files.write(Path.of(args[1]), generate(rows).getBytes(BIG5));
+            System.out.println("Wrote " + rows + " rows to " + args[1]);
+            return;
+        }
+        if (args.length < 1) {
+            System.out.println("usage: IsinParseBenchmark <fixture.html> [stream|jsoup|both] | --generate <file> [rows]");
+            return;
+        }
+        byte[] page = Files.readAllBytes(Path.of(args[0]));
+        String mode = args.length > 1 ? args[1] : "both";
+        System.out.printf("fixture %s: %.1f MiB%n", args[0], page.length / (1024.0 * 1024.0));
+
+        Map<String, String> streamed = null;
+        Map<String, String> jsouped = null;
+        if (!mode.equals("jsoup")) {
+            streamed = measure("stream", () -> parseStreaming(page));
+        }
+        if (!mode.equals("stream")) {
+            jsouped = measure("jsoup", () -> parseJsoup(page));
+        }
+        if (streamed != null && jsouped != null) {
+            System.out.println(streamed.equals(jsouped) ? "same " + streamed.size() + " entries from both parsers"
+                    : "MISMATCH: stream " + streamed.size() + " entries, jsoup " + jsouped.size());
+        }
+    }
+
+    private interface Parse {
+        Map<String, String> run() throws Exception;
+    }
+
+    private static Map<String, String> measure(String name, Parse parse) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            parse.run();
+        }
+
+        long[] times = new long[ITERATIONS];
+        Map<String, String> result = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long startedAt = System.nanoTime();
+            result = parse.run();
+            times[i] = System.nanoTime() - startedAt;
+        }
+        Arrays.sort(times);
+
+        // 單獨一次，量測配置量與 heap 峰值
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        System.gc();
+        System.gc();
+        long baseline = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            baseline += pool.getUsage().getUsed();
+            pool.resetPeakUsage();
+        }
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        parse.run();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+
+        System.out.printf("%-6s median %7.1f ms (min %.1f, max %.1f)  allocated %7.1f MiB  peak heap +%7.1f MiB  %d entries%n",
+                name, times[ITERATIONS / 2] / 1e6, times[0] / 1e6, times[ITERATIONS - 1] / 1e6,
+                allocated / (1024.0 * 1024.0), (peak - baseline) / (1024.0 * 1024.0), result.size());
+        return result;
+    }
+
+    private static Map<String, String> parseStreaming(byte[] page) throws IOException {
+        Map<String, String> names = new HashMap<>();
+        IsinPageParser.parse(new ByteArrayInputStream(page), BIG5, (stockCode, stockName) -> {
+            names.put(stockCode, stockName);
+            return true;
+        });
+        return names;
+    }
+
+    // 舊的路徑：逐行讀成字串 (每行加上換行)，建立完整的 Document 後取每一列的第一個 td
+    private static Map<String, String> parseJsoup(byte[] page) throws IOException {
+        StringBuilder response = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(page), BIG5))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.append(line).append(System.lineSeparator());
+            }
+        }
+
+        Map<String, String> names = new HashMap<>();
+        Document document = Jsoup.parse(response.toString());
+        for (Element row : document.select("tr")) {
+            Elements cells = row.select("td");
+            if (cells.isEmpty()) continue;
+            String cellText = cells.first().text();
+            int separator = cellText.indexOf(FULL_WIDTH_SPACE);
+            if (separator <= 0) continue;
+            String stockCode = cellText.substring(0, separator).trim();
+            String stockName = cellText.substring(separator + 1).trim();
+            if (!stockName.isEmpty() && IsinPageParser.isStockCode(stockCode)) {
+                names.put(stockCode, stockName);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 依 ISIN 頁面的結構產生測試頁面 (無法取得真實頁面時使用)：標題表格、分類列 (colspan)、
+     * 每列 7 個 td 的股票與權證，第一格為「代碼　名稱」。
+     */
+    static String generate(int rows) {
+        String chars = "台積電鴻海聯發科中華電信國泰金富邦大立光統一塑膠化學水泥食品紡織鋼鐵航運半導體光電通訊網路元大寶來群益凱基永豐購售";
+        String[] industries = {"半導體業", "電子零組件業", "金融保險業", "航運業", "水泥工業", "食品工業", ""};
+        Random random = new Random(2330);
+        StringBuilder page = new StringBuilder(rows * 220);
+        page.append("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=MS950\">\n")
+                .append("<title>本國上市證券國際證券辨識號碼一覽表</title></head>\n<body>\n")
+                .append("<table align=center><h2><strong class=\"h1\">本國上市證券國際證券辨識號碼一覽表</strong></h2>")
+                .append("<h2><strong class=\"h1\"><center>最近更新日期:2026/10/18</center></strong></h2></table>\n")
+                .append("<TABLE class='h4' align=center cellSpacing=3 cellPadding=2 width=750 border=0>")
+                .append("<tr align=center><td bgcolor=#D5FFD5>有價證券代號及名稱 </td><td bgcolor=#D5FFD5>國際證券辨識號碼(ISIN Code)</td>")
+                .append("<td bgcolor=#D5FFD5>上市日</td><td bgcolor=#D5FFD5>市場別</td><td bgcolor=#D5FFD5>產業別</td>")
+                .append("<td bgcolor=#D5FFD5>CFICode</td><td bgcolor=#D5FFD5>備註</td></tr>\n");
+        for (int i = 0; i < rows; i++) {
+            if (i % 5000 == 0) {
+                page.append("<tr><td bgcolor=#FAFAD2 colspan=7 ><B> ").append(i == 0 ? "股票" : "上市認購(售)權證")
+                        .append("<B> </td></tr>\n");
+            }
+            // 前段為 4 碼股票，之後為 6 碼權證
+            String code = i < rows / 10 ? String.valueOf(1000 + i % 9000) : String.format("%06d", 30000 + i);
+            StringBuilder name = new StringBuilder();
+            int length = 2 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                name.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            String cell = code + FULL_WIDTH_SPACE + name;
+            String isin = "TW000" + code + "00" + (i % 10);
+            page.append("<tr><td bgcolor=#FAFAD2>").append(cell).append("</td><td bgcolor=#FAFAD2>").append(isin)
+                    .append("</td><td bgcolor=#FAFAD2>").append(1962 + i % 60).append("/0").append(1 + i % 9).append("/1").append(i % 10)
+                    .append("</td><td bgcolor=#FAFAD2>上市</td><td bgcolor=#FAFAD2>").append(industries[i % industries.length])
+                    .append("</td><td bgcolor=#FAFAD2>").append(i < rows / 10 ? "ESVUFR" : "RWSCCE")
+                    .append("</td><td bgcolor=#FAFAD2></td></tr>\n");
+        }
+        page.append("</table>\n<font color=#0000ff>&nbsp;備註：</font></body></html>\n");
+        return page.toString();
+    }
+}